@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.internal.file.compress.Lz4FrameInputStream;
+import org.gradle.internal.file.compress.Lz4FrameOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression applied to build cache entries.
+ *
+ * All compressions write self-describing streams, starting with the magic number of their format.
+ * This allows {@link #decompress(InputStream)} to pick the right decoder for each entry, so that
+ * changing the compression does not invalidate entries already stored in a build cache.
+ */
+public enum BuildCacheEntryCompression {
+    /**
+     * GZIP with the default compression level, the format used by all previous Gradle versions.
+     */
+    GZIP {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new GZIPOutputStream(output);
+        }
+    },
+    /**
+     * GZIP with the fastest compression level, readable by all Gradle versions.
+     */
+    GZIP_FAST {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new LeveledGZIPOutputStream(output, Deflater.BEST_SPEED);
+        }
+    },
+    /**
+     * LZ4 frames, trading compression ratio for much cheaper packing and unpacking.
+     */
+    LZ4 {
+        @Override
+        public OutputStream compress(OutputStream output) throws IOException {
+            return new Lz4FrameOutputStream(output);
+        }
+    };
+
+    public static final String COMPRESSION_PROPERTY = "org.gradle.internal.build-cache.compression";
+
+    private static final int MAGIC_LENGTH = 4;
+
+    public abstract OutputStream compress(OutputStream output) throws IOException;
+
+    /**
+     * The value of {@link #COMPRESSION_PROPERTY} selecting this compression.
+     */
+    public String getPropertyValue() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    public static BuildCacheEntryCompression fromSystemProperties() {
+        String value = System.getProperty(COMPRESSION_PROPERTY);
+        if (value == null) {
+            return GZIP;
+        }
+        for (BuildCacheEntryCompression compression : values()) {
+            if (compression.getPropertyValue().equals(value.trim().toLowerCase(Locale.ROOT))) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException(String.format("Unsupported build cache entry compression '%s' set via %s.", value, COMPRESSION_PROPERTY));
+    }
+
+    /**
+     * Decompresses an entry written by any of the supported compressions.
+     */
+    public static InputStream decompress(InputStream input) throws IOException {
+        InputStream bufferedInput = input.markSupported() ? input : new BufferedInputStream(input);
+        byte[] magic = new byte[MAGIC_LENGTH];
+        bufferedInput.mark(MAGIC_LENGTH);
+        int length = readMagic(bufferedInput, magic);
+        bufferedInput.reset();
+
+        if (length >= 2 && magic[0] == (byte) 0x1f && magic[1] == (byte) 0x8b) {
+            return new GZIPInputStream(bufferedInput);
+        }
+        if (length == MAGIC_LENGTH && readIntLittleEndian(magic) == Lz4FrameOutputStream.MAGIC) {
+            return new Lz4FrameInputStream(bufferedInput);
+        }
+        throw new IOException("Unknown compression format of build cache entry.");
+    }
+
+    private static int readMagic(InputStream input, byte[] magic) throws IOException {
+        int length = 0;
+        while (length < magic.length) {
+            int read = input.read(magic, length, magic.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static int readIntLittleEndian(byte[] bytes) {
+        return (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 24;
+    }
+
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+        public LeveledGZIPOutputStream(OutputStream output, int level) throws IOException {
+            super(output);
+            def.setLevel(level);
+        }
+    }
+}
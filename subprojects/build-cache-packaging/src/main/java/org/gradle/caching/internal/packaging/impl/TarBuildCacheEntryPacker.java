@@ -17,6 +17,7 @@
 package org.gradle.caching.internal.packaging.impl;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Interner;
 import com.google.common.io.CountingOutputStream;
@@ -50,6 +51,7 @@
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -63,8 +65,17 @@
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -74,6 +85,10 @@
 
 /**
  * Packages build cache entries to a POSIX TAR file.
+ *
+ * When given an executor, files are processed on its threads while the archive is read or written in order:
+ * packing reads small files ahead of the TAR writer, and unpacking writes and hashes small files
+ * while the TAR reader moves on to the next entry. The number of bytes buffered in memory is bounded.
  */
 public class TarBuildCacheEntryPacker implements BuildCacheEntryPacker {
 
@@ -91,22 +106,38 @@ private interface UnixPermissions {
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    // Larger files are streamed by the thread reading or writing the archive
+    private static final int MAX_BUFFERED_FILE_SIZE = 1024 * 1024;
+    private static final int MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_READ_AHEAD_ENTRIES = 1024;
 
     private final TarPackerFileSystemSupport fileSystemSupport;
     private final FilePermissionAccess filePermissionAccess;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
+    private final Executor executor;
 
     public TarBuildCacheEntryPacker(
         TarPackerFileSystemSupport fileSystemSupport,
         FilePermissionAccess filePermissionAccess,
         StreamHasher streamHasher,
         Interner<String> stringInterner
+    ) {
+        this(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, null);
+    }
+
+    public TarBuildCacheEntryPacker(
+        TarPackerFileSystemSupport fileSystemSupport,
+        FilePermissionAccess filePermissionAccess,
+        StreamHasher streamHasher,
+        Interner<String> stringInterner,
+        @Nullable Executor executor
     ) {
         this.fileSystemSupport = fileSystemSupport;
         this.filePermissionAccess = filePermissionAccess;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.executor = executor;
     }
 
     @Override
@@ -149,10 +180,89 @@ private long pack(CacheableEntity entity, Map<String, ? extends FileSystemSnapsh
         return entries.get();
     }
 
-    private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput) {
-        PackingVisitor packingVisitor = new PackingVisitor(tarOutput, name, type, filePermissionAccess);
+    private long packTree(String name, TreeType type, FileSystemSnapshot snapshots, TarArchiveOutputStream tarOutput) throws IOException {
+        PackingVisitor packingVisitor = new PackingVisitor(name, type);
         snapshots.accept(new RelativePathTracker(), packingVisitor);
-        return packingVisitor.getPackedEntryCount();
+        List<PackedEntry> packedEntries = packingVisitor.getPackedEntries();
+        if (executor == null) {
+            for (PackedEntry entry : packedEntries) {
+                storeEntry(entry, readEntry(entry, false), tarOutput);
+            }
+        } else {
+            storeEntriesReadingAhead(packedEntries, tarOutput);
+        }
+        return packedEntries.size();
+    }
+
+    private void storeEntriesReadingAhead(List<PackedEntry> entries, TarArchiveOutputStream tarOutput) throws IOException {
+        Deque<CompletableFuture<EntryContent>> readAhead = new ArrayDeque<>();
+        long bufferedBytes = 0;
+        int nextToRead = 0;
+        try {
+            for (PackedEntry entry : entries) {
+                while (nextToRead < entries.size() && (readAhead.isEmpty()
+                    || (readAhead.size() < MAX_READ_AHEAD_ENTRIES && bufferedBytes + entries.get(nextToRead).getBufferedLength() <= MAX_BUFFERED_BYTES))) {
+                    PackedEntry entryToRead = entries.get(nextToRead++);
+                    bufferedBytes += entryToRead.getBufferedLength();
+                    readAhead.add(CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return readEntry(entryToRead, true);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor));
+                }
+                EntryContent content = await(readAhead.remove());
+                bufferedBytes -= entry.getBufferedLength();
+                storeEntry(entry, content, tarOutput);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            // Do not read the remaining entries, reads that have not started yet are skipped
+            for (CompletableFuture<EntryContent> pendingRead : readAhead) {
+                pendingRead.cancel(false);
+            }
+            throw e;
+        }
+    }
+
+    private EntryContent readEntry(PackedEntry entry, boolean buffer) throws IOException {
+        switch (entry.type) {
+            case Directory:
+                return new EntryContent(entry.root ? UnixPermissions.DEFAULT_DIR_PERM : filePermissionAccess.getUnixMode(entry.file), null);
+            case RegularFile:
+                int mode = filePermissionAccess.getUnixMode(entry.file);
+                byte[] content = buffer && entry.getBufferedLength() > 0 ? Files.readAllBytes(entry.file.toPath()) : null;
+                return new EntryContent(mode, content);
+            case Missing:
+                return new EntryContent(UnixPermissions.DEFAULT_FILE_PERM, null);
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static void storeEntry(PackedEntry entry, EntryContent content, TarArchiveOutputStream tarOutput) throws IOException {
+        switch (entry.type) {
+            case Directory:
+                createTarEntry(entry.path + "/", 0, UnixPermissions.DIR_FLAG | content.mode, tarOutput);
+                break;
+            case RegularFile:
+                if (content.bytes != null) {
+                    createTarEntry(entry.path, content.bytes.length, UnixPermissions.FILE_FLAG | content.mode, tarOutput);
+                    tarOutput.write(content.bytes);
+                } else {
+                    createTarEntry(entry.path, entry.file.length(), UnixPermissions.FILE_FLAG | content.mode, tarOutput);
+                    try (FileInputStream input = new FileInputStream(entry.file)) {
+                        IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
+                    }
+                }
+                break;
+            case Missing:
+                createTarEntry("missing-" + entry.path, 0, UnixPermissions.FILE_FLAG | content.mode, tarOutput);
+                break;
+            default:
+                throw new AssertionError();
+        }
+        tarOutput.closeArchiveEntry();
     }
 
     private static void createTarEntry(String path, long size, int mode, TarArchiveOutputStream tarOutput) throws IOException {
@@ -165,18 +275,23 @@ private static void createTarEntry(String path, long size, int mode, TarArchiveO
     @Override
     public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
         try (TarArchiveInputStream tarInput = new TarArchiveInputStream(input, ENCODING.name())) {
-            return unpack(entity, tarInput, readOrigin);
+            FileUnpacker fileUnpacker = new FileUnpacker();
+            try {
+                return unpack(entity, tarInput, readOrigin, fileUnpacker);
+            } finally {
+                fileUnpacker.awaitPendingWrites();
+            }
         }
     }
 
-    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction) throws IOException {
+    private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInput, OriginReader readOriginAction, FileUnpacker fileUnpacker) throws IOException {
         ImmutableMap.Builder<String, CacheableTree> treesBuilder = ImmutableMap.builder();
         entity.visitOutputTrees((name, type, root) -> treesBuilder.put(name, new CacheableTree(type, root)));
         ImmutableMap<String, CacheableTree> treesByName = treesBuilder.build();
 
         TarArchiveEntry tarEntry;
         OriginMetadata originMetadata = null;
-        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        Map<String, DeferredSnapshot> deferredSnapshots = new HashMap<>();
 
         tarEntry = tarInput.getNextTarEntry();
         AtomicLong entries = new AtomicLong();
@@ -203,13 +318,17 @@ private UnpackResult unpack(CacheableEntity entity, TarArchiveInputStream tarInp
 
                 boolean missing = matcher.group(1) != null;
                 String childPath = matcher.group(3);
-                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, snapshots, entries);
+                tarEntry = unpackTree(treeName, tree.getType(), tree.getRoot(), tarInput, tarEntry, childPath, missing, deferredSnapshots, entries, fileUnpacker);
             }
         }
         if (originMetadata == null) {
             throw new IllegalStateException("Cached result format error, no origin metadata was found.");
         }
 
+        Map<String, FileSystemLocationSnapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, DeferredSnapshot> entry : deferredSnapshots.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().get());
+        }
         return new UnpackResult(originMetadata, entries.get(), snapshots);
     }
 
@@ -232,7 +351,7 @@ public File getRoot() {
     }
 
     @Nullable
-    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries) throws IOException {
+    private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File treeRoot, TarArchiveInputStream input, TarArchiveEntry rootEntry, String childPath, boolean missing, Map<String, DeferredSnapshot> snapshots, AtomicLong entries, FileUnpacker fileUnpacker) throws IOException {
         boolean isDirEntry = rootEntry.isDirectory();
         boolean root = Strings.isNullOrEmpty(childPath);
         if (!root) {
@@ -249,8 +368,8 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
-            snapshots.put(treeName, fileSnapshot);
+            CompletableFuture<RegularFileSnapshot> fileSnapshot = fileUnpacker.unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            snapshots.put(treeName, () -> await(fileSnapshot));
             return input.getNextTarEntry();
         }
 
@@ -259,10 +378,10 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
         }
         chmodUnpackedFile(rootEntry, treeRoot);
 
-        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName);
+        return unpackDirectoryTree(input, rootEntry, snapshots, entries, treeRoot, treeName, fileUnpacker);
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+    private RegularFileSnapshot writeFile(InputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
         try (CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file))) {
             HashCode hash = streamHasher.hashCopy(input, output);
             chmodUnpackedFile(entry, file);
@@ -273,11 +392,11 @@ private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEn
     }
 
     @Nullable
-    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, FileSystemLocationSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName) throws IOException {
+    private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArchiveEntry rootEntry, Map<String, DeferredSnapshot> snapshots, AtomicLong entries, File treeRoot, String treeName, FileUnpacker fileUnpacker) throws IOException {
         RelativePathParser parser = new RelativePathParser(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
-        builder.enterDirectory(DIRECT, stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()), INCLUDE_EMPTY_DIRS);
+        DeferredDirectorySnapshot builder = new DeferredDirectorySnapshot();
+        builder.enterDirectory(stringInterner.intern(treeRoot.getAbsolutePath()), stringInterner.intern(treeRoot.getName()));
 
         TarArchiveEntry entry;
 
@@ -295,20 +414,116 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
                 chmodUnpackedFile(entry, file);
                 String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
                 String internedName = stringInterner.intern(parser.getName());
-                builder.enterDirectory(DIRECT, internedAbsolutePath, internedName, INCLUDE_EMPTY_DIRS);
+                builder.enterDirectory(internedAbsolutePath, internedName);
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visitLeafElement(fileSnapshot);
+                builder.visitFile(fileUnpacker.unpackFile(input, entry, file, parser.getName()));
             }
         }
 
         parser.exitToRoot(builder::leaveDirectory);
         builder.leaveDirectory();
 
-        snapshots.put(treeName, builder.getResult());
+        snapshots.put(treeName, builder);
         return entry;
     }
 
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Writes the unpacked files, on the executor if there is one.
+     */
+    private class FileUnpacker {
+        private final Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+        private final List<CompletableFuture<?>> pendingWrites = new ArrayList<>();
+
+        public CompletableFuture<RegularFileSnapshot> unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            long size = entry.getSize();
+            if (executor == null || size > MAX_BUFFERED_FILE_SIZE) {
+                return CompletableFuture.completedFuture(writeFile(input, entry, file, fileName));
+            }
+            int length = (int) size;
+            bufferedBytes.acquireUninterruptibly(length);
+            byte[] content;
+            try {
+                content = IOUtils.toByteArray(input, length);
+            } catch (IOException e) {
+                bufferedBytes.release(length);
+                throw e;
+            }
+            CompletableFuture<RegularFileSnapshot> write = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return writeFile(new ByteArrayInputStream(content), entry, file, fileName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    bufferedBytes.release(length);
+                }
+            }, executor);
+            pendingWrites.add(write);
+            return write;
+        }
+
+        /**
+         * Waits for all files to be written, so no file is modified after unpacking finished or failed.
+         */
+        public void awaitPendingWrites() {
+            for (CompletableFuture<?> pendingWrite : pendingWrites) {
+                try {
+                    pendingWrite.join();
+                } catch (CompletionException ignored) {
+                    // Reported when the snapshot of the file is requested
+                }
+            }
+        }
+    }
+
+    private interface DeferredSnapshot {
+        FileSystemLocationSnapshot get() throws IOException;
+    }
+
+    private interface SnapshotBuilderStep {
+        void apply(MerkleDirectorySnapshotBuilder builder) throws IOException;
+    }
+
+    /**
+     * Records the structure of an unpacked directory, so it can be snapshotted once all its files have been written.
+     */
+    private static class DeferredDirectorySnapshot implements DeferredSnapshot {
+        private final List<SnapshotBuilderStep> steps = new ArrayList<>();
+
+        public void enterDirectory(String absolutePath, String name) {
+            steps.add(builder -> builder.enterDirectory(DIRECT, absolutePath, name, INCLUDE_EMPTY_DIRS));
+        }
+
+        public void visitFile(CompletableFuture<RegularFileSnapshot> fileSnapshot) {
+            steps.add(builder -> builder.visitLeafElement(await(fileSnapshot)));
+        }
+
+        public void leaveDirectory() {
+            steps.add(MerkleDirectorySnapshotBuilder::leaveDirectory);
+        }
+
+        @Override
+        public FileSystemLocationSnapshot get() throws IOException {
+            MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+            for (SnapshotBuilderStep step : steps) {
+                step.apply(builder);
+            }
+            return builder.getResult();
+        }
+    }
+
     private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
         filePermissionAccess.chmod(file, entry.getMode() & UnixPermissions.PERM_MASK);
     }
@@ -329,42 +544,67 @@ private static String unescape(String name) {
         }
     }
 
+    private static class PackedEntry {
+        private final String path;
+        private final FileType type;
+        private final File file;
+        private final boolean root;
+        private final long length;
+
+        public PackedEntry(String path, FileType type, File file, boolean root, long length) {
+            this.path = path;
+            this.type = type;
+            this.file = file;
+            this.root = root;
+            this.length = length;
+        }
+
+        /**
+         * The number of bytes to buffer when reading the entry ahead of writing it.
+         */
+        public long getBufferedLength() {
+            return type == FileType.RegularFile && length <= MAX_BUFFERED_FILE_SIZE ? length : 0;
+        }
+    }
+
+    private static class EntryContent {
+        private final int mode;
+        private final byte[] bytes;
+
+        public EntryContent(int mode, @Nullable byte[] bytes) {
+            this.mode = mode;
+            this.bytes = bytes;
+        }
+    }
+
     private static class PackingVisitor implements RelativePathTrackingFileSystemSnapshotHierarchyVisitor {
-        private final TarArchiveOutputStream tarOutput;
         private final String treePath;
         private final String treeRoot;
-        private final FilePermissionAccess filePermissionAccess;
         private final TreeType type;
+        private final List<PackedEntry> packedEntries = new ArrayList<>();
 
-        private long packedEntryCount;
-
-        public PackingVisitor(TarArchiveOutputStream tarOutput, String treeName, TreeType type, FilePermissionAccess filePermissionAccess) {
-            this.tarOutput = tarOutput;
+        public PackingVisitor(String treeName, TreeType type) {
             this.treePath = "tree-" + escape(treeName);
             this.treeRoot = treePath + "/";
             this.type = type;
-            this.filePermissionAccess = filePermissionAccess;
         }
 
         @Override
         public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot, RelativePathSupplier relativePath) {
             boolean isRoot = relativePath.isRoot();
             String targetPath = getTargetPath(relativePath);
+            File file = new File(snapshot.getAbsolutePath());
             snapshot.accept(new FileSystemLocationSnapshotVisitor() {
                 @Override
                 public void visitDirectory(DirectorySnapshot directorySnapshot) {
                     assertCorrectType(isRoot, snapshot);
-                    File dir = new File(snapshot.getAbsolutePath());
-                    int dirMode = isRoot ? UnixPermissions.DEFAULT_DIR_PERM : filePermissionAccess.getUnixMode(dir);
-                    storeDirectoryEntry(targetPath, dirMode, tarOutput);
+                    packedEntries.add(new PackedEntry(targetPath, FileType.Directory, file, isRoot, 0));
                 }
 
                 @Override
                 public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
                     assertCorrectType(isRoot, snapshot);
-                    File file = new File(snapshot.getAbsolutePath());
-                    int fileMode = filePermissionAccess.getUnixMode(file);
-                    storeFileEntry(file, targetPath, file.length(), fileMode, tarOutput);
+                    packedEntries.add(new PackedEntry(targetPath, FileType.RegularFile, file, isRoot, fileSnapshot.getMetadata().getLength()));
                 }
 
                 @Override
@@ -372,15 +612,14 @@ public void visitMissing(MissingFileSnapshot missingSnapshot) {
                     if (!isRoot) {
                         throw new RuntimeException(String.format("Couldn't read content of file '%s'", snapshot.getAbsolutePath()));
                     }
-                    storeMissingTree(targetPath, tarOutput);
+                    packedEntries.add(new PackedEntry(targetPath, FileType.Missing, file, true, 0));
                 }
             });
-            packedEntryCount++;
             return SnapshotVisitResult.CONTINUE;
         }
 
-        public long getPackedEntryCount() {
-            return packedEntryCount;
+        public List<PackedEntry> getPackedEntries() {
+            return packedEntries;
         }
 
         private void assertCorrectType(boolean root, FileSystemLocationSnapshot snapshot) {
@@ -407,35 +646,5 @@ private String getTargetPath(RelativePathSupplier relativePath) {
                 ? treePath
                 : treeRoot + relativePath.toRelativePath();
         }
-
-        private void storeMissingTree(String treePath, TarArchiveOutputStream tarOutput) {
-            try {
-                createTarEntry("missing-" + treePath, 0, UnixPermissions.FILE_FLAG | UnixPermissions.DEFAULT_FILE_PERM, tarOutput);
-                tarOutput.closeArchiveEntry();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-        }
-
-        private void storeDirectoryEntry(String path, int mode, TarArchiveOutputStream tarOutput) {
-            try {
-                createTarEntry(path + "/", 0, UnixPermissions.DIR_FLAG | mode, tarOutput);
-                tarOutput.closeArchiveEntry();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-        }
-
-        private void storeFileEntry(File inputFile, String path, long size, int mode, TarArchiveOutputStream tarOutput) {
-            try {
-                createTarEntry(path, size, UnixPermissions.FILE_FLAG | mode, tarOutput);
-                try (FileInputStream input = new FileInputStream(inputFile)) {
-                    IOUtils.copyLarge(input, tarOutput, COPY_BUFFERS.get());
-                }
-                tarOutput.closeArchiveEntry();
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
-            }
-        }
     }
 }
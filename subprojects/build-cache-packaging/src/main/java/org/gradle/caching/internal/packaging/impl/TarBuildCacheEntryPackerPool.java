@@ -0,0 +1,61 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The threads used by {@link TarBuildCacheEntryPacker} to read, write and hash files of build cache entries in parallel, if enabled.
+ */
+public class TarBuildCacheEntryPackerPool implements Closeable {
+    /**
+     * System property setting the number of threads used to pack and unpack build cache entries. Entries are packed on the calling thread when not set or less than 2.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.gradle.internal.build-cache.packing.parallelism";
+
+    private final ExecutorService executor;
+
+    public TarBuildCacheEntryPackerPool(int parallelism) {
+        this.executor = parallelism > 1
+            ? Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder().setNameFormat("Build cache entry packer %d").setDaemon(true).build())
+            : null;
+    }
+
+    public static TarBuildCacheEntryPackerPool fromSystemProperties() {
+        return new TarBuildCacheEntryPackerPool(Integer.getInteger(PARALLELISM_PROPERTY, 1));
+    }
+
+    /**
+     * Returns the executor to process files with, or {@code null} when entries should be packed sequentially.
+     */
+    @Nullable
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
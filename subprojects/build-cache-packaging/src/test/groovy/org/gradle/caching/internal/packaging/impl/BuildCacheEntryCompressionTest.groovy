@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream
+import spock.lang.Specification
+
+import java.util.zip.GZIPOutputStream
+
+class BuildCacheEntryCompressionTest extends Specification {
+    private static final Map<String, byte[]> CONTENTS = [
+        "no bytes": new byte[0],
+        "a few bytes": "hello".bytes,
+        "repetitive text": ("Hello World! " * 100000).bytes,
+        "random bytes": randomBytes(1024 * 1024 + 17),
+        "mixed content": ("abc" * 50000).bytes + randomBytes(300000) + ("xyz" * 50000).bytes,
+    ]
+
+    def "can decompress #compression entry of #description"() {
+        def data = CONTENTS[description]
+
+        when:
+        def compressed = compress(compression, data)
+
+        then:
+        decompress(compressed) == data
+
+        where:
+        [compression, description] << [BuildCacheEntryCompression.values(), CONTENTS.keySet()].combinations()
+    }
+
+    def "LZ4 entries are in the standard LZ4 frame format"() {
+        def data = ("Hello World! " * 100000).bytes + randomBytes(300000)
+
+        when:
+        def compressed = compress(BuildCacheEntryCompression.LZ4, data)
+
+        then:
+        compressed.length < data.length
+        new FramedLZ4CompressorInputStream(new ByteArrayInputStream(compressed)).bytes == data
+    }
+
+    def "GZIP entries are compatible with previous Gradle versions"() {
+        def data = ("Hello World! " * 1000).bytes
+
+        expect:
+        compress(BuildCacheEntryCompression.GZIP, data) == gzip(data)
+    }
+
+    def "detects corrupted LZ4 entry"() {
+        def compressed = compress(BuildCacheEntryCompression.LZ4, ("Hello World! " * 1000).bytes)
+        compressed[compressed.length - 1] = (byte) (compressed[compressed.length - 1] ^ 0xFF)
+
+        when:
+        decompress(compressed)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "LZ4 frame content checksum mismatch."
+    }
+
+    def "fails for unknown compression format"() {
+        when:
+        decompress("not compressed".bytes)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "Unknown compression format of build cache entry."
+    }
+
+    def "selects compression via system property"() {
+        given:
+        System.setProperty(BuildCacheEntryCompression.COMPRESSION_PROPERTY, value)
+
+        expect:
+        BuildCacheEntryCompression.fromSystemProperties() == compression
+
+        cleanup:
+        System.clearProperty(BuildCacheEntryCompression.COMPRESSION_PROPERTY)
+
+        where:
+        value       | compression
+        "gzip"      | BuildCacheEntryCompression.GZIP
+        "gzip-fast" | BuildCacheEntryCompression.GZIP_FAST
+        "LZ4"       | BuildCacheEntryCompression.LZ4
+    }
+
+    def "uses GZIP by default"() {
+        expect:
+        BuildCacheEntryCompression.fromSystemProperties() == BuildCacheEntryCompression.GZIP
+    }
+
+    private static byte[] compress(BuildCacheEntryCompression compression, byte[] data) {
+        def output = new ByteArrayOutputStream()
+        compression.compress(output).withCloseable {
+            it.write(data)
+        }
+        output.toByteArray()
+    }
+
+    private static byte[] decompress(byte[] compressed) {
+        BuildCacheEntryCompression.decompress(new ByteArrayInputStream(compressed)).withCloseable {
+            it.bytes
+        }
+    }
+
+    private static byte[] gzip(byte[] data) {
+        def output = new ByteArrayOutputStream()
+        new GZIPOutputStream(output).withCloseable {
+            it.write(data)
+        }
+        output.toByteArray()
+    }
+
+    private static byte[] randomBytes(int length) {
+        def bytes = new byte[length]
+        new Random(length).nextBytes(bytes)
+        bytes
+    }
+}
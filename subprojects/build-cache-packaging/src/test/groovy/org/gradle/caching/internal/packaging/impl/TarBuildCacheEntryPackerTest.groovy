@@ -242,4 +242,49 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         then:
         targetDir.assertIsEmptyDir()
     }
+
+    def "parallel packing and unpacking produces the same result as sequential"() {
+        def pool = new TarBuildCacheEntryPackerPool(4)
+        def sequentialPacker = packer
+        def parallelPacker = new TarBuildCacheEntryPacker(fileSystemSupport, filePermissionAccess, streamHasher, stringInterner, pool.executor)
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        (1..10).each { dirIndex ->
+            def dir = sourceOutputDir.file("dir-$dirIndex").createDir()
+            dir.file("empty").createDir()
+            (1..20).each { fileIndex ->
+                dir.file("file-${fileIndex}.txt") << "content $dirIndex/$fileIndex\n" * fileIndex * 100
+            }
+        }
+        def largeFile = sourceOutputDir.file("dir-1/large.bin")
+        largeFile.bytes = new byte[3 * 1024 * 1024]
+        def sequentialTargetDir = temporaryFolder.file("sequential")
+        def parallelTargetDir = temporaryFolder.file("parallel")
+
+        when:
+        def sequentialOutput = new ByteArrayOutputStream()
+        packer = sequentialPacker
+        pack sequentialOutput, prop(DIRECTORY, sourceOutputDir)
+        def parallelOutput = new ByteArrayOutputStream()
+        packer = parallelPacker
+        def parallelPackResult = pack parallelOutput, prop(DIRECTORY, sourceOutputDir)
+
+        then:
+        parallelPackResult.entries == 1 + 1 + 10 * 22 + 1
+
+        when:
+        packer = sequentialPacker
+        def sequentialResult = unpack new ByteArrayInputStream(parallelOutput.toByteArray()), prop(DIRECTORY, sequentialTargetDir)
+        packer = parallelPacker
+        def parallelResult = unpack new ByteArrayInputStream(sequentialOutput.toByteArray()), prop(DIRECTORY, parallelTargetDir)
+
+        then:
+        parallelResult.entries == sequentialResult.entries
+        parallelResult.snapshots["test"].hash == sequentialResult.snapshots["test"].hash
+        parallelTargetDir.file("dir-10/file-20.txt").text == sourceOutputDir.file("dir-10/file-20.txt").text
+        parallelTargetDir.file("dir-1/large.bin").bytes == largeFile.bytes
+        parallelTargetDir.file("dir-3/empty").isDirectory()
+
+        cleanup:
+        pool.close()
+    }
 }
@@ -30,6 +30,7 @@
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
 import org.gradle.caching.internal.controller.service.DefaultLocalBuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.InMemoryBuildCacheTier;
 import org.gradle.caching.internal.controller.service.LoadTarget;
 import org.gradle.caching.internal.controller.service.LocalBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.NullBuildCacheServiceHandle;
@@ -45,6 +46,7 @@
 import org.gradle.internal.operations.RunnableBuildOperation;
 
 import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -60,6 +62,9 @@ public class DefaultBuildCacheController implements BuildCacheController {
     @VisibleForTesting
     final LocalBuildCacheServiceHandle local;
 
+    @VisibleForTesting
+    final InMemoryBuildCacheTier memory;
+
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
@@ -73,12 +78,25 @@ public DefaultBuildCacheController(
         boolean logStackTraces,
         boolean emitDebugLogging,
         boolean disableRemoteOnError
+    ) {
+        this(config, buildOperationExecutor, gradleUserHomeDir, logStackTraces, emitDebugLogging, disableRemoteOnError, InMemoryBuildCacheTier.DISABLED);
+    }
+
+    public DefaultBuildCacheController(
+        BuildCacheServicesConfiguration config,
+        BuildOperationExecutor buildOperationExecutor,
+        File gradleUserHomeDir,
+        boolean logStackTraces,
+        boolean emitDebugLogging,
+        boolean disableRemoteOnError,
+        InMemoryBuildCacheTier memory
     ) {
         this.buildOperationExecutor = buildOperationExecutor;
         this.emitDebugLogging = emitDebugLogging;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
         this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces, disableRemoteOnError);
         this.tmp = toTempFileStore(config.getLocal(), gradleUserHomeDir);
+        this.memory = memory;
     }
 
     @Override
@@ -95,6 +113,19 @@ public boolean isEmitDebugLogging() {
     public <T> Optional<T> load(BuildCacheLoadCommand<T> command) {
         final Unpack<T> unpack = new Unpack<>(command);
 
+        if (memory.isEnabled()) {
+            byte[] content = memory.load(command.getKey());
+            if (content != null) {
+                try {
+                    unpack.execute(content);
+                } catch (Exception e) {
+                    memory.remove(command.getKey());
+                    throw new GradleException("Build cache entry " + command.getKey().getHashCode() + " from in-memory build cache is invalid", e);
+                }
+                return Optional.of(unpack.result.getMetadata());
+            }
+        }
+
         if (local.canLoad()) {
             try {
                 local.load(command.getKey(), unpack);
@@ -142,10 +173,21 @@ private Unpack(BuildCacheLoadCommand<T> command) {
 
         @Override
         public void execute(File file) {
+            unpack(() -> new FileInputStream(file), file.length());
+            if (memory.isEnabled()) {
+                memory.store(command.getKey(), file);
+            }
+        }
+
+        public void execute(byte[] content) {
+            unpack(() -> new ByteArrayInputStream(content), content.length);
+        }
+
+        private void unpack(EntrySource source, long size) {
             buildOperationExecutor.run(new RunnableBuildOperation() {
                 @Override
                 public void run(BuildOperationContext context) throws IOException {
-                    try (InputStream input = new FileInputStream(file)) {
+                    try (InputStream input = source.open()) {
                         result = command.load(input);
                         context.setResult(new UnpackOperationResult(
                             result.getArtifactEntryCount()
@@ -156,13 +198,17 @@ public void run(BuildOperationContext context) throws IOException {
                 @Override
                 public BuildOperationDescriptor.Builder description() {
                     return BuildOperationDescriptor.displayName("Unpack build cache entry " + command.getKey().getHashCode())
-                        .details(new UnpackOperationDetails(command.getKey(), file.length()))
+                        .details(new UnpackOperationDetails(command.getKey(), size))
                         .progressDisplayName("Unpacking build cache entry");
                 }
             });
         }
     }
 
+    private interface EntrySource {
+        InputStream open() throws IOException;
+    }
+
     @Override
     public void store(BuildCacheStoreCommand command) {
         if (!local.canStore() && !remote.canStore()) {
@@ -179,6 +225,11 @@ public void store(BuildCacheStoreCommand command) {
                 remote.store(key, new StoreTarget(file));
             }
 
+            // The local cache moves the file into place, so the entry is read into memory first
+            if (memory.isEnabled()) {
+                memory.store(key, file);
+            }
+
             if (local.canStore()) {
                 local.store(key, file);
             }
@@ -225,6 +276,8 @@ public void close() throws IOException {
             closer.register(local);
             closer.register(remote);
             closer.close();
+            // The in-memory tier outlives the controller, so that entries can be reused by later builds
+            memory.logStatistics();
         }
     }
 
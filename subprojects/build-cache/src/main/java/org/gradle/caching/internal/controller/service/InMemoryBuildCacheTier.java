@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service;
+
+import org.gradle.cache.internal.HeapProportionalCacheSizer;
+import org.gradle.caching.BuildCacheKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps recently stored and loaded build cache entries in memory, in front of the local and remote build caches.
+ *
+ * The packed entries are kept up to a budget of bytes, evicting the least recently used entries first.
+ * The tier is a Gradle user home scoped service, so that the entries are kept across the builds run by a daemon.
+ */
+public class InMemoryBuildCacheTier implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryBuildCacheTier.class);
+
+    /**
+     * System property enabling the in-memory tier, sized in proportion to the maximum heap size.
+     */
+    public static final String ENABLED_PROPERTY = "org.gradle.internal.build-cache.memory";
+
+    public static final InMemoryBuildCacheTier DISABLED = new InMemoryBuildCacheTier(0);
+
+    // Budget with the default maximum heap size, scaled by the available heap
+    private static final int REFERENCE_SIZE_KB = 64 * 1024;
+    // Large entries would evict most of the other entries, and are cheap to load from disk in comparison to their unpacking
+    private static final int MAX_ENTRY_SIZE_RATIO = 8;
+
+    private final long maxSize;
+    private final long maxEntrySize;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public InMemoryBuildCacheTier(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = maxSize / MAX_ENTRY_SIZE_RATIO;
+    }
+
+    public static InMemoryBuildCacheTier fromSystemProperties() {
+        if (!Boolean.getBoolean(ENABLED_PROPERTY)) {
+            return DISABLED;
+        }
+        long maxSize = new HeapProportionalCacheSizer().scaleCacheSize(REFERENCE_SIZE_KB) * 1024L;
+        return new InMemoryBuildCacheTier(maxSize);
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns the packed entry for the given key, or {@code null} if it is not kept in memory.
+     */
+    @Nullable
+    public byte[] load(BuildCacheKey key) {
+        byte[] content;
+        synchronized (entries) {
+            content = entries.get(key.getHashCode());
+        }
+        (content == null ? misses : hits).incrementAndGet();
+        return content;
+    }
+
+    /**
+     * Keeps the packed entry in the given file in memory, if it fits.
+     */
+    public void store(BuildCacheKey key, File file) {
+        long length = file.length();
+        if (length == 0 || length > maxEntrySize) {
+            return;
+        }
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            LOGGER.debug("Could not keep build cache entry {} in memory", key.getHashCode(), e);
+            return;
+        }
+        store(key, content);
+    }
+
+    private void store(BuildCacheKey key, byte[] content) {
+        synchronized (entries) {
+            byte[] previous = entries.put(key.getHashCode(), content);
+            if (previous != null) {
+                size -= previous.length;
+            }
+            size += content.length;
+            Iterator<byte[]> leastRecentlyUsed = entries.values().iterator();
+            while (size > maxSize) {
+                size -= leastRecentlyUsed.next().length;
+                leastRecentlyUsed.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        stores.incrementAndGet();
+    }
+
+    /**
+     * Drops the given entry, for example because it could not be unpacked.
+     */
+    public void remove(BuildCacheKey key) {
+        synchronized (entries) {
+            byte[] previous = entries.remove(key.getHashCode());
+            if (previous != null) {
+                size -= previous.length;
+            }
+        }
+    }
+
+    public Statistics getStatistics() {
+        synchronized (entries) {
+            return new Statistics(hits.get(), misses.get(), stores.get(), evictions.get(), entries.size(), size);
+        }
+    }
+
+    public void logStatistics() {
+        if (isEnabled()) {
+            LOGGER.info("In-memory build cache: {}", getStatistics());
+        }
+    }
+
+    @Override
+    public void close() {
+        logStatistics();
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    public static class Statistics {
+        private final long hits;
+        private final long misses;
+        private final long stores;
+        private final long evictions;
+        private final int entries;
+        private final long size;
+
+        public Statistics(long hits, long misses, long stores, long evictions, int entries, long size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.stores = stores;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.size = size;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getStores() {
+            return stores;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses, %d stores, %d evictions, %d entries using %d bytes", hits, misses, stores, evictions, entries, size);
+        }
+    }
+}
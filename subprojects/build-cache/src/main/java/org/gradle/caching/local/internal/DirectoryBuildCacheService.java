@@ -36,17 +36,26 @@
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
+/**
+ * A build cache stored in a local directory.
+ *
+ * Entries are stored as {@code <first two characters of the key>/<key>}, and are only ever added by atomically renaming
+ * a completely written file into place. Since an entry never changes once visible, loads and stores do not need
+ * to be coordinated with each other. Entries stored directly in the cache directory by earlier Gradle versions
+ * are still loaded.
+ */
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
+    private static final int SHARD_PREFIX_LENGTH = 2;
 
     private final PathKeyFileStore fileStore;
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
     public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
         this.fileStore = fileStore;
@@ -94,20 +103,19 @@ public void loadLocally(final BuildCacheKey key, final Action<? super File> read
         persistentCache.withFileLock(new Runnable() {
             @Override
             public void run() {
-                lock.readLock().lock();
-                try {
-                    loadInsideLock(key, reader);
-                } finally {
-                    lock.readLock().unlock();
-                }
+                loadInsideLock(key, reader);
             }
         });
     }
 
     private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
-        LocallyAvailableResource resource = fileStore.get(key.getHashCode());
+        String hashCode = key.getHashCode();
+        LocallyAvailableResource resource = fileStore.get(shardOf(hashCode), hashCode);
         if (resource == null) {
-            return;
+            resource = fileStore.get(hashCode);
+            if (resource == null) {
+                return;
+            }
         }
 
         File file = resource.getFile();
@@ -155,19 +163,39 @@ public void storeLocally(final BuildCacheKey key, final File file) {
         persistentCache.withFileLock(new Runnable() {
             @Override
             public void run() {
-                lock.writeLock().lock();
-                try {
-                    storeInsideLock(key, file);
-                } finally {
-                    lock.writeLock().unlock();
-                }
+                storeInsideLock(key, file);
             }
         });
     }
 
     private void storeInsideLock(BuildCacheKey key, File file) {
-        LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
-        fileAccessTracker.markAccessed(resource.getFile());
+        String hashCode = key.getHashCode();
+        File entry = new File(new File(persistentCache.getBaseDir(), shardOf(hashCode)), hashCode);
+        // Entries are content addressed, so an existing entry does not need to be replaced
+        if (!entry.isFile()) {
+            moveIntoPlace(file, entry);
+        }
+        fileAccessTracker.markAccessed(entry);
+    }
+
+    private static void moveIntoPlace(File file, File entry) {
+        try {
+            Files.createDirectories(entry.getParentFile().toPath());
+            try {
+                Files.move(file.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Another thread or process may have stored the same entry concurrently
+            if (!entry.isFile()) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private static String shardOf(String hashCode) {
+        return hashCode.substring(0, Math.min(SHARD_PREFIX_LENGTH, hashCode.length()));
     }
 
     @Override
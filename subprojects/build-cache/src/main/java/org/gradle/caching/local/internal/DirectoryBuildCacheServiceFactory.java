@@ -16,12 +16,14 @@
 
 package org.gradle.caching.local.internal;
 
+import com.google.common.collect.Iterables;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.CleanupActionFactory;
+import org.gradle.cache.internal.FilesFinder;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.internal.VersionStrategy;
@@ -36,6 +38,7 @@
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.FileFilter;
 
 import static org.gradle.cache.FileLockManager.LockMode.OnDemand;
 import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
@@ -46,7 +49,8 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
-    private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
+    private static final int LEGACY_ENTRY_DEPTH = 1;
+    private static final int ENTRY_DEPTH = 2;
 
     private final CacheRepository cacheRepository;
     private final CacheScopeMapping cacheScopeMapping;
@@ -85,17 +89,39 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
+            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new EntryFilesFinder(), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
             .withDisplayName("Build cache")
             .withLockOptions(mode(OnDemand))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
             .open();
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target);
-        FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
+        // Also track the shard directories, so they are not removed by the cleanup of earlier Gradle versions sharing the cache directory
+        FileAccessTracker shardAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, LEGACY_ENTRY_DEPTH);
+        FileAccessTracker entryAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, ENTRY_DEPTH);
+        FileAccessTracker fileAccessTracker = file -> {
+            shardAccessTracker.markAccessed(file);
+            entryAccessTracker.markAccessed(file);
+        };
 
         return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
     }
 
+    /**
+     * Finds the entries in shard directories, as well as the entries stored directly in the cache directory by earlier Gradle versions.
+     */
+    private static class EntryFilesFinder implements FilesFinder {
+        private final FilesFinder legacyEntryFinder = new SingleDepthFilesFinder(LEGACY_ENTRY_DEPTH);
+        private final FilesFinder entryFinder = new SingleDepthFilesFinder(ENTRY_DEPTH);
+
+        @Override
+        public Iterable<File> find(File baseDir, FileFilter filter) {
+            return Iterables.concat(
+                legacyEntryFinder.find(baseDir, file -> file.isFile() && filter.accept(file)),
+                entryFinder.find(baseDir, filter)
+            );
+        }
+    }
+
     private static void checkDirectory(File directory) {
         if (directory.exists()) {
             if (!directory.isDirectory()) {
@@ -22,6 +22,7 @@ import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.internal.controller.service.InMemoryBuildCacheTier
 import org.gradle.caching.local.internal.LocalBuildCacheService
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
@@ -43,6 +44,7 @@ class DefaultBuildCacheControllerTest extends Specification {
     def localPush = true
     def remote = Mock(BuildCacheService)
     def remotePush = true
+    def memory = InMemoryBuildCacheTier.DISABLED
     def loadmetadata = Mock(Object)
 
     def storeCommand = Stub(BuildCacheStoreCommand) {
@@ -95,7 +97,8 @@ class DefaultBuildCacheControllerTest extends Specification {
             tmpDir.file("dir"),
             false,
             false,
-            disableRemoteOnError
+            disableRemoteOnError,
+            memory
         )
     }
 
@@ -272,6 +275,110 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * remote.store(key, _)
     }
 
+    def "loads stored entry from memory without calling local or remote"() {
+        given:
+        memory = new InMemoryBuildCacheTier(1024 * 1024)
+        def storeCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_ as OutputStream) >> { OutputStream output ->
+                output.write("foo".bytes)
+                output.close()
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        1 * local.storeLocally(key, _)
+        1 * remote.store(key, _)
+
+        when:
+        def result = controller.load(loadCommand)
+
+        then:
+        result.get() == loadmetadata
+        0 * local.loadLocally(_, _)
+        0 * remote.load(_, _)
+
+        and:
+        memory.statistics.hits == 1
+    }
+
+    def "keeps stored entry in memory when local cache moves the file away"() {
+        given:
+        memory = new InMemoryBuildCacheTier(1024 * 1024)
+        def storeCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_ as OutputStream) >> { OutputStream output ->
+                output.write("foo".bytes)
+                output.close()
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+        def controller = getController()
+
+        when:
+        controller.store(storeCommand)
+
+        then:
+        // Like DirectoryBuildCacheService, which moves the temporary file into the cache directory
+        1 * local.storeLocally(key, _) >> { BuildCacheKey key, File file ->
+            assert file.renameTo(tmpDir.file("local-entry"))
+        }
+
+        when:
+        def result = controller.load(loadCommand)
+
+        then:
+        result.get() == loadmetadata
+        0 * local.loadLocally(_, _)
+        0 * remote.load(_, _)
+        memory.statistics.hits == 1
+    }
+
+    def "entries kept in memory can be loaded by the controller of a later build"() {
+        given:
+        memory = new InMemoryBuildCacheTier(1024 * 1024)
+        def storeCommand = Stub(BuildCacheStoreCommand) {
+            getKey() >> key
+            store(_ as OutputStream) >> { OutputStream output ->
+                output.write("foo".bytes)
+                output.close()
+                Stub(BuildCacheStoreCommand.Result)
+            }
+        }
+        def firstController = getController()
+        firstController.store(storeCommand)
+        firstController.close()
+
+        when:
+        def result = getController().load(loadCommand)
+
+        then:
+        result.get() == loadmetadata
+        0 * local.loadLocally(_, _)
+        0 * remote.load(_, _)
+    }
+
+    def "remote load also stores to memory"() {
+        given:
+        memory = new InMemoryBuildCacheTier(1024 * 1024)
+        1 * local.loadLocally(key, _) // miss
+        1 * remote.load(key, _) >> { BuildCacheKey key, BuildCacheEntryReader reader ->
+            reader.readFrom(new ByteArrayInputStream("foo".bytes))
+            true
+        }
+
+        when:
+        controller.load(loadCommand)
+
+        then:
+        memory.load(key) == "foo".bytes
+    }
+
     def "close only closes once"() {
         when:
         def controller = getController()
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller.service
+
+import org.gradle.caching.BuildCacheKey
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class InMemoryBuildCacheTierTest extends Specification {
+
+    @Rule
+    final TestNameTestDirectoryProvider temporaryFolder = new TestNameTestDirectoryProvider(getClass())
+
+    // Budget for 8 entries of the maximum entry size
+    def tier = new InMemoryBuildCacheTier(800)
+
+    def "loads stored entry"() {
+        def file = entry("a", 10)
+
+        when:
+        tier.store(key("a"), file)
+
+        then:
+        tier.load(key("a")) == file.bytes
+        tier.load(key("b")) == null
+
+        and:
+        def statistics = tier.statistics
+        statistics.hits == 1
+        statistics.misses == 1
+        statistics.stores == 1
+        statistics.entries == 1
+        statistics.size == 10
+    }
+
+    def "evicts least recently used entries when over budget"() {
+        given:
+        (0..<8).each { tier.store(key("$it"), entry("$it", 100)) }
+        tier.load(key("0"))
+
+        when:
+        tier.store(key("8"), entry("8", 100))
+
+        then:
+        tier.load(key("0")) != null
+        tier.load(key("1")) == null
+        tier.load(key("8")) != null
+
+        and:
+        tier.statistics.evictions == 1
+        tier.statistics.size == 800
+    }
+
+    def "does not keep entries larger than the maximum entry size"() {
+        when:
+        tier.store(key("a"), entry("a", 101))
+
+        then:
+        tier.load(key("a")) == null
+        tier.statistics.stores == 0
+    }
+
+    def "replacing an entry updates the size"() {
+        when:
+        tier.store(key("a"), entry("a", 50))
+        tier.store(key("a"), entry("b", 20))
+
+        then:
+        tier.load(key("a")).length == 20
+        tier.statistics.size == 20
+    }
+
+    def "removes entry"() {
+        given:
+        tier.store(key("a"), entry("a", 10))
+
+        when:
+        tier.remove(key("a"))
+
+        then:
+        tier.load(key("a")) == null
+        tier.statistics.size == 0
+    }
+
+    def "disabled tier keeps nothing"() {
+        def disabled = InMemoryBuildCacheTier.DISABLED
+
+        when:
+        disabled.store(key("a"), entry("a", 10))
+
+        then:
+        !disabled.enabled
+        disabled.load(key("a")) == null
+    }
+
+    private File entry(String name, int size) {
+        def file = temporaryFolder.file(name)
+        file.bytes = new byte[size]
+        file
+    }
+
+    private BuildCacheKey key(String hashCode) {
+        Stub(BuildCacheKey) {
+            getHashCode() >> hashCode
+        }
+    }
+}
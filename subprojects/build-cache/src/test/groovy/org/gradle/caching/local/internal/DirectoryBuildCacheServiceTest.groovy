@@ -133,4 +133,95 @@ class DirectoryBuildCacheServiceTest extends Specification {
         1 * fileAccessTracker.markAccessed(cachedFile)
         loaded
     }
+
+    def "stores entries in shard directories"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "bar"
+
+        when:
+        service.storeLocally(key, originalFile)
+
+        then:
+        cacheDir.file("12/1234abcd").text == "bar"
+        !originalFile.exists()
+    }
+
+    def "keeps existing entry when storing the same key again"() {
+        def firstFile = temporaryFolder.createFile("first")
+        firstFile.text = "first"
+        def secondFile = temporaryFolder.createFile("second")
+        secondFile.text = "second"
+
+        when:
+        service.storeLocally(key, firstFile)
+        service.storeLocally(key, secondFile)
+
+        then:
+        cacheDir.file("12/1234abcd").text == "first"
+        2 * fileAccessTracker.markAccessed(cacheDir.file("12/1234abcd"))
+    }
+
+    def "loads entries stored directly in the cache directory by earlier versions"() {
+        def legacyEntry = cacheDir.file(hashCode)
+        legacyEntry.text = "legacy"
+
+        when:
+        def loaded = service.load(key, new BuildCacheEntryReader() {
+            @Override
+            void readFrom(InputStream input) throws IOException {
+                assert input.text == "legacy"
+            }
+        })
+
+        then:
+        loaded
+        1 * fileAccessTracker.markAccessed(legacyEntry)
+    }
+
+    def "can store and load entries concurrently"() {
+        def keys = (0..<100).collect { index ->
+            Stub(BuildCacheKey) {
+                getHashCode() >> String.format("%02x%08d", index, index)
+            }
+        }
+        def failures = Collections.synchronizedList([])
+
+        when:
+        def threads = keys.collect { storeKey ->
+            Thread.start {
+                try {
+                    service.store(storeKey, new BuildCacheEntryWriter() {
+                        @Override
+                        void writeTo(OutputStream output) throws IOException {
+                            output << storeKey.hashCode
+                        }
+
+                        @Override
+                        long getSize() {
+                            return storeKey.hashCode.length()
+                        }
+                    })
+                } catch (Throwable t) {
+                    failures << t
+                }
+            }
+        } + keys.collect { loadKey ->
+            Thread.start {
+                try {
+                    service.loadLocally(loadKey, { file ->
+                        assert file.text == loadKey.hashCode
+                    })
+                } catch (Throwable t) {
+                    failures << t
+                }
+            }
+        }
+        threads*.join()
+
+        then:
+        failures.empty
+        keys.every { storedKey ->
+            cacheDir.file("${storedKey.hashCode.substring(0, 2)}/${storedKey.hashCode}").text == storedKey.hashCode
+        }
+    }
 }
@@ -22,13 +22,17 @@ import org.gradle.configurationcache.problems.ConfigurationCacheProblems
 import org.gradle.configurationcache.serialization.DefaultReadContext
 import org.gradle.configurationcache.serialization.DefaultWriteContext
 import org.gradle.configurationcache.serialization.LoggingTracer
+import org.gradle.configurationcache.serialization.SizeReportingTracer
 import org.gradle.configurationcache.serialization.Tracer
 import org.gradle.configurationcache.serialization.beans.BeanConstructors
 import org.gradle.configurationcache.serialization.codecs.Codecs
+import org.gradle.configurationcache.serialization.codecs.ShardCodecs
+import org.gradle.configurationcache.serialization.codecs.WorkGraphShards
 import org.gradle.configurationcache.serialization.readCollectionInto
 import org.gradle.configurationcache.serialization.runReadOperation
 import org.gradle.configurationcache.serialization.runWriteOperation
 import org.gradle.configurationcache.serialization.writeCollection
+import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.serialize.Encoder
 import org.gradle.internal.serialize.kryo.KryoBackedDecoder
 import org.gradle.internal.serialize.kryo.KryoBackedEncoder
@@ -41,6 +45,8 @@ import java.io.DataOutputStream
 import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
 
 
 @ServiceScope(Scopes.Gradle::class)
@@ -51,6 +57,55 @@ class ConfigurationCacheIO internal constructor(
     private val beanConstructors: BeanConstructors
 ) {
 
+    companion object {
+        /**
+         * When set to a positive number, the work graph is stored in per-project shards which are loaded
+         * using up to that many threads.
+         */
+        const val SHARD_PARALLELISM_PROPERTY = "org.gradle.internal.configuration-cache.shards.parallelism"
+
+        /**
+         * When `true`, the number of bytes written for each serialized type and field of the state files
+         * is reported next to the configuration cache report.
+         */
+        const val SIZE_REPORT_PROPERTY = "org.gradle.internal.configuration-cache.size-report"
+    }
+
+    private
+    val shardParallelism = Integer.getInteger(SHARD_PARALLELISM_PROPERTY, 0)
+
+    private
+    val isSizeReportEnabled = java.lang.Boolean.getBoolean(SIZE_REPORT_PROPERTY)
+
+    private
+    val workGraphShards = object : WorkGraphShards {
+
+        override val isEnabled: Boolean
+            get() = shardParallelism > 0
+
+        override fun newCodecs(): ShardCodecs =
+            codecs().run { ShardCodecs(userTypesCodec, internalTypesCodec) }
+
+        override fun <T> runAll(actions: Sequence<() -> T>): List<T> {
+            if (shardParallelism <= 1) {
+                return actions.map { it() }.toList()
+            }
+            val executor = service<ExecutorFactory>().create("Configuration cache shards", shardParallelism)
+            try {
+                val results = actions.map { executor.submit(Callable(it)) }.toList()
+                return results.map {
+                    try {
+                        it.get()
+                    } catch (e: ExecutionException) {
+                        throw e.cause ?: e
+                    }
+                }
+            } finally {
+                executor.stop()
+            }
+        }
+    }
+
     /**
      * See [ConfigurationCacheState.writeRootBuildState].
      */
@@ -65,7 +120,7 @@ class ConfigurationCacheIO internal constructor(
     internal
     fun readRootBuildStateFrom(stateFile: ConfigurationCacheStateFile) {
         withReadContextFor(stateFile.inputStream()) { codecs ->
-            ConfigurationCacheState(codecs, stateFile).run {
+            ConfigurationCacheState(codecs, stateFile, workGraphShards).run {
                 readRootBuildState(host::createBuild)
             }
         }
@@ -83,7 +138,7 @@ class ConfigurationCacheIO internal constructor(
     internal
     fun readIncludedBuildStateFrom(stateFile: ConfigurationCacheStateFile, includedBuild: ConfigurationCacheBuild) {
         withReadContextFor(stateFile.inputStream()) { codecs ->
-            ConfigurationCacheState(codecs, stateFile).run {
+            ConfigurationCacheState(codecs, stateFile, workGraphShards).run {
                 readBuildState(includedBuild)
             }
         }
@@ -95,10 +150,17 @@ class ConfigurationCacheIO internal constructor(
         action: suspend DefaultWriteContext.(ConfigurationCacheState) -> T
     ): T {
         val build = host.currentBuild
-        val (context, codecs) = writerContextFor(stateFile.outputStream(), build.gradle.rootProject.name + " state")
-        return context.useToRun {
+        val profile = build.gradle.rootProject.name + " state"
+        val codecs = codecs()
+        val encoder = KryoBackedEncoder(stateFile.outputStream())
+        val sizeReportingTracer = if (isSizeReportEnabled) SizeReportingTracer(encoder::getWritePosition) else null
+        return writeContextFor(encoder, sizeReportingTracer ?: loggingTracerFor(profile, encoder), codecs).useToRun {
             runWriteOperation {
-                action(ConfigurationCacheState(codecs, stateFile))
+                action(ConfigurationCacheState(codecs, stateFile, workGraphShards))
+            }
+        }.also {
+            sizeReportingTracer?.let { tracer ->
+                problems.stateSizes(profile, tracer.frameSizes())
             }
         }
     }
@@ -109,13 +171,17 @@ class ConfigurationCacheIO internal constructor(
             KryoBackedEncoder(outputStream).let { encoder ->
                 writeContextFor(
                     encoder,
-                    if (logger.isDebugEnabled) LoggingTracer(profile, encoder::getWritePosition, logger)
-                    else null,
+                    loggingTracerFor(profile, encoder),
                     codecs
                 ) to codecs
             }
         }
 
+    private
+    fun loggingTracerFor(profile: String, encoder: KryoBackedEncoder): Tracer? =
+        if (logger.isDebugEnabled) LoggingTracer(profile, encoder::getWritePosition, logger)
+        else null
+
     internal
     fun <R> withReadContextFor(
         inputStream: InputStream,
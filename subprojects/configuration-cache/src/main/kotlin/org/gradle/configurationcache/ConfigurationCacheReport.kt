@@ -25,6 +25,7 @@ import org.gradle.configurationcache.problems.PropertyTrace
 import org.gradle.configurationcache.problems.buildConsoleSummary
 import org.gradle.configurationcache.problems.firstTypeFrom
 import org.gradle.configurationcache.problems.taskPathFrom
+import org.gradle.configurationcache.serialization.SizeReportingTracer
 
 import java.io.BufferedReader
 import java.io.BufferedWriter
@@ -40,6 +41,9 @@ class ConfigurationCacheReport {
 
         private
         const val reportHtmlFileName = "configuration-cache-report.html"
+
+        private
+        const val sizeReportFileName = "configuration-cache-sizes.json"
     }
 
     internal
@@ -67,6 +71,33 @@ class ConfigurationCacheReport {
         }
     }
 
+    /**
+     * Writes the byte size breakdown of the stored state files to [outputDirectory],
+     * keyed by the profile of each state file.
+     */
+    internal
+    fun writeSizeReportFileTo(outputDirectory: File, sizes: Map<String, List<SizeReportingTracer.FrameSize>>): File {
+        outputDirectory.mkdirs()
+        return outputDirectory.resolve(sizeReportFileName).also { sizeReportFile ->
+            sizeReportFile.writeText(
+                JsonOutput.prettyPrint(
+                    JsonOutput.toJson(
+                        sizes.mapValues { (_, frameSizes) ->
+                            frameSizes.map {
+                                mapOf(
+                                    "frame" to it.frame,
+                                    "count" to it.count,
+                                    "selfBytes" to it.selfBytes,
+                                    "totalBytes" to it.totalBytes
+                                )
+                            }
+                        }
+                    )
+                )
+            )
+        }
+    }
+
     private
     fun BufferedWriter.writeReportFileText(htmlReader: BufferedReader, cacheAction: String, problems: List<PropertyProblem>) {
         var dataWritten = false
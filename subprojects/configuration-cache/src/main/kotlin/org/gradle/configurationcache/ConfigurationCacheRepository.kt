@@ -30,6 +30,8 @@ import org.gradle.configurationcache.initialization.ConfigurationCacheStartParam
 import org.gradle.internal.Factory
 import org.gradle.internal.concurrent.Stoppable
 import org.gradle.internal.file.FileAccessTimeJournal
+import org.gradle.internal.file.compress.Lz4FrameInputStream
+import org.gradle.internal.file.compress.Lz4FrameOutputStream
 import org.gradle.internal.file.impl.SingleDepthFileAccessTracker
 import org.gradle.internal.nativeintegration.filesystem.FileSystem
 import java.io.File
@@ -46,6 +48,17 @@ class ConfigurationCacheRepository(
     private val fileSystem: FileSystem
 ) : Stoppable {
 
+    companion object {
+        /**
+         * When `true`, configuration cache state files are stored as LZ4 frames.
+         * Entries are read back in the format they were stored with, regardless of this setting.
+         */
+        const val COMPRESSION_PROPERTY = "org.gradle.internal.configuration-cache.compression"
+    }
+
+    private
+    val isCompressionEnabled = java.lang.Boolean.getBoolean(COMPRESSION_PROPERTY)
+
     fun useForFingerprintCheck(cacheKey: String, check: (File) -> String?): CheckedFingerprint =
         withBaseCacheDirFor(cacheKey) { cacheDir ->
             val fingerprint = cacheDir.fingerprintFile
@@ -71,8 +84,10 @@ class ConfigurationCacheRepository(
 
     fun useForStateLoad(cacheKey: String, action: (ConfigurationCacheStateFile) -> Unit) {
         withBaseCacheDirFor(cacheKey) { cacheDir ->
+            val compressedStateFile = cacheDir.compressedStateFile
             action(
-                ReadableConfigurationCacheStateFile(cacheDir.stateFile)
+                if (compressedStateFile.isFile) ReadableConfigurationCacheStateFile(compressedStateFile, true)
+                else ReadableConfigurationCacheStateFile(cacheDir.stateFile, false)
             )
         }
     }
@@ -84,7 +99,12 @@ class ConfigurationCacheRepository(
             chmod(cacheDir, 448) // octal 0700
             markAccessed(cacheDir)
             val stateFiles = mutableListOf<File>()
-            val rootStateFile = WriteableConfigurationCacheStateFile(cacheDir.stateFile, stateFiles::add)
+            // Remove the root state file of the other format so a stale entry cannot shadow the one being stored
+            val (stateFile, staleStateFile) =
+                if (isCompressionEnabled) cacheDir.compressedStateFile to cacheDir.stateFile
+                else cacheDir.stateFile to cacheDir.compressedStateFile
+            staleStateFile.delete()
+            val rootStateFile = WriteableConfigurationCacheStateFile(stateFile, isCompressionEnabled, stateFiles::add)
             val layout = Layout(cacheDir.fingerprintFile, rootStateFile)
             try {
                 action(layout)
@@ -109,29 +129,38 @@ class ConfigurationCacheRepository(
 
     private
     inner class ReadableConfigurationCacheStateFile(
-        private val file: File
+        private val file: File,
+        private val isCompressed: Boolean
     ) : ConfigurationCacheStateFile {
 
         override fun outputStream(): OutputStream =
             throw UnsupportedOperationException()
 
         override fun inputStream(): InputStream =
-            file.also(::markAccessed).inputStream()
+            file.also(::markAccessed).inputStream().let { fileInputStream ->
+                if (isCompressed) Lz4FrameInputStream(fileInputStream)
+                else fileInputStream
+            }
 
         override fun stateFileForIncludedBuild(build: BuildDefinition): ConfigurationCacheStateFile =
             ReadableConfigurationCacheStateFile(
-                includedBuildFileFor(file, build)
+                includedBuildFileFor(file, build),
+                isCompressed
             )
     }
 
     private
     inner class WriteableConfigurationCacheStateFile(
         private val file: File,
+        private val isCompressed: Boolean,
         private val onFileAccess: (File) -> Unit
     ) : ConfigurationCacheStateFile {
 
         override fun outputStream(): OutputStream =
-            file.also(onFileAccess).outputStream()
+            file.also(onFileAccess).outputStream().let { fileOutputStream ->
+                if (isCompressed) Lz4FrameOutputStream(fileOutputStream)
+                else fileOutputStream
+            }
 
         override fun inputStream(): InputStream =
             throw UnsupportedOperationException()
@@ -139,6 +168,7 @@ class ConfigurationCacheRepository(
         override fun stateFileForIncludedBuild(build: BuildDefinition): ConfigurationCacheStateFile =
             WriteableConfigurationCacheStateFile(
                 includedBuildFileFor(file, build),
+                isCompressed,
                 onFileAccess
             )
     }
@@ -221,4 +251,8 @@ class ConfigurationCacheRepository(
     private
     val File.stateFile
         get() = resolve("state.bin")
+
+    private
+    val File.compressedStateFile
+        get() = resolve("state.bin.lz4")
 }
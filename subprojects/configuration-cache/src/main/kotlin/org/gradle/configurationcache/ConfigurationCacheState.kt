@@ -33,6 +33,7 @@ import org.gradle.configurationcache.problems.DocumentationSection.NotYetImpleme
 import org.gradle.configurationcache.serialization.DefaultReadContext
 import org.gradle.configurationcache.serialization.DefaultWriteContext
 import org.gradle.configurationcache.serialization.codecs.Codecs
+import org.gradle.configurationcache.serialization.codecs.WorkGraphShards
 import org.gradle.configurationcache.serialization.codecs.WorkNodeCodec
 import org.gradle.configurationcache.serialization.logNotImplemented
 import org.gradle.configurationcache.serialization.readCollection
@@ -76,7 +77,8 @@ interface ConfigurationCacheStateFile {
 internal
 class ConfigurationCacheState(
     private val codecs: Codecs,
-    private val stateFile: ConfigurationCacheStateFile
+    private val stateFile: ConfigurationCacheStateFile,
+    private val workGraphShards: WorkGraphShards
 ) {
     /**
      * Writes the state for the whole build starting from the given root [build] and returns the set
@@ -158,14 +160,14 @@ class ConfigurationCacheState(
 
     private
     suspend fun DefaultWriteContext.writeWorkGraphOf(gradle: GradleInternal, scheduledNodes: List<Node>) {
-        WorkNodeCodec(gradle, internalTypesCodec).run {
+        WorkNodeCodec(gradle, internalTypesCodec, workGraphShards).run {
             writeWork(scheduledNodes)
         }
     }
 
     private
     suspend fun DefaultReadContext.readWorkGraph(gradle: GradleInternal) =
-        WorkNodeCodec(gradle, internalTypesCodec).run {
+        WorkNodeCodec(gradle, internalTypesCodec, workGraphShards).run {
             readWork()
         }
 
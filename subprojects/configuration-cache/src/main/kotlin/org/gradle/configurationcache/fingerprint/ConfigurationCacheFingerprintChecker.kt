@@ -25,14 +25,27 @@ import org.gradle.configurationcache.serialization.ReadContext
 import org.gradle.internal.hash.HashCode
 import org.gradle.internal.util.NumberUtil.ordinal
 import java.io.File
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
 
 
 internal
 typealias InvalidationReason = String
 
 
+/**
+ * Checks that the inputs of a configuration cache entry are up-to-date.
+ *
+ * When an [executor] is given, file system inputs are checked on it while the following inputs are read.
+ * Value sources run build logic, so they are still checked on the calling thread, and only once all
+ * preceding inputs are known to be up-to-date.
+ */
 internal
-class ConfigurationCacheFingerprintChecker(private val host: Host) {
+class ConfigurationCacheFingerprintChecker(
+    private val host: Host,
+    private val executor: ExecutorService? = null
+) {
 
     interface Host {
         val gradleUserHomeDir: File
@@ -46,50 +59,144 @@ class ConfigurationCacheFingerprintChecker(private val host: Host) {
 
     suspend fun ReadContext.checkFingerprint(): InvalidationReason? {
         // TODO: log some debug info
-        while (true) {
-            when (val input = read()) {
-                null -> return null
-                is ConfigurationCacheFingerprint.TaskInputs -> input.run {
-                    val currentFingerprint = host.fingerprintOf(fileSystemInputs)
-                    if (currentFingerprint != fileSystemInputsFingerprint) {
-                        // TODO: summarize what has changed (see https://github.com/gradle/configuration-cache/issues/282)
-                        return "an input to task '$taskPath' has changed"
-                    }
+        val pendingChecks = PendingChecks()
+        try {
+            while (true) {
+                val input = read() ?: return pendingChecks.firstInvalidation()
+                if (input !is ConfigurationCacheFingerprint) {
+                    throw IllegalStateException("Unexpected configuration cache fingerprint: $input")
                 }
-                is ConfigurationCacheFingerprint.InputFile -> input.run {
-                    if (hasFileChanged(file, hash)) {
-                        return "file '${displayNameOf(file)}' has changed"
+                val reason = when {
+                    executor != null && isExpensiveToCheck(input) -> {
+                        pendingChecks.add(executor.submit<InvalidationReason?> { invalidationReasonOf(input) })
+                        null
                     }
-                }
-                is ConfigurationCacheFingerprint.ValueSource -> input.run {
-                    val reason = checkFingerprintValueIsUpToDate(obtainedValue)
-                    if (reason != null) return reason
-                }
-                is ConfigurationCacheFingerprint.InitScripts -> input.run {
-                    val reason = checkInitScriptsAreUpToDate(fingerprints, host.allInitScripts)
-                    if (reason != null) return reason
-                }
-                is ConfigurationCacheFingerprint.UndeclaredSystemProperty -> input.run {
-                    if (isDefined(key)) {
-                        return "system property '$key' has changed"
+                    input is ConfigurationCacheFingerprint.ValueSource -> {
+                        pendingChecks.firstInvalidation() ?: invalidationReasonOf(input)
                     }
+                    else -> invalidationReasonOf(input)
                 }
-                is ConfigurationCacheFingerprint.ChangingDependencyResolutionValue -> input.run {
-                    if (host.buildStartTime >= expireAt) {
-                        return input.reason
-                    }
+                // An invalidated input read earlier takes precedence
+                val firstReason = when (reason) {
+                    null -> pendingChecks.completedInvalidation()
+                    else -> pendingChecks.firstInvalidation() ?: reason
                 }
-                is ConfigurationCacheFingerprint.GradleEnvironment -> input.run {
-                    if (host.gradleUserHomeDir != gradleUserHomeDir) {
-                        return "Gradle user home directory has changed"
-                    }
-                    if (jvmFingerprint() != jvm) {
-                        return "JVM has changed"
-                    }
+                if (firstReason != null) return firstReason
+            }
+        } finally {
+            pendingChecks.cancel()
+        }
+    }
+
+    private
+    fun isExpensiveToCheck(input: ConfigurationCacheFingerprint) = when (input) {
+        is ConfigurationCacheFingerprint.TaskInputs -> true
+        is ConfigurationCacheFingerprint.InputFile -> true
+        is ConfigurationCacheFingerprint.InitScripts -> true
+        else -> false
+    }
+
+    private
+    fun invalidationReasonOf(input: ConfigurationCacheFingerprint): InvalidationReason? = when (input) {
+        is ConfigurationCacheFingerprint.TaskInputs -> input.run {
+            val currentFingerprint = host.fingerprintOf(fileSystemInputs)
+            when {
+                // TODO: summarize what has changed (see https://github.com/gradle/configuration-cache/issues/282)
+                currentFingerprint != fileSystemInputsFingerprint -> "an input to task '$taskPath' has changed"
+                else -> null
+            }
+        }
+        is ConfigurationCacheFingerprint.InputFile -> input.run {
+            when {
+                hasFileChanged(file, hash) -> "file '${displayNameOf(file)}' has changed"
+                else -> null
+            }
+        }
+        is ConfigurationCacheFingerprint.ValueSource -> input.run {
+            checkFingerprintValueIsUpToDate(obtainedValue)
+        }
+        is ConfigurationCacheFingerprint.InitScripts -> input.run {
+            checkInitScriptsAreUpToDate(fingerprints, host.allInitScripts)
+        }
+        is ConfigurationCacheFingerprint.UndeclaredSystemProperty -> input.run {
+            when {
+                isDefined(key) -> "system property '$key' has changed"
+                else -> null
+            }
+        }
+        is ConfigurationCacheFingerprint.ChangingDependencyResolutionValue -> input.run {
+            when {
+                host.buildStartTime >= expireAt -> input.reason
+                else -> null
+            }
+        }
+        is ConfigurationCacheFingerprint.GradleEnvironment -> input.run {
+            when {
+                host.gradleUserHomeDir != gradleUserHomeDir -> "Gradle user home directory has changed"
+                jvmFingerprint() != jvm -> "JVM has changed"
+                else -> null
+            }
+        }
+    }
+
+    /**
+     * The checks running on the [executor], in the order their inputs were read.
+     *
+     * The reported reason is always the one of the first invalidated input, as if the inputs were checked one after the other.
+     */
+    private
+    class PendingChecks {
+
+        private
+        val checks = ArrayList<Future<InvalidationReason?>>()
+
+        fun add(check: Future<InvalidationReason?>) {
+            checks.add(check)
+        }
+
+        /**
+         * Returns the first invalidation if some check has completed with an invalidation, waiting only for the checks before it.
+         */
+        fun completedInvalidation(): InvalidationReason? {
+            checks.removeAll { it.isDone && reasonOf(it) == null }
+            val completed = checks.indexOfFirst { it.isDone }
+            return when {
+                completed < 0 -> null
+                else -> firstInvalidationOf(checks.subList(0, completed + 1))
+            }
+        }
+
+        /**
+         * Waits for all checks and returns the first invalidation.
+         */
+        fun firstInvalidation(): InvalidationReason? =
+            firstInvalidationOf(checks)
+
+        /**
+         * Cancels the checks that have not started and waits for the running ones, so that no check outlives the fingerprint check.
+         */
+        fun cancel() {
+            checks.forEach { it.cancel(false) }
+            checks.filter { !it.isCancelled }.forEach { check ->
+                try {
+                    check.get()
+                } catch (ignored: ExecutionException) {
+                    // The outcome is no longer relevant
                 }
-                else -> throw IllegalStateException("Unexpected configuration cache fingerprint: $input")
             }
         }
+
+        private
+        fun firstInvalidationOf(checks: List<Future<InvalidationReason?>>): InvalidationReason? =
+            checks.asSequence().mapNotNull { reasonOf(it) }.firstOrNull()
+
+        private
+        fun reasonOf(check: Future<InvalidationReason?>): InvalidationReason? =
+            try {
+                check.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
     }
 
     private
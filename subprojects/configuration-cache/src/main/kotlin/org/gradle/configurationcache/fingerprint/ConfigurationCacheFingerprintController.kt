@@ -27,6 +27,7 @@ import org.gradle.configurationcache.extensions.hashCodeOf
 import org.gradle.configurationcache.initialization.ConfigurationCacheStartParameter
 import org.gradle.configurationcache.serialization.DefaultWriteContext
 import org.gradle.configurationcache.serialization.ReadContext
+import org.gradle.internal.concurrent.ExecutorFactory
 import org.gradle.internal.concurrent.Stoppable
 import org.gradle.internal.event.ListenerManager
 import org.gradle.internal.fingerprint.AbsolutePathInputNormalizer
@@ -59,8 +60,21 @@ class ConfigurationCacheFingerprintController internal constructor(
     private val listenerManager: ListenerManager,
     private val buildTreeListenerManager: BuildTreeListenerManager,
     private val fileCollectionFactory: FileCollectionFactory,
-    private val directoryFileTreeFactory: DirectoryFileTreeFactory
+    private val directoryFileTreeFactory: DirectoryFileTreeFactory,
+    private val executorFactory: ExecutorFactory
 ) : Stoppable {
+
+    companion object {
+        /**
+         * When set to a number greater than one, file system inputs are checked
+         * using up to that many threads.
+         */
+        const val CHECK_PARALLELISM_PROPERTY = "org.gradle.internal.configuration-cache.fingerprint.parallelism"
+    }
+
+    private
+    val checkParallelism = Integer.getInteger(CHECK_PARALLELISM_PROPERTY, 1)
+
     private
     val fileCollectionFingerprinter = fingerprinterRegistry.getFingerprinter(DefaultFileNormalizationSpec.from(AbsolutePathInputNormalizer::class.java, DirectorySensitivity.DEFAULT))
 
@@ -154,10 +168,16 @@ class ConfigurationCacheFingerprintController internal constructor(
         writingState = writingState.dispose()
     }
 
-    suspend fun ReadContext.checkFingerprint(): InvalidationReason? =
-        ConfigurationCacheFingerprintChecker(CacheFingerprintComponentHost()).run {
-            checkFingerprint()
+    suspend fun ReadContext.checkFingerprint(): InvalidationReason? {
+        val executor = if (checkParallelism > 1) executorFactory.create("Configuration cache fingerprint checks", checkParallelism) else null
+        try {
+            return ConfigurationCacheFingerprintChecker(CacheFingerprintComponentHost(), executor).run {
+                checkFingerprint()
+            }
+        } finally {
+            executor?.stop()
         }
+    }
 
     private
     fun addListener(listener: ConfigurationCacheFingerprintWriter) {
@@ -28,11 +28,13 @@ import org.gradle.configurationcache.ConfigurationCacheProblemsException
 import org.gradle.configurationcache.ConfigurationCacheReport
 import org.gradle.configurationcache.TooManyConfigurationCacheProblemsException
 import org.gradle.configurationcache.initialization.ConfigurationCacheStartParameter
+import org.gradle.configurationcache.serialization.SizeReportingTracer
 import org.gradle.initialization.RootBuildLifecycleListener
 import org.gradle.internal.event.ListenerManager
 import org.gradle.internal.service.scopes.Scopes
 import org.gradle.internal.service.scopes.ServiceScope
 import java.io.File
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CopyOnWriteArrayList
 
 
@@ -78,6 +80,9 @@ class ConfigurationCacheProblems(
     private
     var invalidateStoredState: (() -> Unit)? = null
 
+    private
+    val stateSizes = ConcurrentHashMap<String, List<SizeReportingTracer.FrameSize>>()
+
     init {
         listenerManager.addListener(buildFinishedHandler)
         listenerManager.addListener(postBuildHandler)
@@ -102,6 +107,14 @@ class ConfigurationCacheProblems(
         isFailOnProblems = false
     }
 
+    /**
+     * Records the byte size breakdown of a stored state file, which is written next to the problems report.
+     */
+    internal
+    fun stateSizes(profile: String, frameSizes: List<SizeReportingTracer.FrameSize>) {
+        stateSizes[profile] = frameSizes
+    }
+
     private
     fun List<PropertyProblem>.causes() = mapNotNull { it.exception }.take(maxCauses)
 
@@ -113,7 +126,13 @@ class ConfigurationCacheProblems(
     inner class BuildFinishedProblemsHandler : BuildAdapter() {
 
         override fun buildFinished(result: BuildResult) {
-            if (result.gradle?.parent != null || cacheAction == null || problems.isEmpty()) {
+            if (result.gradle?.parent != null || cacheAction == null) {
+                return
+            }
+            if (problems.isEmpty()) {
+                if (stateSizes.isNotEmpty()) {
+                    report.writeSizeReportFileTo(outputDirectoryFor(result), stateSizes)
+                }
                 return
             }
             val tooManyProblems = problems.size > startParameter.maxProblems
@@ -122,8 +141,11 @@ class ConfigurationCacheProblems(
                 requireNotNull(invalidateStoredState).invoke()
             }
             val cacheActionText = requireNotNull(cacheAction).summaryText()
-            val outputDirectory = outputDirectoryFor(result.gradle?.rootProject?.buildDir ?: startParameter.rootDirectory)
+            val outputDirectory = outputDirectoryFor(result)
             val htmlReportFile = report.writeReportFileTo(outputDirectory, cacheActionText, problems)
+            if (stateSizes.isNotEmpty()) {
+                report.writeSizeReportFileTo(outputDirectory, stateSizes)
+            }
             when {
                 isFailOnProblems -> {
                     // TODO - always include this as a build failure; currently it is disabled when a serialization problem happens
@@ -163,6 +185,10 @@ class ConfigurationCacheProblems(
                 htmlReportFile
             )
 
+        private
+        fun outputDirectoryFor(result: BuildResult): File =
+            outputDirectoryFor(result.gradle?.rootProject?.buildDir ?: startParameter.rootDirectory)
+
         private
         fun outputDirectoryFor(buildDir: File): File =
             buildDir.resolve("reports/configuration-cache/$cacheKey").let { base ->
@@ -50,17 +50,29 @@ class DefaultWriteContext(
     override val tracer: Tracer?,
 
     private
-    val problemsListener: ProblemsListener
+    val problemsListener: ProblemsListener,
 
-) : AbstractIsolateContext<WriteIsolate>(codec), WriteContext, Encoder by encoder, AutoCloseable {
+    /**
+     * The context this context is a shard of, see [newShardContext].
+     */
+    private
+    val parent: DefaultWriteContext? = null,
 
-    override val sharedIdentities = WriteIdentities()
+    override val sharedIdentities: WriteIdentities = WriteIdentities()
+
+) : AbstractIsolateContext<WriteIsolate>(codec), WriteContext, Encoder by encoder, AutoCloseable {
 
     private
     val beanPropertyWriters = hashMapOf<Class<*>, BeanStateWriter>()
 
     private
-    val classes = WriteIdentities()
+    val classes: WriteIdentities = parent?.classes ?: WriteIdentities()
+
+    /**
+     * Classes first referenced by a shard context, which are written by [writePendingClasses].
+     */
+    private
+    val pendingClasses = ArrayList<Class<*>>()
 
     private
     val scopes = WriteIdentities()
@@ -85,21 +97,58 @@ class DefaultWriteContext(
     }
 
     override fun writeClass(type: Class<*>) {
+        if (parent != null) {
+            writeSmallInt(parent.shardClassIdOf(type))
+            return
+        }
         val id = classes.getId(type)
         if (id != null) {
             writeSmallInt(id)
         } else {
-            val scope = scopeLookup.scopeFor(type.classLoader)
             val newId = classes.putInstance(type)
             writeSmallInt(newId)
-            writeString(type.name)
-            if (scope == null) {
-                writeBoolean(false)
-            } else {
-                writeBoolean(true)
-                writeScope(scope.first)
-                writeBoolean(scope.second.local)
-            }
+            writeClassDefinition(type)
+        }
+    }
+
+    /**
+     * Creates a context that writes to [encoder] and shares the class table and the shared identities
+     * written so far with this context. Shared instances first written by the shard are numbered from [firstSharedId].
+     * Writing one of the [unavailableInstances] fails with [UnavailableInstanceException].
+     *
+     * Classes first referenced by the shard are only written to this context by [writePendingClasses],
+     * which must happen before the shard contents so that shards can be read independently of each other.
+     */
+    internal
+    fun newShardContext(codec: Codec<Any?>, encoder: Encoder, problemsListener: ProblemsListener, firstSharedId: Int, unavailableInstances: Set<Any>) =
+        DefaultWriteContext(codec, encoder, scopeLookup, logger, null, problemsListener, this, WriteIdentities(sharedIdentities, firstSharedId, unavailableInstances))
+
+    internal
+    fun writePendingClasses() {
+        writeSmallInt(pendingClasses.size)
+        for (type in pendingClasses) {
+            writeSmallInt(classes.getId(type)!!)
+            writeClassDefinition(type)
+        }
+        pendingClasses.clear()
+    }
+
+    private
+    fun shardClassIdOf(type: Class<*>): Int =
+        classes.getId(type) ?: classes.putInstance(type).also {
+            pendingClasses.add(type)
+        }
+
+    private
+    fun writeClassDefinition(type: Class<*>) {
+        val scope = scopeLookup.scopeFor(type.classLoader)
+        writeString(type.name)
+        if (scope == null) {
+            writeBoolean(false)
+        } else {
+            writeBoolean(true)
+            writeScope(scope.first)
+            writeBoolean(scope.second.local)
         }
     }
 
@@ -211,17 +260,23 @@ class DefaultReadContext(
     override val logger: Logger,
 
     private
-    val problemsListener: ProblemsListener
+    val problemsListener: ProblemsListener,
 
-) : AbstractIsolateContext<ReadIsolate>(codec), ReadContext, Decoder by decoder {
+    /**
+     * The context this context is a shard of, see [newShardContext].
+     */
+    private
+    val parent: DefaultReadContext? = null,
 
-    override val sharedIdentities = ReadIdentities()
+    override val sharedIdentities: ReadIdentities = ReadIdentities()
+
+) : AbstractIsolateContext<ReadIsolate>(codec), ReadContext, Decoder by decoder {
 
     private
     val beanStateReaders = hashMapOf<Class<*>, BeanStateReader>()
 
     private
-    val classes = ReadIdentities()
+    val classes: ReadIdentities = parent?.classes ?: ReadIdentities()
 
     private
     val scopes = ReadIdentities()
@@ -259,6 +314,38 @@ class DefaultReadContext(
         if (type != null) {
             return type as Class<*>
         }
+        check(parent == null) {
+            "Class with id $id has not been decoded yet."
+        }
+        val newType = readClassDefinition()
+        classes.putInstance(id, newType)
+        return newType
+    }
+
+    /**
+     * Creates a context that reads from [decoder] and resolves classes and shared identities
+     * through this context, see [DefaultWriteContext.newShardContext].
+     *
+     * Shard contexts only read from this context, so several of them can be used concurrently
+     * as long as this context isn't used at the same time.
+     */
+    internal
+    fun newShardContext(codec: Codec<Any?>, decoder: Decoder) =
+        DefaultReadContext(codec, decoder, instantiatorFactory, constructors, logger, problemsListener, this, ReadIdentities(sharedIdentities)).also {
+            it.initClassLoader(classLoader)
+            it.initProjectProvider(projectProvider)
+        }
+
+    internal
+    fun readPendingClasses() {
+        repeat(readSmallInt()) {
+            val id = readSmallInt()
+            classes.putInstance(id, readClassDefinition())
+        }
+    }
+
+    private
+    fun readClassDefinition(): Class<*> {
         val name = readString()
         val classLoader = if (readBoolean()) {
             val scope = readScope()
@@ -270,9 +357,7 @@ class DefaultReadContext(
         } else {
             this.classLoader
         }
-        val newType = Class.forName(name, false, classLoader)
-        classes.putInstance(id, newType)
-        return newType
+        return Class.forName(name, false, classLoader)
     }
 
     private
@@ -19,29 +19,76 @@ package org.gradle.configurationcache.serialization
 import java.util.IdentityHashMap
 
 
-class WriteIdentities {
+/**
+ * Assigns ids to instances.
+ *
+ * When a [parent] is given, instances known to the parent keep their ids and new instances
+ * are numbered starting from [firstId]. Adding one of the [unavailable] instances fails
+ * with [UnavailableInstanceException].
+ */
+class WriteIdentities(
+    private val parent: WriteIdentities? = null,
+    private val firstId: Int = parent?.size ?: 0,
+    private val unavailable: Set<Any> = emptySet()
+) {
 
     private
     val instanceIds = IdentityHashMap<Any, Int>()
 
-    fun getId(instance: Any) = instanceIds[instance]
+    val size: Int
+        get() = firstId + instanceIds.size
+
+    /**
+     * The instances added to this table, excluding the ones of the parent.
+     */
+    val instances: Set<Any>
+        get() = instanceIds.keys
+
+    fun getId(instance: Any): Int? = instanceIds[instance] ?: parent?.getId(instance)
 
     fun putInstance(instance: Any): Int {
-        val id = instanceIds.size
+        if (instance in unavailable) {
+            throw UnavailableInstanceException()
+        }
+        val id = size
         instanceIds[instance] = id
         return id
     }
+
+    /**
+     * Adds the instances of the given child table, which must have been numbered after the instances of this table.
+     */
+    fun adopt(identities: WriteIdentities) {
+        require(identities.firstId == size)
+        instanceIds.putAll(identities.instanceIds)
+    }
 }
 
 
-class ReadIdentities {
+/**
+ * Thrown when adding an instance to a [WriteIdentities] table which cannot number it,
+ * as the instance belongs to another table.
+ */
+class UnavailableInstanceException : RuntimeException("Instance is owned by another identity table.")
+
+
+class ReadIdentities(
+    private val parent: ReadIdentities? = null
+) {
 
     private
     val instanceIds = HashMap<Int, Any>()
 
-    fun getInstance(id: Int) = instanceIds[id]
+    fun getInstance(id: Int): Any? = instanceIds[id] ?: parent?.getInstance(id)
 
     fun putInstance(id: Int, instance: Any) {
         instanceIds[id] = instance
     }
+
+    /**
+     * Adds the instances of the given child table.
+     */
+    fun adopt(identities: ReadIdentities) {
+        instanceIds.putAll(identities.instanceIds)
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache.serialization
+
+
+/**
+ * A [Tracer] that attributes the bytes written by a [WriteContext] to its debug frames,
+ * that is, to the serialized types, bean fields and build sections.
+ */
+internal
+class SizeReportingTracer(
+    private val writePosition: () -> Long
+) : Tracer {
+
+    class FrameSize(
+        val frame: String,
+        val count: Long,
+        /**
+         * The bytes written while the frame was the innermost one.
+         */
+        val selfBytes: Long,
+        /**
+         * The bytes written while the frame was open, with recursive occurrences counted once.
+         */
+        val totalBytes: Long
+    )
+
+    private
+    class OpenFrame(val stats: FrameStats, val openedAt: Long) {
+        var childBytes = 0L
+    }
+
+    private
+    class FrameStats {
+        var count = 0L
+        var selfBytes = 0L
+        var totalBytes = 0L
+        var depth = 0
+    }
+
+    private
+    val stats = hashMapOf<String, FrameStats>()
+
+    private
+    val openFrames = ArrayList<OpenFrame>()
+
+    override fun open(frame: String) {
+        val frameStats = stats.getOrPut(frame, ::FrameStats)
+        frameStats.count += 1
+        frameStats.depth += 1
+        openFrames.add(OpenFrame(frameStats, writePosition()))
+    }
+
+    override fun close(frame: String) {
+        val openFrame = openFrames.removeAt(openFrames.size - 1)
+        val frameStats = openFrame.stats
+        val bytes = writePosition() - openFrame.openedAt
+        frameStats.selfBytes += bytes - openFrame.childBytes
+        frameStats.depth -= 1
+        if (frameStats.depth == 0) {
+            frameStats.totalBytes += bytes
+        }
+        openFrames.lastOrNull()?.let {
+            it.childBytes += bytes
+        }
+    }
+
+    /**
+     * The sizes recorded so far, largest self size first.
+     */
+    fun frameSizes(): List<FrameSize> =
+        stats.entries
+            .map { (frame, stats) -> FrameSize(frame, stats.count, stats.selfBytes, stats.totalBytes) }
+            .sortedByDescending { it.selfBytes }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache.serialization.codecs
+
+import org.gradle.api.invocation.Gradle
+import org.gradle.configurationcache.extensions.useToRun
+import org.gradle.configurationcache.problems.ProblemsListener
+import org.gradle.configurationcache.problems.PropertyProblem
+import org.gradle.configurationcache.serialization.Codec
+import org.gradle.configurationcache.serialization.DefaultReadContext
+import org.gradle.configurationcache.serialization.DefaultWriteContext
+import org.gradle.configurationcache.serialization.ReadContext
+import org.gradle.configurationcache.serialization.ReadIdentities
+import org.gradle.configurationcache.serialization.UnavailableInstanceException
+import org.gradle.configurationcache.serialization.WriteContext
+import org.gradle.configurationcache.serialization.WriteIdentities
+import org.gradle.configurationcache.serialization.readCollection
+import org.gradle.configurationcache.serialization.readList
+import org.gradle.configurationcache.serialization.runReadOperation
+import org.gradle.configurationcache.serialization.runWriteOperation
+import org.gradle.configurationcache.serialization.withGradleIsolate
+import org.gradle.configurationcache.serialization.writeCollection
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.Collections
+import java.util.IdentityHashMap
+
+
+/**
+ * Provides what [writeSharded] and [readSharded] need to split values into shards which can be read concurrently.
+ */
+internal
+interface WorkGraphShards {
+
+    /**
+     * Whether the task nodes of each project should be written to their own shard.
+     */
+    val isEnabled: Boolean
+
+    /**
+     * Creates the codecs for a shard, as codecs keep state while encoding and decoding.
+     */
+    fun newCodecs(): ShardCodecs
+
+    /**
+     * Runs the given [actions], concurrently if possible, and returns their results in order.
+     *
+     * The actions are produced on the calling thread, so producing an action can overlap with running the previous ones.
+     */
+    fun <T> runAll(actions: Sequence<() -> T>): List<T>
+}
+
+
+internal
+class ShardCodecs(
+    val userTypesCodec: Codec<Any?>,
+    val internalTypesCodec: Codec<Any?>
+)
+
+
+/**
+ * Writes the given [values], putting the values at the indices of each of the [groups] into a shard of its own.
+ *
+ * Values outside of the groups are written first, followed by the shards. Each shard is written with its own context,
+ * so values in a shard only share state with values outside of shards and with the other values of the shard.
+ * A shard that refers to shared state first written by an earlier shard is abandoned as soon as the reference
+ * is found, and its values are written by this context after the shards instead.
+ */
+internal
+suspend fun DefaultWriteContext.writeSharded(owner: Gradle, shards: WorkGraphShards, values: List<Any?>, groups: List<List<Int>>) {
+    val isSharded = BooleanArray(values.size)
+    groups.forEach { indices ->
+        indices.forEach { isSharded[it] = true }
+    }
+    writeValuesWithIndices(values, values.indices.filter { !isSharded[it] })
+
+    val encodedShards = ArrayList<ByteArray>(groups.size)
+    val shardIdentities = ArrayList<WriteIdentities>(groups.size)
+    val abandonedIndices = ArrayList<Int>()
+    // The shared instances first written by the shards kept so far, which later shards cannot refer to
+    val shardedInstances = Collections.newSetFromMap(IdentityHashMap<Any, Boolean>())
+    var nextSharedId = sharedIdentities.size
+    for (indices in groups) {
+        val shard = encodeShard(owner, shards.newCodecs(), values, indices, nextSharedId, shardedInstances)
+        if (shard == null) {
+            abandonedIndices.addAll(indices)
+            continue
+        }
+        val (encodedShard, identities) = shard
+        encodedShards.add(encodedShard)
+        shardIdentities.add(identities)
+        shardedInstances.addAll(identities.instances)
+        nextSharedId = identities.size
+    }
+    shardIdentities.forEach(sharedIdentities::adopt)
+
+    writePendingClasses()
+    writeCollection(encodedShards) {
+        writeBinary(it)
+    }
+    writeValuesWithIndices(values, abandonedIndices)
+}
+
+
+/**
+ * Reads the values written by [writeSharded] into [values], decoding the shards with [WorkGraphShards.runAll].
+ */
+internal
+suspend fun DefaultReadContext.readSharded(owner: Gradle, shards: WorkGraphShards, values: Array<Any?>) {
+    readValuesWithIndices(values)
+
+    readPendingClasses()
+    // Start decoding each shard as soon as it has been read, and drop its encoded form once decoded
+    val shardCount = readSmallInt()
+    val shardReaders = (0 until shardCount).asSequence().map {
+        shardReaderFor(owner, readBinary(), shards.newCodecs())
+    }
+    shards.runAll(shardReaders).forEach { decodedShard ->
+        sharedIdentities.adopt(decodedShard.sharedIdentities)
+        decodedShard.values.forEach { (index, value) ->
+            values[index] = value
+        }
+    }
+
+    readValuesWithIndices(values)
+}
+
+
+/**
+ * Encodes the values at the given [indices] with a context of their own, or returns `null`
+ * when they refer to one of the [shardedInstances].
+ */
+private
+fun DefaultWriteContext.encodeShard(
+    owner: Gradle,
+    codecs: ShardCodecs,
+    values: List<Any?>,
+    indices: List<Int>,
+    firstSharedId: Int,
+    shardedInstances: Set<Any>
+): Pair<ByteArray, WriteIdentities>? {
+    val problems = ArrayList<PropertyProblem>()
+    val problemsListener = object : ProblemsListener {
+        override fun onProblem(problem: PropertyProblem) {
+            problems.add(problem)
+        }
+    }
+    val outputStream = ByteArrayOutputStream()
+    val shard = newShardContext(codecs.userTypesCodec, KryoBackedEncoder(outputStream), problemsListener, firstSharedId, shardedInstances)
+    try {
+        shard.useToRun {
+            runWriteOperation {
+                withGradleIsolate(owner, codecs.internalTypesCodec) {
+                    writeValuesWithIndices(values, indices)
+                }
+            }
+        }
+    } catch (e: Exception) {
+        if (generateSequence<Throwable>(e) { it.cause }.any { it is UnavailableInstanceException }) {
+            return null
+        }
+        throw e
+    }
+    problems.forEach(::onProblem)
+    return outputStream.toByteArray() to shard.sharedIdentities
+}
+
+
+private
+fun DefaultReadContext.shardReaderFor(owner: Gradle, encodedShard: ByteArray, codecs: ShardCodecs): () -> DecodedShard = {
+    KryoBackedDecoder(ByteArrayInputStream(encodedShard)).use { decoder ->
+        val shard = newShardContext(codecs.userTypesCodec, decoder)
+        val values = shard.runReadOperation {
+            withGradleIsolate(owner, codecs.internalTypesCodec) {
+                readList {
+                    readSmallInt() to read()
+                }
+            }
+        }
+        DecodedShard(shard.sharedIdentities, values)
+    }
+}
+
+
+private
+class DecodedShard(
+    val sharedIdentities: ReadIdentities,
+    val values: List<Pair<Int, Any?>>
+)
+
+
+private
+suspend fun WriteContext.writeValuesWithIndices(values: List<Any?>, indices: List<Int>) {
+    writeCollection(indices) { index ->
+        writeSmallInt(index)
+        write(values[index])
+    }
+}
+
+
+private
+suspend fun ReadContext.readValuesWithIndices(values: Array<Any?>) {
+    readCollection {
+        val index = readSmallInt()
+        values[index] = read()
+    }
+}
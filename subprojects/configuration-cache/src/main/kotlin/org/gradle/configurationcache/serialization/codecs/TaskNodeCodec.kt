@@ -72,7 +72,10 @@ class TaskNodeCodec(
 
     override suspend fun ReadContext.decode(): LocalTaskNode {
         val task = readTask()
-        val node = taskNodeFactory.getOrCreateNode(task) as LocalTaskNode
+        // Shards of the work graph can be decoded concurrently, see WorkNodeCodec
+        val node = synchronized(taskNodeFactory) {
+            taskNodeFactory.getOrCreateNode(task)
+        } as LocalTaskNode
         node.isolated()
         return node
     }
@@ -18,10 +18,13 @@ package org.gradle.configurationcache.serialization.codecs
 
 import org.gradle.api.internal.GradleInternal
 import org.gradle.configurationcache.serialization.Codec
+import org.gradle.configurationcache.serialization.DefaultReadContext
+import org.gradle.configurationcache.serialization.DefaultWriteContext
 import org.gradle.configurationcache.serialization.ReadContext
 import org.gradle.configurationcache.serialization.WriteContext
 import org.gradle.configurationcache.serialization.readNonNull
 import org.gradle.configurationcache.serialization.withGradleIsolate
+import org.gradle.execution.plan.LocalTaskNode
 import org.gradle.execution.plan.Node
 import org.gradle.execution.plan.TaskInAnotherBuild
 import org.gradle.execution.plan.TaskNode
@@ -30,20 +33,80 @@ import org.gradle.execution.plan.TaskNode
 internal
 class WorkNodeCodec(
     private val owner: GradleInternal,
-    private val internalTypesCodec: Codec<Any?>
+    private val internalTypesCodec: Codec<Any?>,
+    private val shards: WorkGraphShards
 ) {
 
-    suspend fun WriteContext.writeWork(nodes: List<Node>) {
+    suspend fun DefaultWriteContext.writeWork(nodes: List<Node>) {
+        val projectShards = if (shards.isEnabled) projectShardsOf(nodes) else emptyList()
         // Share bean instances across all nodes (except tasks, which have their own isolate)
         withGradleIsolate(owner, internalTypesCodec) {
-            writeNodes(nodes)
+            if (projectShards.size < 2) {
+                writeBoolean(false)
+                writeNodes(nodes)
+            } else {
+                writeBoolean(true)
+                writeShardedNodes(nodes, projectShards)
+            }
         }
     }
 
-    suspend fun ReadContext.readWork(): List<Node> =
+    suspend fun DefaultReadContext.readWork(): List<Node> =
         withGradleIsolate(owner, internalTypesCodec) {
-            readNodes()
+            if (readBoolean()) {
+                readShardedNodes()
+            } else {
+                readNodes()
+            }
+        }
+
+    /**
+     * Groups the ids of the task nodes by the project owning the task.
+     */
+    private
+    fun projectShardsOf(nodes: List<Node>): List<List<Int>> {
+        val nodeIdsByProject = LinkedHashMap<String, MutableList<Int>>()
+        nodes.forEachIndexed { nodeId, node ->
+            if (node is LocalTaskNode) {
+                nodeIdsByProject.getOrPut(node.task.project.path) { ArrayList() }.add(nodeId)
+            }
+        }
+        return nodeIdsByProject.values.toList()
+    }
+
+    /**
+     * Writes the task nodes of each project into a shard of their own, see [writeSharded],
+     * followed by the relationships between all nodes.
+     */
+    private
+    suspend fun DefaultWriteContext.writeShardedNodes(nodes: List<Node>, projectShards: List<List<Int>>) {
+        val nodeCount = nodes.size
+        writeSmallInt(nodeCount)
+        writeSharded(owner, shards, nodes, projectShards)
+
+        val scheduledNodeIds = HashMap<Node, Int>(nodeCount)
+        nodes.forEachIndexed { nodeId, node ->
+            writeSuccessorReferencesOf(node, scheduledNodeIds)
+            writeExecutionStateOf(node)
+            scheduledNodeIds[node] = nodeId
+        }
+    }
+
+    private
+    suspend fun DefaultReadContext.readShardedNodes(): List<Node> {
+        val nodeCount = readSmallInt()
+        val values = arrayOfNulls<Any>(nodeCount)
+        readSharded(owner, shards, values)
+        val nodes = values.map { it as Node }
+
+        val nodesById = HashMap<Int, Node>(nodeCount)
+        nodes.forEachIndexed { nodeId, node ->
+            readSuccessorReferencesOf(node, nodesById)
+            readExecutionStateOf(node)
+            nodesById[nodeId] = node
         }
+        return nodes
+    }
 
     private
     suspend fun WriteContext.writeNodes(nodes: List<Node>) {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import org.gradle.api.internal.BuildDefinition
+import org.gradle.api.internal.StartParameterInternal
+import org.gradle.cache.CacheBuilder
+import org.gradle.cache.CacheRepository
+import org.gradle.cache.PersistentCache
+import org.gradle.configurationcache.initialization.ConfigurationCacheStartParameter
+import org.gradle.initialization.layout.BuildLayout
+import org.gradle.internal.Factory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.hamcrest.CoreMatchers.equalTo
+import org.hamcrest.CoreMatchers.not
+import org.hamcrest.MatcherAssert.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.mockito.Answers
+import java.io.File
+
+
+class ConfigurationCacheRepositoryTest {
+
+    @JvmField
+    @Rule
+    val testDirectoryProvider = TestNameTestDirectoryProvider(javaClass)
+
+    private
+    val rootDir by lazy { testDirectoryProvider.createDir("root") }
+
+    private
+    val cacheDir by lazy { rootDir.resolve(".gradle/configuration-cache/key") }
+
+    private
+    val includedBuild = mock<BuildDefinition> {
+        on { name } doReturn "included"
+    }
+
+    @Test
+    fun `state is stored uncompressed and read back when compression is disabled`() {
+        store(compressed = false, root = "root state", included = "included state")
+
+        assertThat(cacheDir.resolve("state.bin").readText(), equalTo("root state"))
+        assertThat(cacheDir.resolve("state.bin.included").readText(), equalTo("included state"))
+        assertThat(cacheDir.resolve("state.bin.lz4").exists(), equalTo(false))
+        assertThat(load(compressed = false), equalTo("root state" to "included state"))
+    }
+
+    @Test
+    fun `state is stored as LZ4 frames and read back when compression is enabled`() {
+        store(compressed = true, root = "root state", included = "included state")
+
+        assertThat(cacheDir.resolve("state.bin").exists(), equalTo(false))
+        assertThat(cacheDir.resolve("state.bin.lz4").readText(), not(equalTo("root state")))
+        assertThat(cacheDir.resolve("state.bin.lz4.included").isFile, equalTo(true))
+        assertThat(load(compressed = true), equalTo("root state" to "included state"))
+    }
+
+    @Test
+    fun `state is read in the format it was stored with`() {
+        store(compressed = true, root = "compressed", included = "compressed included")
+        assertThat(load(compressed = false), equalTo("compressed" to "compressed included"))
+
+        store(compressed = false, root = "uncompressed", included = "uncompressed included")
+        assertThat(load(compressed = true), equalTo("uncompressed" to "uncompressed included"))
+    }
+
+    @Test
+    fun `storing in one format removes the state stored in the other format`() {
+        store(compressed = false, root = "uncompressed", included = "uncompressed included")
+        store(compressed = true, root = "compressed", included = "compressed included")
+        assertThat(cacheDir.resolve("state.bin").exists(), equalTo(false))
+        assertThat(load(compressed = true), equalTo("compressed" to "compressed included"))
+
+        store(compressed = false, root = "uncompressed again", included = "uncompressed included again")
+        assertThat(cacheDir.resolve("state.bin.lz4").exists(), equalTo(false))
+        assertThat(load(compressed = false), equalTo("uncompressed again" to "uncompressed included again"))
+    }
+
+    private
+    fun store(compressed: Boolean, root: String, included: String) {
+        repository(compressed).useForStore("key") { layout ->
+            layout.state.outputStream().use { it.write(root.toByteArray()) }
+            layout.state.stateFileForIncludedBuild(includedBuild).outputStream().use { it.write(included.toByteArray()) }
+        }
+    }
+
+    private
+    fun load(compressed: Boolean): Pair<String, String> {
+        var result: Pair<String, String>? = null
+        repository(compressed).useForStateLoad("key") { stateFile ->
+            result = stateFile.inputStream().use { String(it.readBytes()) } to
+                stateFile.stateFileForIncludedBuild(includedBuild).inputStream().use { String(it.readBytes()) }
+        }
+        return result!!
+    }
+
+    private
+    fun repository(compressed: Boolean): ConfigurationCacheRepository {
+        val previous = System.setProperty(ConfigurationCacheRepository.COMPRESSION_PROPERTY, compressed.toString())
+        try {
+            return ConfigurationCacheRepository(
+                cacheRepository(),
+                mock(),
+                mock(),
+                ConfigurationCacheStartParameter(
+                    BuildLayout(rootDir, rootDir, null),
+                    StartParameterInternal()
+                ),
+                mock()
+            )
+        } finally {
+            if (previous == null) {
+                System.clearProperty(ConfigurationCacheRepository.COMPRESSION_PROPERTY)
+            } else {
+                System.setProperty(ConfigurationCacheRepository.COMPRESSION_PROPERTY, previous)
+            }
+        }
+    }
+
+    private
+    fun cacheRepository(): CacheRepository {
+        val persistentCache = mock<PersistentCache> {
+            on { baseDir } doReturn rootDir.resolve(".gradle/configuration-cache")
+            on { withFileLock(any<Factory<Any?>>()) } doAnswer { (it.arguments[0] as Factory<*>).create() }
+        }
+        val cacheBuilder = mock<CacheBuilder>(defaultAnswer = Answers.RETURNS_SELF) {
+            on { open() } doReturn persistentCache
+        }
+        return mock {
+            on { cache(any<File>()) } doReturn cacheBuilder
+        }
+    }
+}
@@ -19,6 +19,8 @@ package org.gradle.configurationcache.fingerprint
 import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.doReturn
 import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
 import org.gradle.api.Describable
 import org.gradle.api.internal.project.ProjectInternal
 import org.gradle.api.logging.Logger
@@ -44,11 +46,17 @@ import org.gradle.internal.hash.HashCode
 import org.gradle.internal.serialize.Decoder
 import org.gradle.internal.serialize.Encoder
 import org.hamcrest.CoreMatchers.equalTo
+import org.hamcrest.CoreMatchers.nullValue
 import org.hamcrest.MatcherAssert.assertThat
 import org.junit.Test
 import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
 
 
 class ConfigurationCacheFingerprintCheckerTest {
@@ -197,6 +205,128 @@ class ConfigurationCacheFingerprintCheckerTest {
         )
     }
 
+    @Test
+    fun `first invalidated input is reported when a later input is invalidated first`() {
+        val first = File("first.gradle")
+        val second = File("second.gradle")
+        val secondChecked = CountDownLatch(1)
+        assertThat(
+            checkFingerprintConcurrentlyGiven(
+                mock {
+                    on { hashCodeOf(first) }.then {
+                        // Only complete once the invalidation of the second input is known
+                        secondChecked.await()
+                        HashCode.fromInt(2)
+                    }
+                    on { hashCodeOf(second) }.then {
+                        secondChecked.countDown()
+                        HashCode.fromInt(2)
+                    }
+                    on { displayNameOf(any()) }.then { invocation ->
+                        invocation.getArgument<File>(0).name
+                    }
+                },
+                listOf(
+                    ConfigurationCacheFingerprint.InputFile(first, HashCode.fromInt(1)),
+                    ConfigurationCacheFingerprint.InputFile(second, HashCode.fromInt(1))
+                )
+            ),
+            equalTo("file 'first.gradle' has changed")
+        )
+    }
+
+    @Test
+    fun `value source is checked on the calling thread once preceding inputs are up-to-date`() {
+        val file = File("build.gradle")
+        val fileChecked = AtomicBoolean()
+        val checkingThread = Thread.currentThread()
+        val obtainingThreads = CopyOnWriteArrayList<Thread>()
+        val valueSource = mock<ValueSource<Any, ValueSourceParameters>> {
+            on { obtain() }.then {
+                assertThat(fileChecked.get(), equalTo(true))
+                obtainingThreads.add(Thread.currentThread())
+                42
+            }
+        }
+        val obtainedValue = obtainedValueMock()
+
+        assertThat(
+            checkFingerprintConcurrentlyGiven(
+                mock {
+                    on { hashCodeOf(file) }.then {
+                        fileChecked.set(true)
+                        HashCode.fromInt(1)
+                    }
+                    on { instantiateValueSourceOf(obtainedValue) } doReturn valueSource
+                },
+                listOf(
+                    ConfigurationCacheFingerprint.InputFile(file, HashCode.fromInt(1)),
+                    ConfigurationCacheFingerprint.ValueSource(obtainedValue)
+                )
+            ),
+            nullValue()
+        )
+        assertThat(obtainingThreads, equalTo(listOf(checkingThread)))
+    }
+
+    @Test
+    fun `value source is not obtained when a preceding input is invalidated`() {
+        val file = File("build.gradle")
+        val obtainedValue = obtainedValueMock()
+        val host = mock<ConfigurationCacheFingerprintChecker.Host> {
+            on { hashCodeOf(file) } doReturn HashCode.fromInt(2)
+            on { displayNameOf(file) } doReturn "build.gradle"
+        }
+
+        assertThat(
+            checkFingerprintConcurrentlyGiven(
+                host,
+                listOf(
+                    ConfigurationCacheFingerprint.InputFile(file, HashCode.fromInt(1)),
+                    ConfigurationCacheFingerprint.ValueSource(obtainedValue)
+                )
+            ),
+            equalTo("file 'build.gradle' has changed")
+        )
+        verify(host, never()).instantiateValueSourceOf(any())
+    }
+
+    @Test
+    fun `running checks complete before the invalidation is reported`() {
+        val invalidated = File("invalidated.gradle")
+        val other = File("other.gradle")
+        val otherStarted = CountDownLatch(1)
+        val invalidatedChecked = CountDownLatch(1)
+        val otherCompleted = AtomicBoolean()
+
+        assertThat(
+            checkFingerprintConcurrentlyGiven(
+                mock {
+                    on { hashCodeOf(invalidated) }.then {
+                        otherStarted.await()
+                        invalidatedChecked.countDown()
+                        HashCode.fromInt(2)
+                    }
+                    on { hashCodeOf(other) }.then {
+                        otherStarted.countDown()
+                        invalidatedChecked.await()
+                        otherCompleted.set(true)
+                        HashCode.fromInt(1)
+                    }
+                    on { displayNameOf(any()) }.then { invocation ->
+                        invocation.getArgument<File>(0).name
+                    }
+                },
+                listOf(
+                    ConfigurationCacheFingerprint.InputFile(invalidated, HashCode.fromInt(1)),
+                    ConfigurationCacheFingerprint.InputFile(other, HashCode.fromInt(1))
+                )
+            ),
+            equalTo("file 'invalidated.gradle' has changed")
+        )
+        assertThat(otherCompleted.get(), equalTo(true))
+    }
+
     private
     fun invalidationReasonForInitScriptsChange(
         from: Iterable<Pair<File, HashCode?>>,
@@ -222,15 +352,36 @@ class ConfigurationCacheFingerprintCheckerTest {
     fun checkFingerprintGiven(
         host: ConfigurationCacheFingerprintChecker.Host,
         fingerprint: ConfigurationCacheFingerprint
+    ): InvalidationReason? =
+        checkFingerprintGiven(host, listOf(fingerprint), null)
+
+    private
+    fun checkFingerprintConcurrentlyGiven(
+        host: ConfigurationCacheFingerprintChecker.Host,
+        fingerprints: List<ConfigurationCacheFingerprint>
+    ): InvalidationReason? {
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+            return checkFingerprintGiven(host, fingerprints, executor)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private
+    fun checkFingerprintGiven(
+        host: ConfigurationCacheFingerprintChecker.Host,
+        fingerprints: List<ConfigurationCacheFingerprint>,
+        executor: ExecutorService?
     ): InvalidationReason? {
 
         val readContext = recordWritingOf {
-            write(fingerprint)
+            fingerprints.forEach { write(it) }
             write(null)
         }
 
         return readContext.runReadOperation {
-            ConfigurationCacheFingerprintChecker(host).run {
+            ConfigurationCacheFingerprintChecker(host, executor).run {
                 checkFingerprint()
             }
         }
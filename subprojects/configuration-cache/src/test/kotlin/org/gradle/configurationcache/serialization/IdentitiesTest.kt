@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache.serialization
+
+import org.hamcrest.CoreMatchers.equalTo
+import org.hamcrest.CoreMatchers.nullValue
+import org.hamcrest.CoreMatchers.sameInstance
+import org.hamcrest.MatcherAssert.assertThat
+import org.junit.Test
+
+
+class IdentitiesTest {
+
+    @Test
+    fun `shard identities are numbered after the parent identities and can be adopted`() {
+        val parentInstance = Any()
+        val parent = WriteIdentities()
+        parent.putInstance(parentInstance)
+
+        val firstShardInstance = Any()
+        val firstShard = WriteIdentities(parent)
+        assertThat(firstShard.getId(parentInstance), equalTo(0))
+        assertThat(firstShard.putInstance(firstShardInstance), equalTo(1))
+
+        val secondShardInstance = Any()
+        val secondShard = WriteIdentities(parent, firstShard.size)
+        assertThat(secondShard.getId(firstShardInstance), nullValue())
+        assertThat(secondShard.putInstance(secondShardInstance), equalTo(2))
+
+        parent.adopt(firstShard)
+        parent.adopt(secondShard)
+        assertThat(parent.getId(firstShardInstance), equalTo(1))
+        assertThat(parent.getId(secondShardInstance), equalTo(2))
+        assertThat(parent.putInstance(Any()), equalTo(3))
+    }
+
+    @Test(expected = UnavailableInstanceException::class)
+    fun `unavailable instances cannot be added`() {
+        val otherShardInstance = Any()
+        val shard = WriteIdentities(WriteIdentities(), 0, setOf(otherShardInstance))
+        shard.putInstance(Any())
+        shard.putInstance(otherShardInstance)
+    }
+
+    @Test
+    fun `shard instances are resolved through the parent`() {
+        val parentInstance = Any()
+        val parent = ReadIdentities()
+        parent.putInstance(0, parentInstance)
+
+        val shardInstance = Any()
+        val shard = ReadIdentities(parent)
+        shard.putInstance(1, shardInstance)
+        assertThat(shard.getInstance(0), sameInstance(parentInstance))
+        assertThat(parent.getInstance(1), nullValue())
+
+        parent.adopt(shard)
+        assertThat(parent.getInstance(1), sameInstance(shardInstance))
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache.serialization
+
+import org.hamcrest.CoreMatchers.equalTo
+import org.hamcrest.MatcherAssert.assertThat
+import org.junit.Test
+
+
+class SizeReportingTracerTest {
+
+    private
+    var position = 0L
+
+    private
+    val tracer = SizeReportingTracer { position }
+
+    @Test
+    fun `attributes bytes to the innermost frame and counts recursive frames once`() {
+        tracer.open("Gradle")
+        write(2)
+        tracer.open("List")
+        write(3)
+        tracer.open("List")
+        write(5)
+        tracer.close("List")
+        tracer.close("List")
+        tracer.open("String")
+        write(7)
+        tracer.close("String")
+        write(1)
+        tracer.close("Gradle")
+
+        val sizes = tracer.frameSizes().associateBy { it.frame }
+        assertThat(sizes.keys.toList(), equalTo(listOf("List", "String", "Gradle")))
+        assertSize(sizes.getValue("Gradle"), count = 1, selfBytes = 3, totalBytes = 18)
+        assertSize(sizes.getValue("List"), count = 2, selfBytes = 8, totalBytes = 8)
+        assertSize(sizes.getValue("String"), count = 1, selfBytes = 7, totalBytes = 7)
+    }
+
+    private
+    fun write(bytes: Long) {
+        position += bytes
+    }
+
+    private
+    fun assertSize(size: SizeReportingTracer.FrameSize, count: Long, selfBytes: Long, totalBytes: Long) {
+        assertThat(size.count, equalTo(count))
+        assertThat(size.selfBytes, equalTo(selfBytes))
+        assertThat(size.totalBytes, equalTo(totalBytes))
+    }
+}
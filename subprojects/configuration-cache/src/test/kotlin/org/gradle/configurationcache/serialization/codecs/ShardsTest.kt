@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.configurationcache.serialization.codecs
+
+import com.nhaarman.mockitokotlin2.mock
+import org.gradle.api.invocation.Gradle
+import org.gradle.cache.internal.TestCrossBuildInMemoryCacheFactory
+import org.gradle.configurationcache.extensions.useToRun
+import org.gradle.configurationcache.serialization.Codec
+import org.gradle.configurationcache.serialization.DefaultReadContext
+import org.gradle.configurationcache.serialization.DefaultWriteContext
+import org.gradle.configurationcache.serialization.ReadContext
+import org.gradle.configurationcache.serialization.WriteContext
+import org.gradle.configurationcache.serialization.beans.BeanConstructors
+import org.gradle.configurationcache.serialization.decodePreservingSharedIdentity
+import org.gradle.configurationcache.serialization.encodePreservingSharedIdentityOf
+import org.gradle.configurationcache.serialization.runReadOperation
+import org.gradle.configurationcache.serialization.runWriteOperation
+import org.gradle.configurationcache.serialization.withGradleIsolate
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder
+import org.gradle.util.TestUtil
+import org.hamcrest.CoreMatchers.equalTo
+import org.hamcrest.CoreMatchers.sameInstance
+import org.hamcrest.MatcherAssert.assertThat
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+
+
+class ShardsTest {
+
+    private
+    val owner = mock<Gradle>()
+
+    private
+    val shards = TestShards()
+
+    private
+    val encodedItems = ArrayList<String>()
+
+    @Test
+    fun `values of each group are read back from their own shard`() {
+        val shared = SharedState("shared")
+        val values = listOf(
+            Item("unsharded", String::class.java, shared),
+            Item("first", FirstPayload::class.java, shared),
+            Item("second", SecondPayload::class.java, SharedState("second")),
+            Item("third", SecondPayload::class.java, null)
+        )
+
+        val read = roundtrip(values, listOf(listOf(1), listOf(2, 3)))
+
+        assertThat(read, equalTo(values))
+        assertThat(read[0].shared, sameInstance(read[1].shared))
+        assertThat(shards.decodedShards, equalTo(2))
+    }
+
+    @Test
+    fun `classes first referenced by a shard can be resolved by later shards`() {
+        val values = listOf(
+            Item("first", FirstPayload::class.java, null),
+            Item("second", FirstPayload::class.java, null),
+            Item("third", SecondPayload::class.java, null)
+        )
+
+        // The shards are decoded in reverse order, so the last shard can't rely on the first one to define the class
+        val read = roundtrip(values, listOf(listOf(0), listOf(1, 2)))
+
+        assertThat(read, equalTo(values))
+        assertThat(shards.decodedShards, equalTo(2))
+    }
+
+    @Test
+    fun `shard referring to state of an earlier shard is abandoned and its values are written after the shards`() {
+        val shared = SharedState("shared")
+        val values = listOf(
+            Item("first", FirstPayload::class.java, shared),
+            Item("second", SecondPayload::class.java, shared),
+            Item("third", SecondPayload::class.java, SharedState("third")),
+            Item("fourth", FirstPayload::class.java, SharedState("fourth"))
+        )
+
+        val read = roundtrip(values, listOf(listOf(0), listOf(1, 2), listOf(3)))
+
+        assertThat(read, equalTo(values))
+        assertThat(read[0].shared, sameInstance(read[1].shared))
+        assertThat(shards.decodedShards, equalTo(2))
+
+        // The second shard is abandoned before its remaining values are encoded
+        assertThat(encodedItems, equalTo(listOf("first", "second", "fourth", "second", "third")))
+    }
+
+    private
+    fun roundtrip(values: List<Item>, groups: List<List<Int>>): List<Item> {
+        val outputStream = ByteArrayOutputStream()
+        writeContextFor(outputStream).useToRun {
+            runWriteOperation {
+                withGradleIsolate(owner, ItemCodec()) {
+                    writeSharded(owner, shards, values, groups)
+                }
+            }
+        }
+
+        val read = arrayOfNulls<Any>(values.size)
+        readContextFor(outputStream.toByteArray()).run {
+            runReadOperation {
+                withGradleIsolate(owner, ItemCodec()) {
+                    readSharded(owner, shards, read)
+                }
+            }
+        }
+        return read.map { it as Item }
+    }
+
+    private
+    fun writeContextFor(outputStream: ByteArrayOutputStream) =
+        DefaultWriteContext(
+            codec = ItemCodec(),
+            encoder = KryoBackedEncoder(outputStream),
+            scopeLookup = mock(),
+            logger = mock(),
+            tracer = null,
+            problemsListener = mock()
+        )
+
+    private
+    fun readContextFor(bytes: ByteArray) =
+        DefaultReadContext(
+            codec = ItemCodec(),
+            decoder = KryoBackedDecoder(ByteArrayInputStream(bytes)),
+            instantiatorFactory = TestUtil.instantiatorFactory(),
+            constructors = BeanConstructors(TestCrossBuildInMemoryCacheFactory()),
+            logger = mock(),
+            problemsListener = mock()
+        ).apply {
+            initClassLoader(javaClass.classLoader)
+            initProjectProvider(mock())
+        }
+
+    private
+    inner class TestShards : WorkGraphShards {
+
+        var decodedShards = 0
+
+        override val isEnabled: Boolean
+            get() = true
+
+        override fun newCodecs(): ShardCodecs =
+            ShardCodecs(ItemCodec(), ItemCodec())
+
+        override fun <T> runAll(actions: Sequence<() -> T>): List<T> {
+            val shardReaders = actions.toList()
+            decodedShards += shardReaders.size
+            return shardReaders.asReversed().map { it() }.asReversed()
+        }
+    }
+
+    private
+    inner class ItemCodec : Codec<Any?> {
+
+        override suspend fun WriteContext.encode(value: Any?) {
+            value as Item
+            encodedItems.add(value.name)
+            writeString(value.name)
+            writeClass(value.type)
+            writeBoolean(value.shared != null)
+            value.shared?.let { shared ->
+                encodePreservingSharedIdentityOf(shared) {
+                    writeString(shared.name)
+                }
+            }
+        }
+
+        override suspend fun ReadContext.decode(): Any? {
+            val name = readString()
+            val type = readClass()
+            val shared = if (readBoolean()) {
+                decodePreservingSharedIdentity {
+                    SharedState(readString())
+                }
+            } else {
+                null
+            }
+            return Item(name, type, shared)
+        }
+    }
+
+    data class Item(val name: String, val type: Class<*>, val shared: SharedState?)
+
+    data class SharedState(val name: String)
+
+    class FirstPayload
+
+    class SecondPayload
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.Action;
+import org.gradle.api.internal.project.ProjectInternal;
+import org.gradle.internal.resources.ResourceLock;
+import org.gradle.internal.resources.ResourceLockState;
+import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.work.WorkerLeaseRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Selects all nodes of a synthetic layered graph from a {@link DefaultExecutionPlan}, emulating a number of workers
+ * which each finish their node in the order they were started.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ExecutionPlanSelectionBenchmark {
+
+    @Param({"1000", "10000"})
+    int nodeCount;
+
+    @Param({"1", "64"})
+    int workers;
+
+    // Number of nodes in each layer of the graph, each node depends on some nodes of the previous layer
+    @Param({"100"})
+    int layerWidth;
+
+    private DefaultExecutionPlan plan;
+
+    @Setup(Level.Invocation)
+    public void setupPlan() {
+        Random random = new Random(1234);
+        List<SyntheticNode> nodes = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            SyntheticNode node = new SyntheticNode(i);
+            int layerStart = (i / layerWidth - 1) * layerWidth;
+            if (layerStart >= 0) {
+                for (int j = 0; j < 3; j++) {
+                    node.addDependencySuccessor(nodes.get(layerStart + random.nextInt(layerWidth)));
+                }
+            }
+            node.require();
+            node.dependenciesProcessed();
+            nodes.add(node);
+        }
+        plan = new DefaultExecutionPlan(
+            "benchmark",
+            null,
+            new TaskDependencyResolver(Collections.emptyList()),
+            node -> false,
+            new RelatedLocations(CaseSensitivity.CASE_SENSITIVE),
+            new RelatedLocations(CaseSensitivity.CASE_SENSITIVE)
+        );
+        plan.addNodes(nodes);
+        plan.determineExecutionPlan();
+    }
+
+    @Benchmark
+    public void selectAllNodes(Blackhole blackhole) {
+        WorkerLeaseRegistry.WorkerLease workerLease = new AlwaysAvailableWorkerLease();
+        ResourceLockState resourceLockState = new NoOpResourceLockState();
+        Deque<Node> running = new ArrayDeque<>();
+        while (plan.hasNodesRemaining()) {
+            while (running.size() < workers) {
+                Node node = plan.selectNext(workerLease, resourceLockState);
+                if (node == null) {
+                    break;
+                }
+                running.add(node);
+            }
+            Node finished = running.remove();
+            plan.finishedExecuting(finished);
+            blackhole.consume(finished);
+        }
+    }
+
+    private static class SyntheticNode extends Node {
+        private final int id;
+
+        SyntheticNode(int id) {
+            this.id = id;
+        }
+
+        @Nullable
+        @Override
+        public Throwable getNodeFailure() {
+            return null;
+        }
+
+        @Override
+        public void rethrowNodeFailure() {
+        }
+
+        @Override
+        public void prepareForExecution() {
+        }
+
+        @Override
+        public void resolveDependencies(TaskDependencyResolver dependencyResolver, Action<Node> processHardSuccessor) {
+        }
+
+        @Override
+        public Set<Node> getFinalizers() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void resolveMutations() {
+            getMutationInfo().resolved = true;
+        }
+
+        @Override
+        public boolean isPublicNode() {
+            return true;
+        }
+
+        @Override
+        public boolean requiresMonitoring() {
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public ResourceLock getProjectToLock() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public ProjectInternal getOwningProject() {
+            return null;
+        }
+
+        @Override
+        public List<? extends ResourceLock> getResourcesToLock() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            return Integer.compare(id, ((SyntheticNode) other).id);
+        }
+
+        @Override
+        public String toString() {
+            return "node " + id;
+        }
+    }
+
+    private static class AlwaysAvailableWorkerLease implements WorkerLeaseRegistry.WorkerLease {
+        @Override
+        public WorkerLeaseRegistry.WorkerLease createChild() {
+            return this;
+        }
+
+        @Override
+        public WorkerLeaseRegistry.WorkerLeaseCompletion startChild() {
+            return () -> {
+            };
+        }
+
+        @Override
+        public boolean isLocked() {
+            return false;
+        }
+
+        @Override
+        public boolean isLockedByCurrentThread() {
+            return false;
+        }
+
+        @Override
+        public boolean tryLock() {
+            return true;
+        }
+
+        @Override
+        public void unlock() {
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "worker lease";
+        }
+    }
+
+    private static class NoOpResourceLockState implements ResourceLockState {
+        @Override
+        public void registerLocked(ResourceLock resourceLock) {
+        }
+
+        @Override
+        public void registerUnlocked(ResourceLock resourceLock) {
+        }
+
+        @Override
+        public void releaseLocks() {
+        }
+    }
+}
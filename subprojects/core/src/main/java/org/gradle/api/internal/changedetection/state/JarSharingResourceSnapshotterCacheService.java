@@ -0,0 +1,47 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.hash.HashCode;
+
+/**
+ * A {@link ResourceSnapshotterCacheService} that uses the shared cache in the Gradle user home for jars, wherever they are located,
+ * and delegates to the given service for all other files.
+ */
+public class JarSharingResourceSnapshotterCacheService implements ResourceSnapshotterCacheService {
+    /**
+     * System property enabling the shared cache for the jars on compile classpaths.
+     */
+    public static final String SHARED_JAR_HASHES_PROPERTY = "org.gradle.internal.compile-classpath.shared-jar-hashes";
+
+    private final SharedJarResourceSnapshotterCacheService sharedJarCache;
+    private final ResourceSnapshotterCacheService delegate;
+
+    public JarSharingResourceSnapshotterCacheService(SharedJarResourceSnapshotterCacheService sharedJarCache, ResourceSnapshotterCacheService delegate) {
+        this.sharedJarCache = sharedJarCache;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public HashCode hashFile(RegularFileSnapshotContext fileSnapshotContext, RegularFileHasher hasher, HashCode configurationHash) {
+        if (ZipHasher.isZipFile(fileSnapshotContext.getSnapshot().getName())) {
+            return sharedJarCache.hashFile(fileSnapshotContext, hasher, configurationHash);
+        } else {
+            return delegate.hashFile(fileSnapshotContext, hasher, configurationHash);
+        }
+    }
+}
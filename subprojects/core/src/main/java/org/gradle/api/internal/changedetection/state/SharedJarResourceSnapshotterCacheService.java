@@ -0,0 +1,32 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.hash.HashCode;
+
+/**
+ * Caches the normalized hashes of jars in the Gradle user home, so that they are shared by all builds and daemons.
+ *
+ * The normalized hash of a jar only depends on the content of the jar and the configuration of the hasher, which are both part of the key.
+ * Unlike the hashes of other files, it can be shared regardless of where the jar is located.
+ */
+public class SharedJarResourceSnapshotterCacheService extends DefaultResourceSnapshotterCacheService {
+    public SharedJarResourceSnapshotterCacheService(PersistentIndexedCache<HashCode, HashCode> persistentCache) {
+        super(persistentCache);
+    }
+}
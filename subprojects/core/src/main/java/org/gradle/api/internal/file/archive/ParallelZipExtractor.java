@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.archive;
+
+import org.apache.tools.zip.ZipEntry;
+import org.apache.tools.zip.ZipFile;
+import org.gradle.internal.UncheckedException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Extracts all files of a zip file into a directory.
+ *
+ * The entries are located using the central directory of the zip file, so that they can be read in any order. They are split into slices
+ * in the order of their data in the zip file, and the slices are extracted in parallel. When the zip file contains several entries with the
+ * same name, only the last one in the order of their data is extracted, as happens when the entries are extracted one after the other.
+ */
+public class ParallelZipExtractor {
+    private static final int MAX_ENTRIES_PER_SLICE = 256;
+    private static final long MAX_BYTES_PER_SLICE = 4 * 1024 * 1024;
+
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * Creates an extractor that extracts the slices using the given pool, or one after the other on the calling thread when no pool is given.
+     */
+    public ParallelZipExtractor(@Nullable ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    public void extract(File zipFile, File targetDir) throws IOException {
+        // Names without the language encoding flag are read as UTF-8, like ZipInputStream does, rather than with the platform charset
+        try (ZipFile zip = new ZipFile(zipFile, "UTF-8")) {
+            List<List<ZipEntry>> slices = slice(zip);
+            if (slices.isEmpty()) {
+                return;
+            }
+            if (forkJoinPool == null) {
+                for (List<ZipEntry> slice : slices) {
+                    extractSlice(zip, slice, targetDir);
+                }
+                return;
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(slices.size() - 1);
+            for (List<ZipEntry> slice : slices.subList(0, slices.size() - 1)) {
+                tasks.add(forkJoinPool.submit(() -> extractSlice(zip, slice, targetDir)));
+            }
+            Throwable failure = null;
+            try {
+                extractSlice(zip, slices.get(slices.size() - 1), targetDir);
+            } catch (Throwable t) {
+                failure = t;
+            }
+            // Wait for all slices before closing the zip file, even when one of them failed
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                } catch (InterruptedException e) {
+                    throw UncheckedException.throwAsUncheckedException(e);
+                }
+            }
+            if (failure instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) failure).getCause();
+            }
+            if (failure != null) {
+                throw UncheckedException.throwAsUncheckedException(failure);
+            }
+        }
+    }
+
+    private static List<List<ZipEntry>> slice(ZipFile zip) {
+        List<ZipEntry> files = new ArrayList<>();
+        Map<String, Integer> lastIndexByName = new HashMap<>();
+        Enumeration<ZipEntry> entries = zip.getEntriesInPhysicalOrder();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            lastIndexByName.put(entry.getName(), files.size());
+            files.add(entry);
+        }
+
+        List<List<ZipEntry>> slices = new ArrayList<>();
+        List<ZipEntry> slice = new ArrayList<>();
+        long sliceBytes = 0;
+        for (int i = 0; i < files.size(); i++) {
+            ZipEntry entry = files.get(i);
+            if (lastIndexByName.get(entry.getName()) != i) {
+                // Replaced by a later entry with the same name, so slices never write the same file concurrently
+                continue;
+            }
+            slice.add(entry);
+            sliceBytes += Math.max(entry.getCompressedSize(), 0);
+            if (slice.size() >= MAX_ENTRIES_PER_SLICE || sliceBytes >= MAX_BYTES_PER_SLICE) {
+                slices.add(slice);
+                slice = new ArrayList<>();
+                sliceBytes = 0;
+            }
+        }
+        if (!slice.isEmpty()) {
+            slices.add(slice);
+        }
+        return slices;
+    }
+
+    private static void extractSlice(ZipFile zip, List<ZipEntry> slice, File targetDir) {
+        try {
+            for (ZipEntry entry : slice) {
+                Path target = new File(targetDir, entry.getName()).toPath();
+                Files.createDirectories(target.getParent());
+                try (InputStream inputStream = zip.getInputStream(entry)) {
+                    Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -28,12 +28,15 @@
 import org.gradle.caching.internal.controller.BuildCacheController;
 import org.gradle.caching.internal.controller.RootBuildCacheControllerRef;
 import org.gradle.caching.internal.controller.impl.DefaultBuildCacheCommandFactory;
+import org.gradle.caching.internal.controller.service.InMemoryBuildCacheTier;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.BuildCacheEntryCompression;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.DefaultTarPackerFileSystemSupport;
 import org.gradle.caching.internal.packaging.impl.FilePermissionAccess;
-import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPackerPool;
 import org.gradle.caching.internal.packaging.impl.TarPackerFileSystemSupport;
 import org.gradle.caching.internal.services.BuildCacheControllerFactory;
 import org.gradle.caching.local.DirectoryBuildCache;
@@ -68,12 +71,25 @@
  */
 public final class BuildCacheServices extends AbstractPluginServiceRegistry {
 
+    @Override
+    public void registerGradleUserHomeServices(ServiceRegistration registration) {
+        registration.addProvider(new Object() {
+            InMemoryBuildCacheTier createInMemoryBuildCacheTier() {
+                return InMemoryBuildCacheTier.fromSystemProperties();
+            }
+        });
+    }
+
     @Override
     public void registerBuildTreeServices(ServiceRegistration registration) {
         registration.addProvider(new Object() {
             RootBuildCacheControllerRef createRootBuildCacheControllerRef() {
                 return new RootBuildCacheControllerRef();
             }
+
+            TarBuildCacheEntryPackerPool createTarBuildCacheEntryPackerPool() {
+                return TarBuildCacheEntryPackerPool.fromSystemProperties();
+            }
         });
     }
 
@@ -118,10 +134,12 @@ BuildCacheEntryPacker createResultPacker(
                 TarPackerFileSystemSupport fileSystemSupport,
                 FileSystem fileSystem,
                 StreamHasher fileHasher,
-                StringInterner stringInterner
+                StringInterner stringInterner,
+                TarBuildCacheEntryPackerPool packerPool
             ) {
-                return new GZipBuildCacheEntryPacker(
-                    new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner));
+                return new CompressingBuildCacheEntryPacker(
+                    new TarBuildCacheEntryPacker(fileSystemSupport, new FilePermissionsAccessAdapter(fileSystem), fileHasher, stringInterner, packerPool.getExecutor()),
+                    BuildCacheEntryCompression.fromSystemProperties());
             }
 
             OriginMetadataFactory createOriginMetadataFactory(
@@ -155,10 +173,11 @@ BuildCacheController createBuildCacheController(
                 BuildOperationExecutor buildOperationExecutor,
                 InstantiatorFactory instantiatorFactory,
                 GradleInternal gradle,
-                RootBuildCacheControllerRef rootControllerRef
+                RootBuildCacheControllerRef rootControllerRef,
+                InMemoryBuildCacheTier memoryTier
             ) {
                 if (isRoot(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
-                    return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle);
+                    return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle, memoryTier);
                 } else {
                     // must be an included build or buildSrc
                     return rootControllerRef.getForNonRootBuild();
@@ -178,7 +197,7 @@ private boolean isRoot(GradleInternal gradle) {
                 return gradle.isRootBuild();
             }
 
-            private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
+            private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle, InMemoryBuildCacheTier memoryTier) {
                 StartParameter startParameter = gradle.getStartParameter();
                 Path buildIdentityPath = gradle.getIdentityPath();
                 File gradleUserHomeDir = gradle.getGradleUserHomeDir();
@@ -196,7 +215,8 @@ private BuildCacheController doCreateBuildCacheController(ServiceRegistry servic
                     remoteAccessMode,
                     logStackTraces,
                     emitDebugLogging,
-                    instantiatorFactory.inject(serviceRegistry)
+                    instantiatorFactory.inject(serviceRegistry),
+                    memoryTier
                 );
             }
         });
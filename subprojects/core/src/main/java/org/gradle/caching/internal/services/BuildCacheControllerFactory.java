@@ -29,6 +29,7 @@
 import org.gradle.caching.internal.controller.NoOpBuildCacheController;
 import org.gradle.caching.internal.controller.service.BuildCacheServiceRole;
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration;
+import org.gradle.caching.internal.controller.service.InMemoryBuildCacheTier;
 import org.gradle.caching.local.DirectoryBuildCache;
 import org.gradle.caching.local.internal.DirectoryBuildCacheService;
 import org.gradle.internal.Cast;
@@ -71,7 +72,8 @@ public static BuildCacheController create(
         final RemoteAccessMode remoteAccessMode,
         final boolean logStackTraces,
         final boolean emitDebugLogging,
-        final Instantiator instantiator
+        final Instantiator instantiator,
+        final InMemoryBuildCacheTier memoryTier
     ) {
         return buildOperationExecutor.call(new CallableBuildOperation<BuildCacheController>() {
             @Override
@@ -123,7 +125,8 @@ public BuildCacheController call(BuildOperationContext context) {
                         gradleUserHomeDir,
                         logStackTraces,
                         emitDebugLogging,
-                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY)
+                        !Boolean.getBoolean(REMOTE_CONTINUE_ON_ERROR_PROPERTY),
+                        memoryTier
                     );
                 }
             }
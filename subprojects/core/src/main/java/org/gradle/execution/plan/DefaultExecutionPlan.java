@@ -48,15 +48,19 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static com.google.common.collect.Lists.newLinkedList;
 import static com.google.common.collect.Sets.newIdentityHashSet;
@@ -70,7 +74,11 @@ public class DefaultExecutionPlan implements ExecutionPlan {
 
     private final Set<Node> entryNodes = new LinkedHashSet<>();
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = new LinkedList<>();
+    private final Set<Node> executionQueue = new LinkedHashSet<>();
+    // Position of each node in the execution queue, used to select ready nodes in the order of the queue
+    private final Map<Node, Integer> queuePositions = new IdentityHashMap<>();
+    // The nodes from the execution queue whose dependencies have completed, so that selecting a node doesn't need to scan the whole queue
+    private final NavigableSet<Node> readyNodes = new TreeSet<>(Comparator.comparingInt(queuePositions::get));
     private final Set<ResourceLock> projectLocks = new HashSet<>();
     private final FailureCollector failureCollector = new FailureCollector();
     private final String displayName;
@@ -351,11 +359,15 @@ public NodeInVisitingSegment apply(Node node) {
             }
         }
         executionQueue.clear();
+        readyNodes.clear();
+        queuePositions.clear();
         dependencyResolver.clear();
         nodeMapping.removeIf(Node::requiresMonitoring);
         executionQueue.addAll(nodeMapping);
         for (Node node : executionQueue) {
+            queuePositions.put(node, queuePositions.size());
             maybeNodesReady |= node.updateAllDependenciesComplete() && node.isReady();
+            recordIfDependenciesComplete(node);
         }
         this.dependenciesWhichRequireMonitoring.addAll(dependenciesWhichRequireMonitoring);
     }
@@ -496,6 +508,8 @@ public void clear() {
         entryNodes.clear();
         nodeMapping.clear();
         executionQueue.clear();
+        readyNodes.clear();
+        queuePositions.clear();
         projectLocks.clear();
         failureCollector.clearFailures();
         producedButNotYetConsumed.clear();
@@ -568,11 +582,16 @@ public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLock
         if (!maybeNodesReady) {
             return null;
         }
-        Iterator<Node> iterator = executionQueue.iterator();
+        Iterator<Node> iterator = readyNodes.iterator();
         boolean foundReadyNode = false;
         while (iterator.hasNext()) {
             Node node = iterator.next();
-            if (node.isReady() && node.allDependenciesComplete()) {
+            if (!node.allDependenciesComplete()) {
+                // Added again once the dependencies are complete
+                iterator.remove();
+                continue;
+            }
+            if (node.isReady()) {
                 foundReadyNode = true;
                 MutationInfo mutations = getResolvedMutationInfo(node);
 
@@ -590,6 +609,7 @@ public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLock
                     node.skipExecution(this::recordNodeCompleted);
                 }
                 iterator.remove();
+                executionQueue.remove(node);
                 return node;
             }
         }
@@ -621,6 +641,13 @@ private boolean tryAcquireLocksForNode(Node node, WorkerLeaseRegistry.WorkerLeas
     private void updateAllDependenciesCompleteForPredecessors(Node node) {
         for (Node predecessor : node.getAllPredecessors()) {
             maybeNodesReady |= predecessor.updateAllDependenciesComplete() && predecessor.isReady();
+            recordIfDependenciesComplete(predecessor);
+        }
+    }
+
+    private void recordIfDependenciesComplete(Node node) {
+        if (node.allDependenciesComplete() && executionQueue.contains(node)) {
+            readyNodes.add(node);
         }
     }
 
@@ -831,7 +858,7 @@ public void finishedExecuting(Node node) {
         }
     }
 
-    private static void enforceFinalizers(Node node) {
+    private void enforceFinalizers(Node node) {
         for (Node finalizerNode : node.getFinalizers()) {
             if (finalizerNode.isRequired() || finalizerNode.isMustNotRun()) {
                 enforceWithDependencies(finalizerNode);
@@ -839,7 +866,7 @@ private static void enforceFinalizers(Node node) {
         }
     }
 
-    private static void enforceWithDependencies(Node node) {
+    private void enforceWithDependencies(Node node) {
         Set<Node> enforcedNodes = new HashSet<>();
 
         Deque<Node> candidates = new ArrayDeque<>();
@@ -857,6 +884,7 @@ private static void enforceWithDependencies(Node node) {
                     // Completed changed from true to false - inform all nodes depending on this one.
                     for (Node predecessor : candidate.getAllPredecessors()) {
                         predecessor.forceAllDependenciesCompleteUpdate();
+                        recordIfDependenciesComplete(predecessor);
                     }
                 }
             }
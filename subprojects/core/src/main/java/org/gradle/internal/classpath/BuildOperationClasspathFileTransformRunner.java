@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.classpath;
+
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.CallableBuildOperation;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+/**
+ * Runs the transform of each classpath file as a build operation, so that the time spent transforming each file is visible.
+ */
+public class BuildOperationClasspathFileTransformRunner implements ClasspathFileTransformRunner {
+    private final BuildOperationExecutor buildOperationExecutor;
+
+    public BuildOperationClasspathFileTransformRunner(BuildOperationExecutor buildOperationExecutor) {
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    @Override
+    public File run(File file, Supplier<File> transform) {
+        return buildOperationExecutor.call(new CallableBuildOperation<File>() {
+            @Override
+            public File call(BuildOperationContext context) {
+                return transform.get();
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Transform classpath entry " + file.getName());
+            }
+        });
+    }
+}
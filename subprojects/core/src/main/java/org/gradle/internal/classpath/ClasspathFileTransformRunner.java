@@ -0,0 +1,30 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.classpath;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+/**
+ * Runs the transform of a single file of a classpath, for example to report it as a build operation.
+ * Transforms of different files may run concurrently.
+ */
+public interface ClasspathFileTransformRunner {
+    ClasspathFileTransformRunner DIRECT = (file, transform) -> transform.get();
+
+    File run(File file, Supplier<File> transform);
+}
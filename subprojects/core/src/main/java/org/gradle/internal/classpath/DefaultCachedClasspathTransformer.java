@@ -20,6 +20,7 @@
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.GlobalCacheLocations;
 import org.gradle.cache.PersistentCache;
+import org.gradle.cache.internal.ProducerGuard;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.concurrent.CompositeStoppable;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -28,6 +29,8 @@
 import org.gradle.internal.file.FileAccessTracker;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.operations.BuildOperationRef;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.vfs.FileSystemAccess;
 
@@ -41,8 +44,9 @@
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
-import java.util.concurrent.SynchronousQueue;
 import java.util.function.Consumer;
 
 public class DefaultCachedClasspathTransformer implements CachedClasspathTransformer, Closeable {
@@ -54,6 +58,7 @@ public class DefaultCachedClasspathTransformer implements CachedClasspathTransfo
     private final FileSystemAccess fileSystemAccess;
     private final GlobalCacheLocations globalCacheLocations;
     private final ManagedExecutor executor;
+    private final ProducerGuard<HashCode> producerGuard = ProducerGuard.adaptive();
 
     public DefaultCachedClasspathTransformer(
         CacheRepository cacheRepository,
@@ -71,30 +76,55 @@ public DefaultCachedClasspathTransformer(
         this.globalCacheLocations = globalCacheLocations;
         this.cache = classpathTransformerCacheFactory.createCache(cacheRepository, fileAccessTimeJournal);
         this.fileAccessTracker = classpathTransformerCacheFactory.createFileAccessTracker(fileAccessTimeJournal);
-        this.executor = executorFactory.create("jar transforms");
+        this.executor = executorFactory.create("jar transforms", Runtime.getRuntime().availableProcessors());
     }
 
     @Override
     public ClassPath transform(ClassPath classPath, StandardTransform transform) {
-        return transformFiles(classPath, fileTransformerFor(transform));
+        return transformFiles(classPath, fileTransformerFor(transform), ClasspathFileTransformRunner.DIRECT);
     }
 
     @Override
     public ClassPath transform(ClassPath classPath, StandardTransform transform, Transform additional) {
-        return transformFiles(classPath, new InstrumentingClasspathFileTransformer(classpathWalker, classpathBuilder, new CompositeTransformer(additional, transformerFor(transform))));
+        return transformFiles(classPath, instrumentingTransformerFor(transform, additional), ClasspathFileTransformRunner.DIRECT);
     }
 
     @Override
     public Collection<URL> transform(Collection<URL> urls, StandardTransform transform) {
+        return transformUrls(urls, fileTransformerFor(transform), ClasspathFileTransformRunner.DIRECT);
+    }
+
+    /**
+     * Returns a transformer that uses the cache of this transformer, and runs the transform of each file with the given runner.
+     */
+    public CachedClasspathTransformer withFileTransformRunner(ClasspathFileTransformRunner runner) {
+        return new CachedClasspathTransformer() {
+            @Override
+            public ClassPath transform(ClassPath classPath, StandardTransform transform) {
+                return transformFiles(classPath, fileTransformerFor(transform), runner);
+            }
+
+            @Override
+            public ClassPath transform(ClassPath classPath, StandardTransform transform, Transform additional) {
+                return transformFiles(classPath, instrumentingTransformerFor(transform, additional), runner);
+            }
+
+            @Override
+            public Collection<URL> transform(Collection<URL> urls, StandardTransform transform) {
+                return transformUrls(urls, fileTransformerFor(transform), runner);
+            }
+        };
+    }
+
+    private Collection<URL> transformUrls(Collection<URL> urls, ClasspathFileTransformer transformer, ClasspathFileTransformRunner runner) {
         if (urls.isEmpty()) {
             return ImmutableList.of();
         }
-        ClasspathFileTransformer transformer = fileTransformerFor(transform);
-        return cache.useCache(() -> {
+        return cache.withFileLock(() -> {
             Set<HashCode> seen = new HashSet<>();
             List<CacheOperation> operations = new ArrayList<>(urls.size());
             for (URL url : urls) {
-                operations.add(cached(url, transformer, seen));
+                operations.add(cached(url, transformer, runner, seen));
             }
             ImmutableList.Builder<URL> cachedFiles = ImmutableList.builderWithExpectedSize(urls.size());
             for (CacheOperation operation : operations) {
@@ -104,16 +134,17 @@ public Collection<URL> transform(Collection<URL> urls, StandardTransform transfo
         });
     }
 
-    private ClassPath transformFiles(ClassPath classPath, ClasspathFileTransformer transformer) {
+    private ClassPath transformFiles(ClassPath classPath, ClasspathFileTransformer transformer, ClasspathFileTransformRunner runner) {
         if (classPath.isEmpty()) {
             return classPath;
         }
-        return cache.useCache(() -> {
+        // Other processes are kept out of the cache while the files are transformed, but other threads of this process can transform other classpaths concurrently
+        return cache.withFileLock(() -> {
             List<File> originalFiles = classPath.getAsFiles();
             List<CacheOperation> operations = new ArrayList<>(originalFiles.size());
             Set<HashCode> seen = new HashSet<>();
             for (File file : originalFiles) {
-                operations.add(cached(file, transformer, seen));
+                operations.add(cached(file, transformer, runner, seen));
             }
             List<File> cachedFiles = new ArrayList<>(originalFiles.size());
             for (CacheOperation operation : operations) {
@@ -123,6 +154,10 @@ private ClassPath transformFiles(ClassPath classPath, ClasspathFileTransformer t
         });
     }
 
+    private ClasspathFileTransformer instrumentingTransformerFor(StandardTransform transform, Transform additional) {
+        return new InstrumentingClasspathFileTransformer(classpathWalker, classpathBuilder, new CompositeTransformer(additional, transformerFor(transform)));
+    }
+
     private Transform transformerFor(StandardTransform transform) {
         if (transform == StandardTransform.BuildLogic) {
             return new InstrumentingTransformer();
@@ -142,10 +177,10 @@ private ClasspathFileTransformer fileTransformerFor(StandardTransform transform)
         }
     }
 
-    private CacheOperation cached(URL original, ClasspathFileTransformer transformer, Set<HashCode> seen) {
+    private CacheOperation cached(URL original, ClasspathFileTransformer transformer, ClasspathFileTransformRunner runner, Set<HashCode> seen) {
         if (original.getProtocol().equals("file")) {
             try {
-                return cached(new File(original.toURI()), transformer, seen);
+                return cached(new File(original.toURI()), transformer, runner, seen);
             } catch (URISyntaxException e) {
                 throw UncheckedException.throwAsUncheckedException(e);
             }
@@ -153,7 +188,7 @@ private CacheOperation cached(URL original, ClasspathFileTransformer transformer
         return new RetainUrl(original);
     }
 
-    private CacheOperation cached(File original, ClasspathFileTransformer transformer, Set<HashCode> seen) {
+    private CacheOperation cached(File original, ClasspathFileTransformer transformer, ClasspathFileTransformRunner runner, Set<HashCode> seen) {
         FileSystemLocationSnapshot snapshot = fileSystemAccess.read(original.getAbsolutePath(), s -> s);
         HashCode contentHash = snapshot.getHash();
         if (snapshot.getType() == FileType.Missing) {
@@ -165,7 +200,7 @@ private CacheOperation cached(File original, ClasspathFileTransformer transforme
                 return new EmptyOperation();
             }
             // Lookup and generate cache entry asynchronously
-            TransformFile operation = new TransformFile(transformer, original, snapshot, cache.getBaseDir());
+            TransformFile operation = new TransformFile(transformer, runner, original, snapshot, cache.getBaseDir());
             operation.schedule(executor);
             return operation;
         }
@@ -240,51 +275,49 @@ public void collect(Consumer<File> consumer) {
     }
 
     private class TransformFile implements CacheOperation {
-        private final SynchronousQueue<Object> queue;
+        private final CompletableFuture<File> result = new CompletableFuture<>();
         private final ClasspathFileTransformer transformer;
+        private final ClasspathFileTransformRunner runner;
         private final File original;
         private final FileSystemLocationSnapshot snapshot;
         private final File cacheDir;
 
-        public TransformFile(ClasspathFileTransformer transformer, File original, FileSystemLocationSnapshot snapshot, File cacheDir) {
+        public TransformFile(ClasspathFileTransformer transformer, ClasspathFileTransformRunner runner, File original, FileSystemLocationSnapshot snapshot, File cacheDir) {
             this.transformer = transformer;
+            this.runner = runner;
             this.original = original;
             this.snapshot = snapshot;
             this.cacheDir = cacheDir;
-            queue = new SynchronousQueue<>();
         }
 
         public void schedule(Executor executor) {
+            BuildOperationRef parent = CurrentBuildOperationRef.instance().get();
             executor.execute(() -> {
+                CurrentBuildOperationRef.instance().set(parent);
                 try {
-                    try {
-                        File result = transformer.transform(original, snapshot, cacheDir);
-                        queue.put(result);
-                    } catch (Throwable t) {
-                        queue.put(t);
-                    }
-                } catch (InterruptedException e) {
-                    throw UncheckedException.throwAsUncheckedException(e);
+                    // Only one thread of this process produces a given entry, other threads wait for it to be produced
+                    File transformed = runner.run(original, () -> producerGuard.guardByKey(snapshot.getHash(), () -> transformer.transform(original, snapshot, cacheDir)));
+                    result.complete(transformed);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    CurrentBuildOperationRef.instance().clear();
                 }
             });
         }
 
         @Override
         public void collect(Consumer<File> consumer) {
-            Object message;
+            File transformed;
             try {
-                message = queue.take();
-            } catch (InterruptedException e) {
-                throw UncheckedException.throwAsUncheckedException(e);
-            }
-            if (message instanceof Throwable) {
-                throw UncheckedException.throwAsUncheckedException((Throwable) message);
+                transformed = result.join();
+            } catch (CompletionException e) {
+                throw UncheckedException.throwAsUncheckedException(e.getCause());
             }
-            File result = (File) message;
-            if (!result.equals(original)) {
-                fileAccessTracker.markAccessed(result);
+            if (!transformed.equals(original)) {
+                fileAccessTracker.markAccessed(transformed);
             }
-            consumer.accept(result);
+            consumer.accept(transformed);
         }
     }
 }
@@ -27,7 +27,9 @@
 import org.gradle.internal.fingerprint.classpath.ClasspathFingerprinter;
 import org.gradle.internal.fingerprint.impl.AbstractFileCollectionFingerprinter;
 
+import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class DefaultClasspathFingerprinter extends AbstractFileCollectionFingerprinter implements ClasspathFingerprinter {
     public DefaultClasspathFingerprinter(
@@ -37,6 +39,18 @@ public DefaultClasspathFingerprinter(
         ResourceEntryFilter manifestAttributeResourceEntryFilter,
         Map<String, ResourceEntryFilter> propertiesFileFilters,
         StringInterner stringInterner
+    ) {
+        this(cacheService, fileCollectionSnapshotter, classpathResourceFilter, manifestAttributeResourceEntryFilter, propertiesFileFilters, stringInterner, null);
+    }
+
+    public DefaultClasspathFingerprinter(
+        ResourceSnapshotterCacheService cacheService,
+        FileCollectionSnapshotter fileCollectionSnapshotter,
+        ResourceFilter classpathResourceFilter,
+        ResourceEntryFilter manifestAttributeResourceEntryFilter,
+        Map<String, ResourceEntryFilter> propertiesFileFilters,
+        StringInterner stringInterner,
+        @Nullable ForkJoinPool zipHashingPool
     ) {
         super(
             ClasspathFingerprintingStrategy.runtimeClasspath(
@@ -45,7 +59,8 @@ public DefaultClasspathFingerprinter(
                 propertiesFileFilters,
                 new RuntimeClasspathResourceHasher(),
                 cacheService,
-                stringInterner
+                stringInterner,
+                zipHashingPool
             ),
             fileCollectionSnapshotter
         );
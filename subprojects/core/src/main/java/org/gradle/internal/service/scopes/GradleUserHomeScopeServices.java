@@ -51,7 +51,6 @@
 import org.gradle.internal.classloader.ClasspathHasher;
 import org.gradle.internal.classloader.DefaultHashingClassLoaderFactory;
 import org.gradle.internal.classloader.HashingClassLoaderFactory;
-import org.gradle.internal.classpath.CachedClasspathTransformer;
 import org.gradle.internal.classpath.ClasspathBuilder;
 import org.gradle.internal.classpath.ClasspathTransformerCacheFactory;
 import org.gradle.internal.classpath.ClasspathWalker;
@@ -156,7 +155,7 @@ GlobalCacheLocations createGlobalCacheLocations(List<GlobalCache> globalCaches)
         return new DefaultGlobalCacheLocations(globalCaches);
     }
 
-    CachedClasspathTransformer createCachedClasspathTransformer(
+    DefaultCachedClasspathTransformer createCachedClasspathTransformer(
         CacheRepository cacheRepository,
         ClasspathTransformerCacheFactory classpathTransformerCacheFactory,
         FileAccessTimeJournal fileAccessTimeJournal,
@@ -31,10 +31,12 @@
 import org.gradle.api.internal.changedetection.state.DefaultResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.FileHasherStatistics;
 import org.gradle.api.internal.changedetection.state.GradleUserHomeScopeFileTimeStampInspector;
+import org.gradle.api.internal.changedetection.state.JarSharingResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.PropertiesFileFilter;
 import org.gradle.api.internal.changedetection.state.ResourceEntryFilter;
 import org.gradle.api.internal.changedetection.state.ResourceFilter;
 import org.gradle.api.internal.changedetection.state.ResourceSnapshotterCacheService;
+import org.gradle.api.internal.changedetection.state.SharedJarResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.SplitFileHasher;
 import org.gradle.api.internal.changedetection.state.SplitResourceSnapshotterCacheService;
 import org.gradle.api.internal.file.FileCollectionFactory;
@@ -75,6 +77,7 @@
 import org.gradle.internal.fingerprint.impl.RelativePathFileCollectionFingerprinter;
 import org.gradle.internal.hash.DefaultFileHasher;
 import org.gradle.internal.hash.FileHasher;
+import org.gradle.internal.hash.FileHashingMode;
 import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.nativeintegration.NativeCapabilities;
@@ -83,6 +86,7 @@
 import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.service.ServiceRegistration;
 import org.gradle.internal.snapshot.CaseSensitivity;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool;
 import org.gradle.internal.snapshot.impl.DirectorySnapshotterStatistics;
 import org.gradle.internal.vfs.FileSystemAccess;
 import org.gradle.internal.vfs.VirtualFileSystem;
@@ -200,6 +204,10 @@ FileHasherStatistics.Collector createCachingFileHasherStatisticsCollector() {
         DirectorySnapshotterStatistics.Collector createDirectorySnapshotterStatisticsCollector() {
             return new DirectorySnapshotterStatistics.Collector();
         }
+
+        DirectorySnapshotterPool createDirectorySnapshotterPool() {
+            return DirectorySnapshotterPool.fromSystemProperties();
+        }
     }
 
     @VisibleForTesting
@@ -215,9 +223,10 @@ FileHasher createCachingFileHasher(
             FileSystem fileSystem,
             GradleUserHomeScopeFileTimeStampInspector fileTimeStampInspector,
             StreamHasher streamHasher,
+            FileHashingMode fileHashingMode,
             StringInterner stringInterner
         ) {
-            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher fileHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), fileStore, stringInterner, fileTimeStampInspector, fileHashingMode.getCacheName(), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
             fileTimeStampInspector.attach(fileHasher);
             return fileHasher;
         }
@@ -274,7 +283,8 @@ FileSystemAccess createFileSystemAccess(
             ListenerManager listenerManager,
             PatternSpecFactory patternSpecFactory,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool snapshotterPool
         ) {
             DefaultFileSystemAccess fileSystemAccess = new DefaultFileSystemAccess(
                 hasher,
@@ -283,6 +293,7 @@ FileSystemAccess createFileSystemAccess(
                 virtualFileSystem,
                 writeListener,
                 statisticsCollector,
+                snapshotterPool.getForkJoinPool(),
                 DirectoryScanner.getDefaultExcludes()
             );
             listenerManager.addListener(new DefaultExcludesBuildListener(fileSystemAccess) {
@@ -344,8 +355,16 @@ ResourceSnapshotterCacheService createResourceSnapshotterCacheService(CrossBuild
             return new DefaultResourceSnapshotterCacheService(resourceHashesCache);
         }
 
-        ClasspathFingerprinter createClasspathFingerprinter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileCollectionSnapshotter fileCollectionSnapshotter, StringInterner stringInterner) {
-            return new DefaultClasspathFingerprinter(resourceSnapshotterCacheService, fileCollectionSnapshotter, ResourceFilter.FILTER_NOTHING, ResourceEntryFilter.FILTER_NOTHING, PropertiesFileFilter.FILTER_NOTHING, stringInterner);
+        SharedJarResourceSnapshotterCacheService createSharedJarResourceSnapshotterCacheService(CrossBuildFileHashCache store) {
+            PersistentIndexedCache<HashCode, HashCode> jarHashesCache = store.createCache(
+                PersistentIndexedCacheParameters.of("jarHashesCache", HashCode.class, new HashCodeSerializer()),
+                20000,
+                true);
+            return new SharedJarResourceSnapshotterCacheService(jarHashesCache);
+        }
+
+        ClasspathFingerprinter createClasspathFingerprinter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileCollectionSnapshotter fileCollectionSnapshotter, StringInterner stringInterner, DirectorySnapshotterPool snapshotterPool) {
+            return new DefaultClasspathFingerprinter(resourceSnapshotterCacheService, fileCollectionSnapshotter, ResourceFilter.FILTER_NOTHING, ResourceEntryFilter.FILTER_NOTHING, PropertiesFileFilter.FILTER_NOTHING, stringInterner, snapshotterPool.getForkJoinPool());
         }
 
         ClasspathHasher createClasspathHasher(ClasspathFingerprinter fingerprinter, FileCollectionFactory fileCollectionFactory) {
@@ -367,10 +386,11 @@ FileHasher createFileHasher(
             FileHasher globalHasher,
             FileSystem fileSystem,
             StreamHasher streamHasher,
+            FileHashingMode fileHashingMode,
             StringInterner stringInterner,
             FileHasherStatistics.Collector statisticsCollector
         ) {
-            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, "fileHashes", fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
+            CachingFileHasher localHasher = new CachingFileHasher(new DefaultFileHasher(streamHasher), cacheAccess, stringInterner, fileTimeStampInspector, fileHashingMode.getCacheName(), fileSystem, FILE_HASHER_MEMORY_CACHE_SIZE, statisticsCollector);
             return new SplitFileHasher(globalHasher, localHasher, globalCacheLocations);
         }
 
@@ -381,7 +401,8 @@ FileSystemAccess createFileSystemAccess(
             StringInterner stringInterner,
             VirtualFileSystem root,
             FileSystemAccess.WriteListener writeListener,
-            DirectorySnapshotterStatistics.Collector statisticsCollector
+            DirectorySnapshotterStatistics.Collector statisticsCollector,
+            DirectorySnapshotterPool snapshotterPool
         ) {
             DefaultFileSystemAccess buildSessionsScopedVirtualFileSystem = new DefaultFileSystemAccess(
                 hasher,
@@ -390,6 +411,7 @@ FileSystemAccess createFileSystemAccess(
                 root,
                 writeListener,
                 statisticsCollector,
+                snapshotterPool.getForkJoinPool(),
                 DirectoryScanner.getDefaultExcludes()
             );
 
@@ -453,8 +475,17 @@ ResourceSnapshotterCacheService createResourceSnapshotterCacheService(
             return new SplitResourceSnapshotterCacheService(globalCache, localCache, globalCacheLocations);
         }
 
-        CompileClasspathFingerprinter createCompileClasspathFingerprinter(ResourceSnapshotterCacheService resourceSnapshotterCacheService, FileCollectionSnapshotter fileCollectionSnapshotter, StringInterner stringInterner) {
-            return new DefaultCompileClasspathFingerprinter(resourceSnapshotterCacheService, fileCollectionSnapshotter, stringInterner);
+        CompileClasspathFingerprinter createCompileClasspathFingerprinter(
+            ResourceSnapshotterCacheService resourceSnapshotterCacheService,
+            SharedJarResourceSnapshotterCacheService sharedJarCache,
+            FileCollectionSnapshotter fileCollectionSnapshotter,
+            StringInterner stringInterner,
+            DirectorySnapshotterPool snapshotterPool
+        ) {
+            ResourceSnapshotterCacheService cacheService = Boolean.getBoolean(JarSharingResourceSnapshotterCacheService.SHARED_JAR_HASHES_PROPERTY)
+                ? new JarSharingResourceSnapshotterCacheService(sharedJarCache, resourceSnapshotterCacheService)
+                : resourceSnapshotterCacheService;
+            return new DefaultCompileClasspathFingerprinter(cacheService, fileCollectionSnapshotter, stringInterner, snapshotterPool.getForkJoinPool());
         }
     }
 
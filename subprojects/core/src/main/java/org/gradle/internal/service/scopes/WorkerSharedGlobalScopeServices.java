@@ -39,6 +39,7 @@
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.file.impl.DefaultDeleter;
 import org.gradle.internal.hash.DefaultStreamHasher;
+import org.gradle.internal.hash.FileHashingMode;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.instantiation.InstantiatorFactory;
 import org.gradle.internal.logging.events.OutputEventListener;
@@ -103,8 +104,12 @@ DefaultFilePropertyFactory createFilePropertyFactory(PropertyHost propertyHost,
         return new DefaultFilePropertyFactory(propertyHost, fileResolver, fileCollectionFactory);
     }
 
-    StreamHasher createStreamHasher() {
-        return new DefaultStreamHasher();
+    FileHashingMode createFileHashingMode() {
+        return FileHashingMode.fromSystemProperties();
+    }
+
+    StreamHasher createStreamHasher(FileHashingMode fileHashingMode) {
+        return new DefaultStreamHasher(fileHashingMode);
     }
 
     Deleter createDeleter(Clock clock, FileSystem fileSystem, OperatingSystem os) {
@@ -51,7 +51,10 @@
 import org.gradle.initialization.layout.BuildLayoutFactory;
 import org.gradle.initialization.layout.ProjectCacheDir;
 import org.gradle.internal.buildevents.BuildStartedTime;
+import org.gradle.internal.classpath.BuildOperationClasspathFileTransformRunner;
+import org.gradle.internal.classpath.CachedClasspathTransformer;
 import org.gradle.internal.classpath.ClassPath;
+import org.gradle.internal.classpath.DefaultCachedClasspathTransformer;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.filewatch.PendingChangesManager;
@@ -133,6 +136,11 @@ ListenerManager createListenerManager(ListenerManager parent) {
         return parent.createChild(Scopes.BuildSession.class);
     }
 
+    CachedClasspathTransformer createCachedClasspathTransformer(DefaultCachedClasspathTransformer parent, BuildOperationExecutor buildOperationExecutor) {
+        // Shares the cache of the user home scope, and reports the transform of each classpath entry as a build operation
+        return parent.withFileTransformRunner(new BuildOperationClasspathFileTransformRunner(buildOperationExecutor));
+    }
+
     CrossProjectConfigurator createCrossProjectConfigurator(BuildOperationExecutor buildOperationExecutor) {
         return new BuildOperationCrossProjectConfigurator(buildOperationExecutor);
     }
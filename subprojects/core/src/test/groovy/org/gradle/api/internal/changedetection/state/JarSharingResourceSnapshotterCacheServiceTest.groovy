@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import org.gradle.internal.file.FileMetadata
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.serialize.HashCodeSerializer
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.testfixtures.internal.TestInMemoryPersistentIndexedCache
+import spock.lang.Specification
+
+class JarSharingResourceSnapshotterCacheServiceTest extends Specification {
+    def hasher = Mock(RegularFileHasher)
+    def configurationHash = HashCode.fromInt(789)
+    def sharedJarCache = new SharedJarResourceSnapshotterCacheService(new TestInMemoryPersistentIndexedCache(new HashCodeSerializer()))
+    def localCache = Mock(ResourceSnapshotterCacheService)
+    def cacheService = new JarSharingResourceSnapshotterCacheService(sharedJarCache, localCache)
+
+    def "hashes of jars with the same content are shared regardless of their location"() {
+        def first = snapshotContext("/first/lib.jar", HashCode.fromInt(456))
+        def second = snapshotContext("/second/other.jar", HashCode.fromInt(456))
+
+        when:
+        def firstHash = cacheService.hashFile(first, hasher, configurationHash)
+        def secondHash = cacheService.hashFile(second, hasher, configurationHash)
+
+        then:
+        1 * hasher.hash(first) >> HashCode.fromInt(123)
+        0 * _
+
+        and:
+        firstHash == HashCode.fromInt(123)
+        secondHash == firstHash
+    }
+
+    def "hashes of other files are delegated"() {
+        def context = snapshotContext("/first/Foo.class", HashCode.fromInt(456))
+
+        when:
+        def hash = cacheService.hashFile(context, hasher, configurationHash)
+
+        then:
+        1 * localCache.hashFile(context, hasher, configurationHash) >> HashCode.fromInt(123)
+        0 * _
+
+        and:
+        hash == HashCode.fromInt(123)
+    }
+
+    private static RegularFileSnapshotContext snapshotContext(String path, HashCode contentHash) {
+        def snapshot = new RegularFileSnapshot(path, new File(path).name, contentHash, DefaultFileMetadata.file(3456, 456, FileMetadata.AccessType.DIRECT))
+        return new DefaultRegularFileSnapshotContext({ [] as String[] }, snapshot)
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.file.archive
+
+import org.apache.tools.zip.ZipEntry
+import org.apache.tools.zip.ZipOutputStream
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.util.concurrent.ForkJoinPool
+
+class ParallelZipExtractorTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+
+    def forkJoinPool = new ForkJoinPool(2)
+    def extractor = new ParallelZipExtractor(forkJoinPool)
+
+    def cleanup() {
+        forkJoinPool.shutdown()
+    }
+
+    def "extracts files of zip into directory"() {
+        def contents = tmpDir.createDir("contents")
+        contents.file("a.txt").text = "a"
+        contents.file("dir/b.txt").text = "b"
+        contents.file("dir/nested/c.txt").text = "c"
+        def zip = tmpDir.file("test.zip")
+        contents.zipTo(zip)
+        def target = tmpDir.file("target")
+
+        when:
+        extractor.extract(zip, target)
+
+        then:
+        target.assertHasDescendants("a.txt", "dir/b.txt", "dir/nested/c.txt")
+        target.file("dir/nested/c.txt").text == "c"
+    }
+
+    def "extracts zip with more entries than fit into a single slice"() {
+        def contents = tmpDir.createDir("contents")
+        def names = (0..<1000).collect { "dir${it % 10}/file${it}.txt".toString() }
+        names.each { contents.file(it).text = it }
+        def zip = tmpDir.file("test.zip")
+        contents.zipTo(zip)
+        def target = tmpDir.file("target")
+
+        when:
+        extractor.extract(zip, target)
+
+        then:
+        target.assertHasDescendants(names)
+        names.every { target.file(it).text == it }
+    }
+
+    def "replaces existing files in target directory"() {
+        def contents = tmpDir.createDir("contents")
+        contents.file("a.txt").text = "new"
+        def zip = tmpDir.file("test.zip")
+        contents.zipTo(zip)
+        def target = tmpDir.createDir("target")
+        target.file("a.txt").text = "old"
+
+        when:
+        extractor.extract(zip, target)
+
+        then:
+        target.file("a.txt").text == "new"
+    }
+
+    def "extracts last entry of each name when entries with the same name are in different slices"() {
+        def fillers = (0..<600).collect { "filler${it}.txt".toString() }
+        def zip = tmpDir.file("test.zip")
+        new ZipOutputStream(zip).withCloseable { out ->
+            writeEntry(out, "a.txt", "first")
+            fillers.each { writeEntry(out, it, it) }
+            writeEntry(out, "a.txt", "last")
+        }
+        def target = tmpDir.file("target")
+
+        when:
+        extractor.extract(zip, target)
+
+        then:
+        target.assertHasDescendants(["a.txt"] + fillers)
+        target.file("a.txt").text == "last"
+    }
+
+    def "reads names of entries without language encoding flag as UTF-8"() {
+        def zip = tmpDir.file("test.zip")
+        new ZipOutputStream(zip).withCloseable { out ->
+            out.encoding = "UTF-8"
+            out.useLanguageEncodingFlag = false
+            writeEntry(out, "dir/\u00e9t\u00e9-\u65e5\u672c.txt", "content")
+        }
+        def target = tmpDir.file("target")
+
+        when:
+        extractor.extract(zip, target)
+
+        then:
+        target.assertHasDescendants("dir/\u00e9t\u00e9-\u65e5\u672c.txt")
+        target.file("dir/\u00e9t\u00e9-\u65e5\u672c.txt").text == "content"
+    }
+
+    def "extracts slices on calling thread when no pool is given"() {
+        def contents = tmpDir.createDir("contents")
+        def names = (0..<600).collect { "file${it}.txt".toString() }
+        names.each { contents.file(it).text = it }
+        def zip = tmpDir.file("test.zip")
+        contents.zipTo(zip)
+        def target = tmpDir.file("target")
+
+        when:
+        new ParallelZipExtractor(null).extract(zip, target)
+
+        then:
+        target.assertHasDescendants(names)
+        names.every { target.file(it).text == it }
+    }
+
+    private static void writeEntry(ZipOutputStream out, String name, String text) {
+        out.putNextEntry(new ZipEntry(name))
+        out.write(text.bytes)
+        out.closeEntry()
+    }
+}
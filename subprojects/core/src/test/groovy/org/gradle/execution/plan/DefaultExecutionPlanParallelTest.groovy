@@ -221,6 +221,87 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
 
     }
 
+    def "tasks whose dependencies complete are selected in execution order rather than in the order they became ready"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async)
+        Task c = task("c", type: Async, dependsOn: [a])
+        Task d = task("d", type: Async, dependsOn: [b])
+
+        when:
+        addToGraphAndPopulate(c, d)
+        def aNode = selectNextTaskNode()
+        def bNode = selectNextTaskNode()
+
+        then:
+        aNode.task == a
+        bNode.task == b
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(bNode)
+        executionPlan.finishedExecuting(aNode)
+
+        then:
+        selectNextTask() == c
+        selectNextTask() == d
+        selectNextTask() == null
+    }
+
+    def "task that must run after a running task is selected once that task completes without holding up later tasks"() {
+        given:
+        Task a = task("a", type: Async)
+        Task b = task("b", type: Async, mustRunAfter: [a])
+        Task c = task("c", type: Async)
+
+        when:
+        addToGraphAndPopulate(a, b, c)
+        def aNode = selectNextTaskNode()
+
+        then:
+        aNode.task == a
+        selectNextTask() == c
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(aNode)
+
+        then:
+        selectNextTask() == b
+        selectNextTask() == null
+    }
+
+    def "finalizer becomes ready when the finalized task completes while other tasks keep running"() {
+        given:
+        Task finalizer = task("finalizer", type: Async)
+        Task finalized = task("finalized", type: Async, finalizedBy: [finalizer])
+        Task other = task("other", type: Async)
+
+        when:
+        addToGraphAndPopulate(finalized, other)
+        def finalizedNode = selectNextTaskNode()
+        def otherNode = selectNextTaskNode()
+
+        then:
+        finalizedNode.task == finalized
+        otherNode.task == other
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(otherNode)
+
+        then:
+        selectNextTask() == null
+
+        when:
+        executionPlan.finishedExecuting(finalizedNode)
+        def finalizerNode = selectNextTaskNode()
+
+        then:
+        finalizerNode.task == finalizer
+        selectNextTask() == null
+    }
+
     def "two tasks that have the same file in outputs are not executed in parallel"() {
         def sharedFile = file("output")
 
@@ -35,6 +35,10 @@ import org.gradle.testfixtures.internal.TestInMemoryCacheFactory
 import org.junit.Rule
 import spock.lang.Subject
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
 import static org.gradle.internal.classpath.CachedClasspathTransformer.StandardTransform.BuildLogic
 import static org.gradle.internal.classpath.CachedClasspathTransformer.StandardTransform.None
 
@@ -309,6 +313,80 @@ class DefaultCachedClasspathTransformerTest extends ConcurrentSpec {
         0 * fileAccessTimeJournal._
     }
 
+    def "runs transform of each entry with the provided runner"() {
+        given:
+        def dir = testDir.file("thing.dir")
+        classesDir(dir)
+        def file = testDir.file("thing.jar")
+        jar(file)
+        def classpath = DefaultClassPath.of(dir, file)
+        def cachedDir = testDir.file("cached/2e15a24ce745106ae61f67560758a9ad/thing.dir.jar")
+        def cachedFile = testDir.file("cached/c9b0b6dd98e472eb3be4b48ccf932dad/thing.jar")
+        def runner = Mock(ClasspathFileTransformRunner)
+
+        when:
+        def cachedClasspath = transformer.withFileTransformRunner(runner).transform(classpath, BuildLogic)
+
+        then:
+        cachedClasspath.asFiles == [cachedDir, cachedFile]
+
+        and:
+        1 * runner.run(dir, _) >> { File original, Supplier<File> transform -> transform.get() }
+        1 * runner.run(file, _) >> { File original, Supplier<File> transform -> transform.get() }
+        0 * runner._
+    }
+
+    def "produces entry shared by classpaths that are transformed concurrently only once"() {
+        given:
+        def transform = Mock(CachedClasspathTransformer.Transform)
+        def shared = testDir.file("thing.jar")
+        jar(shared)
+        def otherJar = testDir.file("other.jar")
+        modifiedJar(otherJar)
+        def otherDir = testDir.file("other.dir")
+        otherDir.createDir()
+        otherDir.file("c.class").bytes = classTwo()
+        def cachedFile = testDir.file("cached/7c3c6c23079d639595785aec0ba4bf89/thing.jar")
+        def sharedRequested = new CountDownLatch(2)
+        def runner = Stub(ClasspathFileTransformRunner) {
+            run(_, _) >> { File original, Supplier<File> transformAction ->
+                if (original == shared) {
+                    // Both classpaths ask for the shared entry at the same time
+                    sharedRequested.countDown()
+                    sharedRequested.await(10, TimeUnit.SECONDS)
+                }
+                transformAction.get()
+            }
+        }
+        def concurrentTransformer = transformer.withFileTransformRunner(runner)
+
+        when:
+        def first = null
+        def second = null
+        async {
+            start {
+                first = concurrentTransformer.transform(DefaultClassPath.of(shared, otherJar), BuildLogic, transform)
+            }
+            start {
+                second = concurrentTransformer.transform(DefaultClassPath.of(shared, otherDir), BuildLogic, transform)
+            }
+        }
+
+        then:
+        first.asFiles*.name == ["thing.jar", "other.jar"]
+        second.asFiles*.name == ["thing.jar", "other.dir.jar"]
+        first.asFiles[0] == cachedFile
+        second.asFiles[0] == cachedFile
+        cachedFile.isFile()
+
+        and:
+        _ * transform.applyConfigurationTo(_) >> { Hasher hasher -> hasher.putInt(123) }
+        1 * transform.apply({ it.name == "a.class" }, _) >> { entry, visitor -> Pair.of(entry.path, visitor) }
+        1 * transform.apply({ it.name == "b.class" }, _) >> { entry, visitor -> Pair.of(entry.path, visitor) }
+        1 * transform.apply({ it.name == "c.class" }, _) >> { entry, visitor -> Pair.of(entry.path, visitor) }
+        0 * transform._
+    }
+
     def "removes entries with duplicate content when usage is none"() {
         given:
         def dir = testDir.file("thing.dir")
@@ -15,18 +15,32 @@
  */
 package org.gradle.api.internal.artifacts;
 
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.store.PersistentResolutionResultsCache;
 import org.gradle.api.internal.cache.StringInterner;
 import org.gradle.api.internal.std.DependenciesAccessorsWorkspaceProvider;
 import org.gradle.cache.CacheRepository;
+import org.gradle.cache.FileLockManager;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
+import org.gradle.cache.internal.VersionStrategy;
 import org.gradle.initialization.layout.ProjectCacheDir;
 import org.gradle.internal.file.FileAccessTimeJournal;
 
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
 public class DependencyManagementBuildSessionScopeServices {
 
     DependenciesAccessorsWorkspaceProvider createDependenciesAccessorsWorkspace(ProjectCacheDir projectCacheDir, CacheScopeMapping cacheScopeMapping, CacheRepository cacheRepository, FileAccessTimeJournal fileAccessTimeJournal, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory, StringInterner stringInterner) {
         return new DependenciesAccessorsWorkspaceProvider(projectCacheDir, cacheScopeMapping, cacheRepository, fileAccessTimeJournal, inMemoryCacheDecoratorFactory, stringInterner);
     }
 
+    PersistentResolutionResultsCache createPersistentResolutionResultsCache(ProjectCacheDir projectCacheDir, CacheScopeMapping cacheScopeMapping, CacheRepository cacheRepository) {
+        return new PersistentResolutionResultsCache(
+            cacheRepository
+                .cache(cacheScopeMapping.getBaseDirectory(projectCacheDir.getDir(), "resolution-results", VersionStrategy.CachePerVersion))
+                .withDisplayName("resolution results")
+                .withLockOptions(mode(FileLockManager.LockMode.OnDemand))
+        );
+    }
+
 }
@@ -31,6 +31,7 @@
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.cache.internal.UsedGradleVersions;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.event.ListenerManager;
 import org.gradle.internal.execution.history.ExecutionHistoryCacheAccess;
 import org.gradle.internal.execution.history.ExecutionHistoryStore;
@@ -78,13 +79,24 @@ ExecutionHistoryCacheAccess createExecutionHistoryCacheAccess(CacheRepository ca
     ExecutionHistoryStore createExecutionHistoryStore(
         ExecutionHistoryCacheAccess executionHistoryCacheAccess,
         InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory,
-        StringInterner stringInterner
+        StringInterner stringInterner,
+        ExecutorFactory executorFactory,
+        ListenerManager listenerManager
     ) {
-        return new DefaultExecutionHistoryStore(
+        DefaultExecutionHistoryStore executionHistoryStore = new DefaultExecutionHistoryStore(
             executionHistoryCacheAccess,
             inMemoryCacheDecoratorFactory,
-            stringInterner
+            stringInterner,
+            executorFactory
         );
+        // This store outlives the build, so write its pending history when each build finishes
+        listenerManager.addListener(new BuildAdapter() {
+            @Override
+            public void buildFinished(BuildResult result) {
+                executionHistoryStore.flush();
+            }
+        });
+        return executionHistoryStore;
     }
 
     ImmutableTransformationWorkspaceServices createTransformerWorkspaceServices(
@@ -17,13 +17,18 @@
 package org.gradle.api.internal.artifacts.ivyservice;
 
 import com.google.common.collect.ImmutableList;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
 import org.gradle.api.artifacts.ProjectDependency;
 import org.gradle.api.artifacts.UnresolvedDependency;
 import org.gradle.api.artifacts.component.BuildIdentifier;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.result.ResolutionResult;
 import org.gradle.api.artifacts.result.ResolvedComponentResult;
 import org.gradle.api.internal.artifacts.ArtifactDependencyResolver;
 import org.gradle.api.internal.artifacts.ComponentSelectorConverter;
 import org.gradle.api.internal.artifacts.ConfigurationResolver;
+import org.gradle.api.internal.artifacts.DefaultResolverResults;
 import org.gradle.api.internal.artifacts.GlobalDependencyResolutionRules;
 import org.gradle.api.internal.artifacts.ImmutableModuleIdentifierFactory;
 import org.gradle.api.internal.artifacts.RepositoriesSupplier;
@@ -31,10 +36,14 @@
 import org.gradle.api.internal.artifacts.configurations.ConfigurationInternal;
 import org.gradle.api.internal.artifacts.configurations.ConflictResolution;
 import org.gradle.api.internal.artifacts.configurations.ResolutionStrategyInternal;
+import org.gradle.api.internal.artifacts.dsl.ModuleReplacementsData;
 import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.verification.DependencyVerificationOverride;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.ArtifactVisitor;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.BuildDependenciesOnlyVisitedArtifactSet;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.DefaultResolvedArtifactsBuilder;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.DependencyArtifactsVisitor;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.SelectedArtifactSet;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.VisitedArtifactSet;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.VisitedArtifactsResults;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.artifact.VisitedFileDependencyResults;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.CompositeDependencyArtifactsVisitor;
@@ -52,14 +61,21 @@
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.AttributeContainerSerializer;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.ComponentSelectionDescriptorFactory;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.FileDependencyCollectingGraphVisitor;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.PersistableResolutionResultVisitor;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.result.StreamingResolutionResultBuilder;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.store.PersistentResolutionResultsCache;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.store.ResolutionResultsStoreFactory;
 import org.gradle.api.internal.artifacts.ivyservice.resolveengine.store.StoreSet;
 import org.gradle.api.internal.artifacts.repositories.ResolutionAwareRepository;
+import org.gradle.api.internal.artifacts.result.DefaultResolutionResult;
 import org.gradle.api.internal.artifacts.transform.ArtifactTransforms;
 import org.gradle.api.internal.artifacts.type.ArtifactTypeRegistry;
+import org.gradle.api.internal.attributes.AttributeContainerInternal;
 import org.gradle.api.internal.attributes.AttributeDesugaring;
 import org.gradle.api.internal.attributes.AttributesSchemaInternal;
+import org.gradle.api.internal.tasks.TaskDependencyResolveContext;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.specs.Specs;
 import org.gradle.cache.internal.BinaryStore;
@@ -67,14 +83,23 @@
 import org.gradle.internal.Cast;
 import org.gradle.internal.component.local.model.DslOriginDependencyMetadata;
 import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.hash.ClassLoaderHierarchyHasher;
+import org.gradle.internal.hash.HashCode;
 import org.gradle.internal.locking.DependencyLockingArtifactVisitor;
 import org.gradle.internal.operations.BuildOperationExecutor;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
 public class DefaultConfigurationResolver implements ConfigurationResolver {
+    /**
+     * Keeps the dependency graph of configurations across builds, so that a graph whose inputs have not changed can be loaded instead of resolved.
+     */
+    public static final String PERSISTENT_RESOLUTION_RESULTS_PROPERTY = "org.gradle.internal.dependency-resolution.persistent-results";
+
+    private static final Logger LOGGER = Logging.getLogger(DefaultConfigurationResolver.class);
     private static final Spec<DependencyMetadata> IS_LOCAL_EDGE = element -> element instanceof DslOriginDependencyMetadata && ((DslOriginDependencyMetadata) element).getSource() instanceof ProjectDependency;
     private final ArtifactDependencyResolver resolver;
     private final RepositoriesSupplier repositoriesSupplier;
@@ -92,6 +117,10 @@ public class DefaultConfigurationResolver implements ConfigurationResolver {
     private final AttributeDesugaring attributeDesugaring;
     private final DependencyVerificationOverride dependencyVerificationOverride;
     private final ComponentSelectionDescriptorFactory componentSelectionDescriptorFactory;
+    @Nullable
+    private final PersistentResolutionResultsCache resolutionResultsCache;
+    private final boolean refreshDependencies;
+    private final ClassLoaderHierarchyHasher classLoaderHierarchyHasher;
 
     public DefaultConfigurationResolver(ArtifactDependencyResolver resolver,
                                         RepositoriesSupplier repositoriesSupplier,
@@ -107,7 +136,10 @@ public DefaultConfigurationResolver(ArtifactDependencyResolver resolver,
                                         AttributeContainerSerializer attributeContainerSerializer,
                                         BuildIdentifier currentBuild, AttributeDesugaring attributeDesugaring,
                                         DependencyVerificationOverride dependencyVerificationOverride,
-                                        ComponentSelectionDescriptorFactory componentSelectionDescriptorFactory) {
+                                        ComponentSelectionDescriptorFactory componentSelectionDescriptorFactory,
+                                        PersistentResolutionResultsCache resolutionResultsCache,
+                                        boolean refreshDependencies,
+                                        ClassLoaderHierarchyHasher classLoaderHierarchyHasher) {
         this.resolver = resolver;
         this.repositoriesSupplier = repositoriesSupplier;
         this.metadataHandler = metadataHandler;
@@ -124,6 +156,9 @@ public DefaultConfigurationResolver(ArtifactDependencyResolver resolver,
         this.attributeDesugaring = attributeDesugaring;
         this.dependencyVerificationOverride = dependencyVerificationOverride;
         this.componentSelectionDescriptorFactory = componentSelectionDescriptorFactory;
+        this.resolutionResultsCache = Boolean.getBoolean(PERSISTENT_RESOLUTION_RESULTS_PROPERTY) ? resolutionResultsCache : null;
+        this.refreshDependencies = refreshDependencies;
+        this.classLoaderHierarchyHasher = classLoaderHierarchyHasher;
     }
 
     @Override
@@ -140,6 +175,15 @@ public void resolveBuildDependencies(ConfigurationInternal configuration, Resolv
     @Override
     public void resolveGraph(ConfigurationInternal configuration, ResolverResults results) {
         List<ResolutionAwareRepository> resolutionAwareRepositories = getRepositories();
+        HashCode cacheKey = resolutionResultsCache == null ? null : ResolutionResultsCacheKey.calculate(configuration, resolutionAwareRepositories, metadataHandler, dependencyVerificationOverride, attributesSchema, classLoaderHierarchyHasher);
+        if (cacheKey != null && !refreshDependencies && resolutionResultsCache.contains(configuration.getIdentityPath().getPath(), cacheKey)) {
+            attachPersistedGraph(configuration, cacheKey, results);
+            return;
+        }
+        resolveGraph(configuration, resolutionAwareRepositories, cacheKey, results);
+    }
+
+    private void resolveGraph(ConfigurationInternal configuration, List<ResolutionAwareRepository> resolutionAwareRepositories, @Nullable HashCode cacheKey, ResolverResults results) {
         StoreSet stores = storeFactory.createStoreSet();
 
         BinaryStore oldModelStore = stores.nextBinaryStore();
@@ -149,6 +193,11 @@ public void resolveGraph(ConfigurationInternal configuration, ResolverResults re
         ResolvedConfigurationDependencyGraphVisitor oldModelVisitor = new ResolvedConfigurationDependencyGraphVisitor(oldModelBuilder);
 
         BinaryStore newModelStore = stores.nextBinaryStore();
+        RecordingBinaryStore recordingStore = null;
+        if (cacheKey != null) {
+            recordingStore = new RecordingBinaryStore(newModelStore);
+            newModelStore = recordingStore;
+        }
         Store<ResolvedComponentResult> newModelCache = stores.newModelCache();
         StreamingResolutionResultBuilder newModelBuilder = new StreamingResolutionResultBuilder(newModelStore, newModelCache, moduleIdentifierFactory, attributeContainerSerializer, attributeDesugaring, componentSelectionDescriptorFactory);
 
@@ -158,7 +207,10 @@ public void resolveGraph(ConfigurationInternal configuration, ResolverResults re
         DefaultResolvedArtifactsBuilder artifactsBuilder = new DefaultResolvedArtifactsBuilder(buildProjectDependencies, resolutionStrategy.getSortOrder());
         FileDependencyCollectingGraphVisitor fileDependencyVisitor = new FileDependencyCollectingGraphVisitor();
         ResolutionFailureCollector failureCollector = new ResolutionFailureCollector(componentSelectorConverter);
-        DependencyGraphVisitor graphVisitor = new CompositeDependencyGraphVisitor(newModelBuilder, localComponentsVisitor, failureCollector);
+        PersistableResolutionResultVisitor persistableVisitor = new PersistableResolutionResultVisitor();
+        DependencyGraphVisitor graphVisitor = cacheKey == null
+            ? new CompositeDependencyGraphVisitor(newModelBuilder, localComponentsVisitor, failureCollector)
+            : new CompositeDependencyGraphVisitor(newModelBuilder, localComponentsVisitor, failureCollector, persistableVisitor);
 
         ImmutableList.Builder<DependencyArtifactsVisitor> visitors = new ImmutableList.Builder<>();
         visitors.add(oldModelVisitor);
@@ -187,6 +239,9 @@ public void resolveGraph(ConfigurationInternal configuration, ResolverResults re
             : lockingVisitor.collectLockingFailures();
         Set<UnresolvedDependency> failures = failureCollector.complete(extraFailures);
         results.graphResolved(newModelBuilder.complete(extraFailures), localComponentsVisitor, new BuildDependenciesOnlyVisitedArtifactSet(failures, artifactsResults, artifactTransforms, configuration.getDependenciesResolver()));
+        if (recordingStore != null && failures.isEmpty() && persistableVisitor.isPersistable()) {
+            resolutionResultsCache.store(configuration.getIdentityPath().getPath(), cacheKey, recordingStore.data);
+        }
 
         results.retainState(new ArtifactResolveState(graphResults, artifactsResults, fileDependencyResults, failures, oldTransientModelBuilder));
         if (!results.hasError() && failures.isEmpty()) {
@@ -199,8 +254,56 @@ public List<ResolutionAwareRepository> getRepositories() {
         return Cast.uncheckedCast(repositoriesSupplier.get());
     }
 
+    /**
+     * Attaches the graph persisted by an earlier build to the given results, as the persisted graph was resolved from the same inputs.
+     *
+     * Artifact selection is not persisted, so only consumers that query the resolution result alone, such as dependency reports, benefit from it.
+     * The persisted graph is only read once the resolution result is queried. A query for the artifacts or files of the configuration resolves
+     * the graph in full instead, without reading the persisted graph first.
+     */
+    private void attachPersistedGraph(ConfigurationInternal configuration, HashCode cacheKey, ResolverResults results) {
+        DeferredResolution deferredResolution = new DeferredResolution(configuration, cacheKey);
+        ResolutionResult resolutionResult = new DefaultResolutionResult(deferredResolution::getRoot, attributeDesugaring.desugar(configuration.getAttributes().asImmutable()));
+        results.graphResolved(resolutionResult, new ResolvedLocalComponentsResultGraphVisitor(currentBuild), new DeferredVisitedArtifactSet(deferredResolution));
+        results.retainState(deferredResolution);
+    }
+
+    /**
+     * Reads the graph persisted for the given configuration, or returns null when it is no longer available or cannot be used.
+     */
+    @Nullable
+    private ResolutionResult loadPersistedGraph(ConfigurationInternal configuration, HashCode cacheKey) {
+        BinaryStore.BinaryData data = resolutionResultsCache.load(configuration.getIdentityPath().getPath(), cacheKey);
+        if (data == null) {
+            return null;
+        }
+        StoreSet stores = storeFactory.createStoreSet();
+        StreamingResolutionResultBuilder newModelBuilder = new StreamingResolutionResultBuilder(stores.nextBinaryStore(), stores.newModelCache(), moduleIdentifierFactory, attributeContainerSerializer, attributeDesugaring, componentSelectionDescriptorFactory);
+        ResolutionResult resolutionResult = newModelBuilder.load(data, attributeDesugaring.desugar(configuration.getAttributes().asImmutable()));
+        try {
+            // Module replacement rules are not part of the key, but only matter when the graph contains modules that take part in a replacement
+            ModuleReplacementsData moduleReplacements = metadataHandler.getModuleMetadataProcessor().getModuleReplacements();
+            for (ResolvedComponentResult component : resolutionResult.getAllComponents()) {
+                ModuleVersionIdentifier moduleVersion = component.getModuleVersion();
+                if (moduleVersion != null && moduleReplacements.participatesInReplacements(moduleVersion.getModule())) {
+                    return null;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.debug("Could not load the persisted resolution result of {}.", configuration.getDisplayName(), e);
+            return null;
+        }
+        return resolutionResult;
+    }
+
     @Override
     public void resolveArtifacts(ConfigurationInternal configuration, ResolverResults results) {
+        if (results.getArtifactResolveState() instanceof DeferredResolution) {
+            ResolverResults fullResults = ((DeferredResolution) results.getArtifactResolveState()).getResults();
+            resolveArtifacts(configuration, fullResults);
+            results.artifactsResolved(fullResults.getResolvedConfiguration(), fullResults.getVisitedArtifacts());
+            return;
+        }
         ArtifactResolveState resolveState = (ArtifactResolveState) results.getArtifactResolveState();
         ResolvedGraphResults graphResults = resolveState.graphResults;
         VisitedArtifactsResults artifactResults = resolveState.artifactsResults;
@@ -212,6 +315,107 @@ public void resolveArtifacts(ConfigurationInternal configuration, ResolverResult
         results.artifactsResolved(new DefaultResolvedConfiguration(result), result);
     }
 
+    /**
+     * Provides the graph of a configuration for which a persisted graph is available. The graph is read from the persisted result when
+     * only the resolution result is queried, and resolved in full the first time the artifacts are required.
+     */
+    private class DeferredResolution {
+        private final ConfigurationInternal configuration;
+        private final HashCode cacheKey;
+        private ResolutionResult persistedResult;
+        private boolean persistedResultLoaded;
+        private ResolverResults results;
+
+        DeferredResolution(ConfigurationInternal configuration, HashCode cacheKey) {
+            this.configuration = configuration;
+            this.cacheKey = cacheKey;
+        }
+
+        synchronized ResolvedComponentResult getRoot() {
+            if (results == null && !persistedResultLoaded) {
+                persistedResult = loadPersistedGraph(configuration, cacheKey);
+                persistedResultLoaded = true;
+            }
+            if (persistedResult != null) {
+                return persistedResult.getRoot();
+            }
+            return getResults().getResolutionResult().getRoot();
+        }
+
+        synchronized ResolverResults getResults() {
+            if (results == null) {
+                DefaultResolverResults fullResults = new DefaultResolverResults();
+                resolveGraph(configuration, getRepositories(), null, fullResults);
+                results = fullResults;
+            }
+            return results;
+        }
+    }
+
+    private static class DeferredVisitedArtifactSet implements VisitedArtifactSet {
+        private final DeferredResolution deferredResolution;
+
+        DeferredVisitedArtifactSet(DeferredResolution deferredResolution) {
+            this.deferredResolution = deferredResolution;
+        }
+
+        @Override
+        public SelectedArtifactSet select(Spec<? super Dependency> dependencySpec, AttributeContainerInternal requestedAttributes, Spec<? super ComponentIdentifier> componentSpec, boolean allowNoMatchingVariant) {
+            return new SelectedArtifactSet() {
+                @Override
+                public void visitDependencies(TaskDependencyResolveContext context) {
+                    SelectedArtifactSet selected;
+                    try {
+                        selected = select();
+                    } catch (Exception e) {
+                        context.visitFailure(e);
+                        return;
+                    }
+                    selected.visitDependencies(context);
+                }
+
+                @Override
+                public void visitArtifacts(ArtifactVisitor visitor, boolean continueOnSelectionFailure) {
+                    SelectedArtifactSet selected;
+                    try {
+                        selected = select();
+                    } catch (Exception e) {
+                        visitor.visitFailure(e);
+                        return;
+                    }
+                    selected.visitArtifacts(visitor, continueOnSelectionFailure);
+                }
+
+                private SelectedArtifactSet select() {
+                    return deferredResolution.getResults().getVisitedArtifacts().select(dependencySpec, requestedAttributes, componentSpec, allowNoMatchingVariant);
+                }
+            };
+        }
+    }
+
+    /**
+     * Keeps the data written to a binary store, so that it can be persisted once the graph is known to be persistable.
+     */
+    private static class RecordingBinaryStore implements BinaryStore {
+        private final BinaryStore delegate;
+        private BinaryData data;
+
+        RecordingBinaryStore(BinaryStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(WriteAction write) {
+            delegate.write(write);
+        }
+
+        @Override
+        public BinaryData done() {
+            data = delegate.done();
+            return data;
+        }
+    }
+
     private static class ArtifactResolveState {
         final ResolvedGraphResults graphResults;
         final VisitedArtifactsResults artifactsResults;
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice;
+
+import org.gradle.api.Action;
+import org.gradle.api.artifacts.ClientModule;
+import org.gradle.api.artifacts.Dependency;
+import org.gradle.api.artifacts.DependencyArtifact;
+import org.gradle.api.artifacts.DependencyConstraint;
+import org.gradle.api.artifacts.ExcludeRule;
+import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.artifacts.VersionConstraint;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.attributes.AttributeContainer;
+import org.gradle.api.capabilities.Capability;
+import org.gradle.api.internal.artifacts.GlobalDependencyResolutionRules;
+import org.gradle.api.internal.artifacts.MetadataResolutionContext;
+import org.gradle.api.internal.artifacts.Module;
+import org.gradle.api.internal.artifacts.configurations.ConfigurationInternal;
+import org.gradle.api.internal.artifacts.configurations.ResolutionStrategyInternal;
+import org.gradle.api.internal.artifacts.configurations.dynamicversion.CachePolicy;
+import org.gradle.api.internal.artifacts.dependencies.DefaultProjectDependencyConstraint;
+import org.gradle.api.internal.artifacts.dependencies.DependencyConstraintInternal;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.ConfiguredModuleComponentRepository;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.verification.DependencyVerificationOverride;
+import org.gradle.api.internal.artifacts.repositories.ContentFilteringRepository;
+import org.gradle.api.internal.artifacts.repositories.ResolutionAwareRepository;
+import org.gradle.api.internal.attributes.AttributesSchemaInternal;
+import org.gradle.api.internal.attributes.CompatibilityRule;
+import org.gradle.api.internal.attributes.DefaultCompatibilityRuleChain;
+import org.gradle.api.internal.attributes.DefaultDisambiguationRuleChain;
+import org.gradle.api.internal.attributes.DefaultOrderedCompatibilityRule;
+import org.gradle.api.internal.attributes.DefaultOrderedDisambiguationRule;
+import org.gradle.api.internal.attributes.DisambiguationRule;
+import org.gradle.internal.Actions;
+import org.gradle.internal.action.ConfigurableRule;
+import org.gradle.internal.action.InstantiatingAction;
+import org.gradle.internal.hash.ClassLoaderHierarchyHasher;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hasher;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.reflect.Instantiator;
+
+import javax.annotation.Nullable;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Calculates the key of the inputs of a dependency graph resolution, under which the resulting graph can be kept across builds.
+ *
+ * Configurations whose graph may depend on inputs that cannot be captured in a key, such as project dependencies, dependency substitution rules,
+ * dependency locking, repositories whose content may change for a given version or attribute rules loaded by an unknown classloader, have no key.
+ */
+final class ResolutionResultsCacheKey {
+    private ResolutionResultsCacheKey() {
+    }
+
+    /**
+     * Returns the key for the given configuration, or null when its graph cannot be kept.
+     */
+    @Nullable
+    static HashCode calculate(ConfigurationInternal configuration, List<ResolutionAwareRepository> repositories, GlobalDependencyResolutionRules metadataHandler, DependencyVerificationOverride dependencyVerificationOverride,
+                              AttributesSchemaInternal attributesSchema, ClassLoaderHierarchyHasher classLoaderHierarchyHasher) {
+        ResolutionStrategyInternal resolutionStrategy = configuration.getResolutionStrategy();
+        if (resolutionStrategy.getDependencySubstitutionRule() != Actions.doNothing()
+            || !resolutionStrategy.getComponentSelection().getRules().isEmpty()
+            || resolutionStrategy.isDependencyLockingEnabled()
+            || (resolutionStrategy.isDependencyVerificationEnabled() && dependencyVerificationOverride != DependencyVerificationOverride.NO_VERIFICATION)
+            || configuration.getConsistentResolutionSource() != null) {
+            return null;
+        }
+
+        Hasher hasher = Hashing.newHasher();
+        hasher.putString(configuration.getIdentityPath().getPath());
+        Module module = configuration.getModule();
+        putNullableString(hasher, module.getGroup());
+        putNullableString(hasher, module.getName());
+        putNullableString(hasher, module.getVersion());
+        putNullableString(hasher, module.getStatus());
+        putAttributes(hasher, configuration.getAttributes());
+        hasher.putString(resolutionStrategy.getConflictResolution().name());
+        hasher.putBoolean(configuration.isTransitive());
+        for (ExcludeRule excludeRule : configuration.getAllExcludeRules()) {
+            putExcludeRule(hasher, excludeRule);
+        }
+
+        for (Dependency dependency : configuration.getAllDependencies()) {
+            if (!(dependency instanceof ExternalModuleDependency) || dependency instanceof ClientModule) {
+                return null;
+            }
+            ExternalModuleDependency moduleDependency = (ExternalModuleDependency) dependency;
+            if (moduleDependency.isChanging()) {
+                return null;
+            }
+            putNullableString(hasher, moduleDependency.getGroup());
+            hasher.putString(moduleDependency.getName());
+            putVersionConstraint(hasher, moduleDependency.getVersionConstraint());
+            hasher.putBoolean(moduleDependency.isForce());
+            hasher.putBoolean(moduleDependency.isTransitive());
+            hasher.putBoolean(moduleDependency.isEndorsingStrictVersions());
+            putNullableString(hasher, moduleDependency.getTargetConfiguration());
+            putNullableString(hasher, moduleDependency.getReason());
+            putAttributes(hasher, moduleDependency.getAttributes());
+            for (ExcludeRule excludeRule : moduleDependency.getExcludeRules()) {
+                putExcludeRule(hasher, excludeRule);
+            }
+            for (Capability capability : moduleDependency.getRequestedCapabilities()) {
+                hasher.putString(capability.getGroup());
+                hasher.putString(capability.getName());
+                putNullableString(hasher, capability.getVersion());
+            }
+            for (DependencyArtifact artifact : moduleDependency.getArtifacts()) {
+                hasher.putString(artifact.getName());
+                putNullableString(hasher, artifact.getType());
+                putNullableString(hasher, artifact.getExtension());
+                putNullableString(hasher, artifact.getClassifier());
+                putNullableString(hasher, artifact.getUrl());
+            }
+        }
+
+        for (DependencyConstraint constraint : configuration.getAllDependencyConstraints()) {
+            if (!(constraint instanceof DependencyConstraintInternal) || constraint instanceof DefaultProjectDependencyConstraint) {
+                return null;
+            }
+            hasher.putString(constraint.getGroup());
+            hasher.putString(constraint.getName());
+            putVersionConstraint(hasher, constraint.getVersionConstraint());
+            hasher.putBoolean(((DependencyConstraintInternal) constraint).isForce());
+            putNullableString(hasher, constraint.getReason());
+            putAttributes(hasher, constraint.getAttributes());
+        }
+
+        for (ResolutionAwareRepository repository : repositories) {
+            if (repository instanceof ContentFilteringRepository && ((ContentFilteringRepository) repository).getContentFilter() != Actions.doNothing()) {
+                return null;
+            }
+            ConfiguredModuleComponentRepository resolver = repository.createResolver();
+            if (resolver.isLocal()) {
+                // The content of a local repository can change without a new version being published
+                return null;
+            }
+            hasher.putString(resolver.getId());
+        }
+
+        // Class based rules hash the identity of their class, so that the key only remains valid for as long as the build logic is loaded
+        hasher.putInt(metadataHandler.getComponentMetadataProcessorFactory().createComponentMetadataProcessor(new KeyResolutionContext(resolutionStrategy.getCachePolicy())).getRulesHash());
+
+        // The compatibility and disambiguation rules of the consumer take part in variant selection
+        if (!putAttributesSchema(hasher, attributesSchema, classLoaderHierarchyHasher)) {
+            return null;
+        }
+        return hasher.hash();
+    }
+
+    /**
+     * Hashes the rules of each attribute of the schema, using the implementation of each rule and the classloader that loads it.
+     * Returns false when a rule cannot be hashed.
+     */
+    private static boolean putAttributesSchema(Hasher hasher, AttributesSchemaInternal attributesSchema, ClassLoaderHierarchyHasher classLoaderHierarchyHasher) {
+        List<Attribute<?>> attributes = attributesSchema.getAttributes().stream().sorted(Comparator.comparing(Attribute::getName)).collect(Collectors.toList());
+        for (Attribute<?> attribute : attributes) {
+            hasher.putString(attribute.getName());
+            hasher.putString(attribute.getType().getName());
+            CompatibilityRule<Object> compatibilityRules = attributesSchema.compatibilityRules(attribute);
+            DisambiguationRule<Object> disambiguationRules = attributesSchema.disambiguationRules(attribute);
+            if (!(compatibilityRules instanceof DefaultCompatibilityRuleChain) || !(disambiguationRules instanceof DefaultDisambiguationRuleChain)) {
+                return false;
+            }
+            if (!putRules(hasher, ((DefaultCompatibilityRuleChain<Object>) compatibilityRules).getRules(), classLoaderHierarchyHasher)
+                || !putRules(hasher, ((DefaultDisambiguationRuleChain<Object>) disambiguationRules).getRules(), classLoaderHierarchyHasher)) {
+                return false;
+            }
+        }
+        hasher.putInt(attributes.size());
+        return true;
+    }
+
+    private static boolean putRules(Hasher hasher, List<? extends Action<?>> rules, ClassLoaderHierarchyHasher classLoaderHierarchyHasher) {
+        for (Action<?> rule : rules) {
+            if (rule instanceof InstantiatingAction) {
+                for (ConfigurableRule<?> configurableRule : ((InstantiatingAction<?>) rule).getRules().getConfigurableRules()) {
+                    if (!putImplementation(hasher, configurableRule.getRuleClass(), classLoaderHierarchyHasher)) {
+                        return false;
+                    }
+                    configurableRule.getRuleParams().appendToHasher(hasher);
+                }
+            } else if (rule instanceof DefaultOrderedCompatibilityRule) {
+                DefaultOrderedCompatibilityRule<?> orderedRule = (DefaultOrderedCompatibilityRule<?>) rule;
+                hasher.putBoolean(orderedRule.isReverse());
+                if (!putImplementation(hasher, orderedRule.getComparator().getClass(), classLoaderHierarchyHasher)) {
+                    return false;
+                }
+            } else if (rule instanceof DefaultOrderedDisambiguationRule) {
+                DefaultOrderedDisambiguationRule<?> orderedRule = (DefaultOrderedDisambiguationRule<?>) rule;
+                hasher.putBoolean(orderedRule.isPickFirst());
+                if (!putImplementation(hasher, orderedRule.getComparator().getClass(), classLoaderHierarchyHasher)) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        hasher.putInt(rules.size());
+        return true;
+    }
+
+    private static boolean putImplementation(Hasher hasher, Class<?> implementation, ClassLoaderHierarchyHasher classLoaderHierarchyHasher) {
+        hasher.putString(implementation.getName());
+        ClassLoader classLoader = implementation.getClassLoader();
+        if (classLoader == null) {
+            // Loaded by the bootstrap classloader
+            return true;
+        }
+        HashCode classLoaderHash = classLoaderHierarchyHasher.getClassLoaderHash(classLoader);
+        if (classLoaderHash == null) {
+            return false;
+        }
+        hasher.putHash(classLoaderHash);
+        return true;
+    }
+
+    private static void putVersionConstraint(Hasher hasher, VersionConstraint versionConstraint) {
+        hasher.putString(versionConstraint.getRequiredVersion());
+        hasher.putString(versionConstraint.getPreferredVersion());
+        hasher.putString(versionConstraint.getStrictVersion());
+        putNullableString(hasher, versionConstraint.getBranch());
+        for (String rejectedVersion : versionConstraint.getRejectedVersions()) {
+            hasher.putString(rejectedVersion);
+        }
+    }
+
+    private static void putExcludeRule(Hasher hasher, ExcludeRule excludeRule) {
+        putNullableString(hasher, excludeRule.getGroup());
+        putNullableString(hasher, excludeRule.getModule());
+    }
+
+    private static void putAttributes(Hasher hasher, AttributeContainer attributes) {
+        attributes.keySet().stream().sorted(Comparator.comparing(Attribute::getName)).forEach(attribute -> {
+            hasher.putString(attribute.getName());
+            hasher.putString(attribute.getType().getName());
+            hasher.putString(String.valueOf(attributes.getAttribute(attribute)));
+        });
+        hasher.putInt(attributes.keySet().size());
+    }
+
+    private static void putNullableString(Hasher hasher, @Nullable String value) {
+        if (value == null) {
+            hasher.putNull();
+        } else {
+            hasher.putString(value);
+        }
+    }
+
+    /**
+     * Only used to query the hash of the component metadata rules, which does not depend on the context.
+     */
+    private static class KeyResolutionContext implements MetadataResolutionContext {
+        private final CachePolicy cachePolicy;
+
+        KeyResolutionContext(CachePolicy cachePolicy) {
+            this.cachePolicy = cachePolicy;
+        }
+
+        @Override
+        public CachePolicy getCachePolicy() {
+            return cachePolicy;
+        }
+
+        @Override
+        public Instantiator getInjectingInstantiator() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.result;
+
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier;
+import org.gradle.api.artifacts.result.ComponentSelectionCause;
+import org.gradle.api.artifacts.result.ComponentSelectionDescriptor;
+import org.gradle.api.internal.artifacts.ResolvedVersionConstraint;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphComponent;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphNode;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphSelector;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.DependencyGraphVisitor;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.RootGraphNode;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.conflicts.VersionConflictResolutionDetails;
+import org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.selectors.ResolvableSelectorState;
+import org.gradle.internal.component.model.ComponentResolveMetadata;
+
+/**
+ * Determines whether a resolved graph only depends on inputs that are captured by the key of a persisted resolution result.
+ *
+ * A graph cannot be persisted when it contains dynamic or changing selectors, as it may resolve differently once the cached version listings or
+ * changing modules expire, or when it contains project components or capability conflicts, which are resolved using state that is not part of the key.
+ */
+public class PersistableResolutionResultVisitor implements DependencyGraphVisitor {
+    private boolean persistable = true;
+
+    public boolean isPersistable() {
+        return persistable;
+    }
+
+    @Override
+    public void start(RootGraphNode root) {
+    }
+
+    @Override
+    public void visitNode(DependencyGraphNode node) {
+        if (!persistable || node.isRoot()) {
+            return;
+        }
+        DependencyGraphComponent component = node.getOwner();
+        ComponentIdentifier componentId = component.getComponentId();
+        ComponentResolveMetadata metadata = component.getMetadata();
+        if (componentId instanceof ProjectComponentIdentifier || metadata == null || metadata.isChanging()) {
+            persistable = false;
+            return;
+        }
+        for (ComponentSelectionDescriptor descriptor : component.getSelectionReason().getDescriptions()) {
+            if (descriptor.getCause() == ComponentSelectionCause.CONFLICT_RESOLUTION && !(((ComponentSelectionDescriptorInternal) descriptor).getDescribable() instanceof VersionConflictResolutionDetails)) {
+                // Capability conflicts are resolved by rules that are not part of the key
+                persistable = false;
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void visitSelector(DependencyGraphSelector selector) {
+        if (!persistable) {
+            return;
+        }
+        if (!(selector instanceof ResolvableSelectorState)) {
+            persistable = false;
+            return;
+        }
+        ResolvableSelectorState selectorState = (ResolvableSelectorState) selector;
+        ResolvedVersionConstraint versionConstraint = selectorState.getVersionConstraint();
+        if (selectorState.isProject() || selectorState.isChanging() || selectorState.getClientModule() != null || versionConstraint == null || versionConstraint.isDynamic()) {
+            persistable = false;
+        }
+    }
+
+    @Override
+    public void visitEdges(DependencyGraphNode node) {
+    }
+
+    @Override
+    public void finish(DependencyGraphNode root) {
+    }
+}
@@ -45,6 +45,7 @@
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -96,6 +97,15 @@ public ResolutionResult complete(Set<UnresolvedDependency> extraFailures) {
         return new DefaultResolutionResult(rootSource, rootAttributes);
     }
 
+    /**
+     * Creates a result from data written by another builder, for example in an earlier build, instead of visiting a graph.
+     * The graph must have been resolved without failures.
+     */
+    public ResolutionResult load(BinaryStore.BinaryData data, AttributeContainer requestedAttributes) {
+        RootFactory rootSource = new RootFactory(data, failures, cache, componentSelectorSerializer, dependencyResultSerializer, componentResultSerializer, attributeContainerSerializer, Collections.emptySet());
+        return new DefaultResolutionResult(rootSource, requestedAttributes);
+    }
+
     @Override
     public void start(final RootGraphNode root) {
         rootAttributes = desugaring.desugar(root.getMetadata().getAttributes());
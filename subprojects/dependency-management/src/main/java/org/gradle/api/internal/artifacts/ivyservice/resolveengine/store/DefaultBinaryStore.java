@@ -23,9 +23,12 @@
 import org.gradle.internal.serialize.kryo.StringDeduplicatingKryoBackedEncoder;
 
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 
 import static org.gradle.internal.UncheckedException.throwAsUncheckedException;
@@ -73,11 +76,13 @@ public String toString() {
     @Override
     public BinaryData done() {
         try {
+            long end = -1;
             if (encoder != null) {
                 encoder.done();
                 encoder.flush();
+                end = encoder.getWritePosition();
             }
-            return new SimpleBinaryData(file, offset);
+            return new SimpleBinaryData(file, offset, end);
         } finally {
             offset = -1;
         }
@@ -106,16 +111,40 @@ long getSize() {
         return file.length();
     }
 
-    private static class SimpleBinaryData implements BinaryStore.BinaryData {
+    static class SimpleBinaryData implements BinaryStore.BinaryData {
         private final long offset;
+        private final long end;
         private final File inputFile;
 
         private Decoder decoder;
         private CompositeStoppable resources;
 
-        public SimpleBinaryData(File inputFile, long offset) {
+        public SimpleBinaryData(File inputFile, long offset, long end) {
             this.inputFile = inputFile;
             this.offset = offset;
+            this.end = end;
+        }
+
+        /**
+         * Copies the raw bytes of this data to the given stream. The bytes can be decoded on their own, as the string table of the encoder is reset between each data.
+         */
+        void copyTo(OutputStream outputStream) throws IOException {
+            if (offset == -1) {
+                return;
+            }
+            try (RandomAccessFile randomAccess = new RandomAccessFile(inputFile, "r")) {
+                randomAccess.seek(offset);
+                byte[] buffer = new byte[8192];
+                long remaining = end - offset;
+                while (remaining > 0) {
+                    int read = randomAccess.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new EOFException("Unexpected end of " + this);
+                    }
+                    outputStream.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
         }
 
         @Override
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.store;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.cache.CacheBuilder;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.internal.BinaryStore;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.kryo.StringDeduplicatingKryoBackedDecoder;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Keeps the binary resolution result of configurations across builds, so that the dependency graph of a configuration
+ * can be read back instead of being resolved again when none of the inputs of the resolution have changed.
+ *
+ * There is a single entry per configuration, replaced each time the configuration is resolved with different inputs.
+ * An entry starts with the key of the inputs it was resolved from, followed by the data of the result as written to the {@link DefaultBinaryStore}.
+ */
+public class PersistentResolutionResultsCache implements Closeable {
+    private static final Logger LOGGER = Logging.getLogger(PersistentResolutionResultsCache.class);
+
+    private final CacheBuilder cacheBuilder;
+    private PersistentCache cache;
+
+    public PersistentResolutionResultsCache(CacheBuilder cacheBuilder) {
+        this.cacheBuilder = cacheBuilder;
+    }
+
+    /**
+     * Returns the data stored for the given configuration, if it was resolved from inputs with the given key.
+     */
+    @Nullable
+    public BinaryStore.BinaryData load(String configurationPath, HashCode key) {
+        PersistentCache cache = getCache();
+        File entry = entryFor(cache, configurationPath);
+        byte[] content = cache.withFileLock(() -> {
+            if (!entry.isFile()) {
+                return null;
+            }
+            try {
+                return Files.readAllBytes(entry.toPath());
+            } catch (IOException e) {
+                LOGGER.debug("Could not read resolution result from {}.", entry, e);
+                return null;
+            }
+        });
+        if (content == null) {
+            return null;
+        }
+        byte[] expectedKey = key.toByteArray();
+        int headerLength = expectedKey.length + 1;
+        if (content.length <= headerLength || !startsWithKey(content, expectedKey)) {
+            return null;
+        }
+        return new InMemoryBinaryData(content, headerLength, entry);
+    }
+
+    /**
+     * Returns whether data is stored for the given configuration that was resolved from inputs with the given key. Only reads the key of the entry.
+     */
+    public boolean contains(String configurationPath, HashCode key) {
+        PersistentCache cache = getCache();
+        File entry = entryFor(cache, configurationPath);
+        byte[] expectedKey = key.toByteArray();
+        byte[] header = cache.withFileLock(() -> {
+            if (!entry.isFile()) {
+                return null;
+            }
+            try (DataInputStream inputStream = new DataInputStream(new FileInputStream(entry))) {
+                byte[] bytes = new byte[expectedKey.length + 1];
+                inputStream.readFully(bytes);
+                return bytes;
+            } catch (IOException e) {
+                LOGGER.debug("Could not read resolution result from {}.", entry, e);
+                return null;
+            }
+        });
+        return header != null && startsWithKey(header, expectedKey);
+    }
+
+    /**
+     * Replaces the entry of the given configuration with the given data, which must have been produced by a {@link DefaultBinaryStore}.
+     */
+    public void store(String configurationPath, HashCode key, BinaryStore.BinaryData data) {
+        if (!(data instanceof DefaultBinaryStore.SimpleBinaryData)) {
+            return;
+        }
+        PersistentCache cache = getCache();
+        File entry = entryFor(cache, configurationPath);
+        cache.withFileLock(() -> {
+            File tempFile = null;
+            try {
+                tempFile = File.createTempFile(entry.getName(), ".tmp", cache.getBaseDir());
+                try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+                    byte[] keyBytes = key.toByteArray();
+                    outputStream.write(keyBytes.length);
+                    outputStream.write(keyBytes);
+                    ((DefaultBinaryStore.SimpleBinaryData) data).copyTo(outputStream);
+                }
+                moveIntoPlace(tempFile, entry);
+            } catch (IOException e) {
+                LOGGER.debug("Could not store resolution result in {}.", entry, e);
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+    private static boolean startsWithKey(byte[] content, byte[] expectedKey) {
+        return content[0] == expectedKey.length && Arrays.equals(expectedKey, Arrays.copyOfRange(content, 1, expectedKey.length + 1));
+    }
+
+    private static void moveIntoPlace(File file, File entry) throws IOException {
+        try {
+            Files.move(file.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static File entryFor(PersistentCache cache, String configurationPath) {
+        return new File(cache.getBaseDir(), Hashing.hashString(configurationPath) + ".bin");
+    }
+
+    private synchronized PersistentCache getCache() {
+        if (cache == null) {
+            cache = cacheBuilder.open();
+        }
+        return cache;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (cache != null) {
+            cache.close();
+            cache = null;
+        }
+    }
+
+    private static class InMemoryBinaryData implements BinaryStore.BinaryData {
+        private final File source;
+        private final byte[] content;
+        private final int offset;
+        private Decoder decoder;
+
+        InMemoryBinaryData(byte[] content, int offset, File source) {
+            this.content = content;
+            this.offset = offset;
+            this.source = source;
+        }
+
+        @Override
+        public <T> T read(BinaryStore.ReadAction<T> readAction) {
+            try {
+                if (decoder == null) {
+                    decoder = new StringDeduplicatingKryoBackedDecoder(new ByteArrayInputStream(content, offset, content.length - offset));
+                }
+                return readAction.read(decoder);
+            } catch (Exception e) {
+                throw new RuntimeException("Problems reading data from " + toString(), e);
+            }
+        }
+
+        @Override
+        public void close() {
+            decoder = null;
+        }
+
+        public String toString() {
+            return "Cached resolution result in " + source;
+        }
+    }
+}
@@ -82,6 +82,7 @@
 import org.gradle.internal.service.UnknownServiceException;
 import org.gradle.internal.snapshot.ValueSnapshot;
 import org.gradle.internal.snapshot.ValueSnapshotter;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool;
 import org.gradle.model.internal.type.ModelType;
 import org.gradle.work.InputChanges;
 
@@ -333,11 +334,20 @@ private static String getParameterObjectDisplayName(Object parameterObject) {
 
     private TransformAction<?> newTransformAction(Provider<FileSystemLocation> inputArtifactProvider, ArtifactTransformDependencies artifactTransformDependencies, @Nullable InputChanges inputChanges) {
         TransformParameters parameters = isolatedParameters.get().getIsolatedParameterObject().isolate();
-        ServiceLookup services = new IsolationScheme<>(TransformAction.class, TransformParameters.class, TransformParameters.None.class).servicesForImplementation(parameters, internalServices);
+        ServiceLookup services = new IsolationScheme<>(TransformAction.class, TransformParameters.class, TransformParameters.None.class)
+            .servicesForImplementation(parameters, internalServices, additionalServicesFor(getImplementationClass()), serviceType -> false);
         services = new TransformServiceLookup(inputArtifactProvider, requiresDependencies ? artifactTransformDependencies : null, inputChanges, services);
         return instanceFactory.newInstance(services);
     }
 
+    /**
+     * Returns the internal services that can be injected into the given transform, in addition to those available to all transforms.
+     */
+    private static ImmutableList<Class<?>> additionalServicesFor(Class<?> implementationClass) {
+        // Only Gradle's own unzip transform shares the threads used for file system work, the pool is not exposed to other transforms
+        return implementationClass == UnzipTransform.class ? ImmutableList.of(DirectorySnapshotterPool.class) : ImmutableList.of();
+    }
+
     public CalculatedValueContainer<IsolatedParameters, IsolateTransformerParameters> getIsolatedParameters() {
         return isolatedParameters;
     }
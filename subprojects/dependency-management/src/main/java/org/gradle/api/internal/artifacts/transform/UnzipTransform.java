@@ -16,23 +16,21 @@
 
 package org.gradle.api.internal.artifacts.transform;
 
-import com.google.common.io.Files;
-import org.apache.commons.io.IOUtils;
 import org.gradle.api.artifacts.transform.InputArtifact;
 import org.gradle.api.artifacts.transform.TransformAction;
 import org.gradle.api.artifacts.transform.TransformOutputs;
 import org.gradle.api.artifacts.transform.TransformParameters;
 import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.internal.file.archive.ParallelZipExtractor;
 import org.gradle.api.provider.Provider;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotterPool;
 
-import java.io.BufferedInputStream;
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.apache.commons.io.FilenameUtils.removeExtension;
 
@@ -46,31 +44,22 @@ public interface UnzipTransform extends TransformAction<TransformParameters.None
     @InputArtifact
     Provider<FileSystemLocation> getZippedFile();
 
+    @Inject
+    DirectorySnapshotterPool getSnapshotterPool();
+
     @Override
     default void transform(TransformOutputs outputs) {
         File zippedFile = getZippedFile().get().getAsFile();
         String unzippedDirName = removeExtension(zippedFile.getName());
         File unzipDir = outputs.dir(unzippedDirName);
         try {
-            unzipTo(zippedFile, unzipDir);
+            unzipTo(zippedFile, unzipDir, getSnapshotterPool().getForkJoinPool());
         } catch (IOException e) {
             throw UncheckedException.throwAsUncheckedException(e);
         }
     }
 
-    static void unzipTo(File headersZip, File unzipDir) throws IOException {
-        try (ZipInputStream inputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(headersZip)))) {
-            ZipEntry entry;
-            while ((entry = inputStream.getNextEntry()) != null) {
-                if (entry.isDirectory()) {
-                    continue;
-                }
-                File outFile = new File(unzipDir, entry.getName());
-                Files.createParentDirs(outFile);
-                try (FileOutputStream outputStream = new FileOutputStream(outFile)) {
-                    IOUtils.copyLarge(inputStream, outputStream);
-                }
-            }
-        }
+    static void unzipTo(File headersZip, File unzipDir, @Nullable ForkJoinPool forkJoinPool) throws IOException {
+        new ParallelZipExtractor(forkJoinPool).extract(headersZip, unzipDir);
     }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.store
+
+import org.gradle.cache.CacheBuilder
+import org.gradle.cache.PersistentCache
+import org.gradle.cache.internal.BinaryStore
+import org.gradle.internal.Factory
+import org.gradle.internal.hash.Hashing
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class PersistentResolutionResultsCacheTest extends Specification {
+
+    @Rule TestNameTestDirectoryProvider temp = new TestNameTestDirectoryProvider(getClass())
+
+    def persistentCache = Stub(PersistentCache) {
+        getBaseDir() >> temp.createDir("cache")
+        withFileLock(_ as Factory) >> { Factory factory -> factory.create() }
+        withFileLock(_ as Runnable) >> { Runnable action -> action.run() }
+    }
+    def cacheBuilder = Stub(CacheBuilder) {
+        open() >> persistentCache
+    }
+    def cache = new PersistentResolutionResultsCache(cacheBuilder)
+    def store = new DefaultBinaryStore(temp.file("results.bin"))
+
+    def cleanup() {
+        store.close()
+        cache.close()
+    }
+
+    def "loads data stored with the same key"() {
+        def key = Hashing.hashString("key")
+        store.write({ it.writeString("ignored") } as BinaryStore.WriteAction)
+        store.done()
+        store.write({ it.writeInt(10); it.writeString("x") } as BinaryStore.WriteAction)
+        def data = store.done()
+
+        when:
+        cache.store(":conf", key, data)
+        def loaded = cache.load(":conf", key)
+
+        then:
+        loaded.read({ it.readInt() } as BinaryStore.ReadAction) == 10
+        loaded.read({ it.readString() } as BinaryStore.ReadAction) == "x"
+        loaded.close()
+
+        and:
+        loaded.read({ it.readInt() } as BinaryStore.ReadAction) == 10
+        loaded.close()
+    }
+
+    def "does not load data stored with a different key or for a different configuration"() {
+        store.write({ it.writeInt(10) } as BinaryStore.WriteAction)
+        def data = store.done()
+
+        when:
+        cache.store(":conf", Hashing.hashString("key"), data)
+
+        then:
+        cache.load(":conf", Hashing.hashString("other")) == null
+        cache.load(":other", Hashing.hashString("key")) == null
+    }
+
+    def "checks for data stored with a key without loading it"() {
+        store.write({ it.writeInt(10) } as BinaryStore.WriteAction)
+        def data = store.done()
+
+        expect:
+        !cache.contains(":conf", Hashing.hashString("key"))
+
+        when:
+        cache.store(":conf", Hashing.hashString("key"), data)
+
+        then:
+        cache.contains(":conf", Hashing.hashString("key"))
+        !cache.contains(":conf", Hashing.hashString("other"))
+        !cache.contains(":other", Hashing.hashString("key"))
+    }
+
+    def "replaces the data stored for a configuration"() {
+        def key1 = Hashing.hashString("key1")
+        def key2 = Hashing.hashString("key2")
+        store.write({ it.writeInt(1) } as BinaryStore.WriteAction)
+        def data1 = store.done()
+        store.write({ it.writeInt(2) } as BinaryStore.WriteAction)
+        def data2 = store.done()
+
+        when:
+        cache.store(":conf", key1, data1)
+        cache.store(":conf", key2, data2)
+
+        then:
+        cache.load(":conf", key1) == null
+        cache.load(":conf", key2).read({ it.readInt() } as BinaryStore.ReadAction) == 2
+    }
+}
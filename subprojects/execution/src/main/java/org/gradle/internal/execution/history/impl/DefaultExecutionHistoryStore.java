@@ -23,46 +23,115 @@
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.HeapProportionalCacheSizer;
 import org.gradle.cache.internal.InMemoryCacheDecoratorFactory;
 import org.gradle.caching.internal.origin.OriginMetadata;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.execution.history.AfterPreviousExecutionState;
 import org.gradle.internal.execution.history.ExecutionHistoryStore;
 import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
 import org.gradle.internal.fingerprint.FileCollectionFingerprint;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
 import org.gradle.internal.snapshot.ValueSnapshot;
 import org.gradle.internal.snapshot.impl.ImplementationSnapshot;
 
+import javax.annotation.Nullable;
 import java.util.Optional;
 import java.util.function.Supplier;
 
 import static com.google.common.collect.ImmutableSortedMap.copyOfSorted;
 import static com.google.common.collect.Maps.transformValues;
 
-public class DefaultExecutionHistoryStore implements ExecutionHistoryStore {
+public class DefaultExecutionHistoryStore implements ExecutionHistoryStore, Stoppable {
+
+    /**
+     * When {@code true}, the execution history is stored in an append-only log instead of a B-tree.
+     */
+    public static final String LOG_STRUCTURED_STORAGE_PROPERTY = "org.gradle.internal.execution-history.log-structured";
+
+    /**
+     * When {@code true}, execution history is written to the cache from a dedicated thread instead of the thread that executed the work.
+     */
+    public static final String WRITE_BEHIND_PROPERTY = "org.gradle.internal.execution-history.write-behind";
+
+    /**
+     * When {@code true}, large output directories are stored separately from the execution history entries,
+     * and are only written again when their contents change.
+     */
+    public static final String SHARED_OUTPUT_DIRECTORIES_PROPERTY = "org.gradle.internal.execution-history.shared-output-directories";
 
     private final PersistentIndexedCache<String, AfterPreviousExecutionState> store;
+    private final WriteBehindPersistentIndexedCache<String, AfterPreviousExecutionState> writeBehindStore;
+    private final SharedOutputDirectoryStore sharedOutputDirectoryStore;
 
     public DefaultExecutionHistoryStore(
         Supplier<PersistentCache> cache,
         InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory,
         Interner<String> stringInterner
     ) {
+        this(cache, inMemoryCacheDecoratorFactory, stringInterner, null);
+    }
+
+    public DefaultExecutionHistoryStore(
+        Supplier<PersistentCache> cache,
+        InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory,
+        Interner<String> stringInterner,
+        @Nullable ExecutorFactory executorFactory
+    ) {
+        FileSystemSnapshotSerializer fileSystemSnapshotSerializer = new FileSystemSnapshotSerializer(stringInterner);
+        boolean shareOutputDirectories = Boolean.getBoolean(SHARED_OUTPUT_DIRECTORIES_PROPERTY);
         DefaultPreviousExecutionStateSerializer serializer = new DefaultPreviousExecutionStateSerializer(
             new FileCollectionFingerprintSerializer(stringInterner),
-            new FileSystemSnapshotSerializer(stringInterner)
+            shareOutputDirectories ? new SharedOutputDirectoryStore.StoredSnapshotSerializer() : fileSystemSnapshotSerializer
         );
 
         CacheDecorator inMemoryCacheDecorator = inMemoryCacheDecoratorFactory.decorator(10000, false);
-        this.store = cache.get().createCache(
-            PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer)
-            .withCacheDecorator(inMemoryCacheDecorator)
-        );
+        // Entries referencing shared output directories have a different format, so they are kept in a separate cache
+        String cacheName = shareOutputDirectories ? "executionHistoryWithSharedOutputs" : "executionHistory";
+        PersistentIndexedCacheParameters<String, AfterPreviousExecutionState> parameters = PersistentIndexedCacheParameters.of(cacheName, String.class, serializer)
+            .withCacheDecorator(inMemoryCacheDecorator);
+        if (Boolean.getBoolean(LOG_STRUCTURED_STORAGE_PROPERTY)) {
+            parameters = parameters.withLogStructuredStorage();
+        }
+        PersistentIndexedCache<String, AfterPreviousExecutionState> persistentStore = cache.get().createCache(parameters);
+        if (shareOutputDirectories) {
+            PersistentIndexedCacheParameters<HashCode, byte[]> sharedOutputsParameters = PersistentIndexedCacheParameters.of("executionHistorySharedOutputs", new HashCodeSerializer(), BaseSerializerFactory.BYTE_ARRAY_SERIALIZER)
+                .withCacheDecorator(inMemoryCacheDecorator);
+            if (Boolean.getBoolean(LOG_STRUCTURED_STORAGE_PROPERTY)) {
+                sharedOutputsParameters = sharedOutputsParameters.withLogStructuredStorage();
+            }
+            this.sharedOutputDirectoryStore = new SharedOutputDirectoryStore(cache.get().createCache(sharedOutputsParameters), fileSystemSnapshotSerializer);
+        } else {
+            this.sharedOutputDirectoryStore = null;
+        }
+        if (executorFactory != null && Boolean.getBoolean(WRITE_BEHIND_PROPERTY)) {
+            // Bound the pending writes by the number of file entries they hold, as these make up most of their size
+            this.writeBehindStore = new WriteBehindPersistentIndexedCache<>(
+                "Execution history writer",
+                persistentStore,
+                DefaultExecutionHistoryStore::countFileEntries,
+                new HeapProportionalCacheSizer().scaleCacheSize(500000),
+                executorFactory
+            );
+            this.store = writeBehindStore;
+        } else {
+            this.writeBehindStore = null;
+            this.store = persistentStore;
+        }
     }
 
     @Override
     public Optional<AfterPreviousExecutionState> load(String key) {
-        return Optional.ofNullable(store.getIfPresent(key));
+        AfterPreviousExecutionState state = store.getIfPresent(key);
+        if (state != null && sharedOutputDirectoryStore != null) {
+            state = sharedOutputDirectoryStore.fromStoredState(state);
+        }
+        return Optional.ofNullable(state);
     }
 
     @Override
@@ -76,7 +145,7 @@ public void store(
         ImmutableSortedMap<String, FileSystemSnapshot> outputFileProperties,
         boolean successful
     ) {
-        store.put(key, new DefaultAfterPreviousExecutionState(
+        AfterPreviousExecutionState state = new DefaultAfterPreviousExecutionState(
             originMetadata,
             implementation,
             additionalImplementations,
@@ -84,12 +153,64 @@ public void store(
             prepareForSerialization(inputFileProperties),
             outputFileProperties,
             successful
-        ));
+        );
+        if (sharedOutputDirectoryStore != null) {
+            AfterPreviousExecutionState previousStoredState = store.getIfPresent(key);
+            AfterPreviousExecutionState storedState = sharedOutputDirectoryStore.toStoredState(key, state, previousStoredState);
+            store.put(key, storedState);
+            sharedOutputDirectoryStore.removeUnusedRecords(previousStoredState, storedState);
+        } else {
+            store.put(key, state);
+        }
     }
 
     @Override
     public void remove(String key) {
-        store.remove(key);
+        if (sharedOutputDirectoryStore != null) {
+            AfterPreviousExecutionState previousStoredState = store.getIfPresent(key);
+            store.remove(key);
+            sharedOutputDirectoryStore.removeUnusedRecords(previousStoredState, null);
+        } else {
+            store.remove(key);
+        }
+    }
+
+    /**
+     * Blocks until all pending execution history has been written to the cache.
+     */
+    public void flush() {
+        if (writeBehindStore != null) {
+            writeBehindStore.flush();
+        }
+    }
+
+    /**
+     * Writes all pending execution history to the cache.
+     */
+    @Override
+    public void stop() {
+        if (writeBehindStore != null) {
+            writeBehindStore.stop();
+        }
+    }
+
+    private static int countFileEntries(AfterPreviousExecutionState state) {
+        int count = 0;
+        for (FileCollectionFingerprint fingerprint : state.getInputFileProperties().values()) {
+            count += fingerprint.getFingerprints().size();
+        }
+        int[] outputCount = new int[1];
+        for (FileSystemSnapshot snapshot : state.getOutputFilesProducedByWork().values()) {
+            if (snapshot instanceof SharedOutputDirectoryStore.StoredSnapshot) {
+                count += ((SharedOutputDirectoryStore.StoredSnapshot) snapshot).getInlineEntryCount();
+                continue;
+            }
+            snapshot.accept(entry -> {
+                outputCount[0]++;
+                return SnapshotVisitResult.CONTINUE;
+            });
+        }
+        return count + outputCount[0];
     }
 
     private static ImmutableSortedMap<String, FileCollectionFingerprint> prepareForSerialization(ImmutableSortedMap<String, CurrentFileCollectionFingerprint> fingerprints) {
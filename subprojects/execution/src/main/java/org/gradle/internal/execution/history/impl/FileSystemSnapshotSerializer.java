@@ -33,6 +33,7 @@
 import org.gradle.internal.snapshot.RootTrackingFileSystemSnapshotHierarchyVisitor;
 import org.gradle.internal.snapshot.SnapshotVisitResult;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -48,7 +49,32 @@ private enum EntryType {
         REGULAR_FILE,
         MISSING,
         DIR_CLOSE,
-        END
+        END,
+        SHARED_DIR
+    }
+
+    /**
+     * Decides which directories are written as a reference to a separately stored record instead of inline.
+     */
+    interface SharedDirectories {
+        SharedDirectories NONE = directory -> null;
+
+        /**
+         * Returns the key of the record the directory is stored in, or {@code null} to write the directory inline.
+         */
+        @Nullable
+        HashCode keyOf(DirectorySnapshot directory);
+    }
+
+    /**
+     * Provides the records of directories that were written as references.
+     */
+    interface SharedDirectoryLoader {
+        SharedDirectoryLoader NONE = key -> {
+            throw new IllegalStateException("Unexpected reference to shared directory " + key);
+        };
+
+        Decoder load(HashCode key) throws Exception;
     }
 
     private final Interner<String> stringInterner;
@@ -59,9 +85,16 @@ public FileSystemSnapshotSerializer(Interner<String> stringInterner) {
 
     @Override
     public FileSystemSnapshot read(Decoder decoder) throws Exception {
+        return read(decoder, SharedDirectoryLoader.NONE);
+    }
+
+    FileSystemSnapshot read(Decoder decoder, SharedDirectoryLoader sharedDirectoryLoader) throws Exception {
+        return CompositeFileSystemSnapshot.of(readEntries(decoder, new ArrayDeque<>(), sharedDirectoryLoader));
+    }
+
+    private List<FileSystemLocationSnapshot> readEntries(Decoder decoder, Deque<String> pathTracker, SharedDirectoryLoader sharedDirectoryLoader) throws Exception {
         SnapshotStack stack = new SnapshotStack();
         stack.push();
-        Deque<String> pathTracker = new ArrayDeque<>();
         while (true) {
             EntryType type = readEntryType(decoder);
             if (type == EntryType.END) {
@@ -86,6 +119,16 @@ public FileSystemSnapshot read(Decoder decoder) throws Exception {
                 internedAbsolutePath = stringInterner.intern(toAbsolutePath(pathTracker, path));
                 internedName = path;
             }
+            if (type == EntryType.SHARED_DIR) {
+                Decoder sharedDirectoryDecoder = sharedDirectoryLoader.load(readHashCode(decoder));
+                FileMetadata.AccessType accessType = readAccessType(sharedDirectoryDecoder);
+                HashCode merkleHash = readHashCode(sharedDirectoryDecoder);
+                pathTracker.addLast(path);
+                List<FileSystemLocationSnapshot> children = readEntries(sharedDirectoryDecoder, pathTracker, sharedDirectoryLoader);
+                pathTracker.removeLast();
+                stack.add(new DirectorySnapshot(internedAbsolutePath, internedName, accessType, merkleHash, children));
+                continue;
+            }
             FileMetadata.AccessType accessType = readAccessType(decoder);
             switch (type) {
                 case REGULAR_FILE:
@@ -106,66 +149,119 @@ public FileSystemSnapshot read(Decoder decoder) throws Exception {
                     throw new AssertionError();
             }
         }
-        return CompositeFileSystemSnapshot.of(stack.pop());
+        return stack.pop();
     }
 
     @Override
     public void write(Encoder encoder, FileSystemSnapshot value) throws Exception {
-        value.accept(new RootTrackingFileSystemSnapshotHierarchyVisitor() {
-            @Override
-            public void enterDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
-                try {
-                    writeEntryType(encoder, EntryType.DIR_OPEN);
-                    writePath(encoder, isRoot, directorySnapshot);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
+        write(encoder, value, SharedDirectories.NONE);
+    }
+
+    void write(Encoder encoder, FileSystemSnapshot value, SharedDirectories sharedDirectories) throws Exception {
+        value.accept(new EntryWriter(encoder, sharedDirectories, false));
+        writeEntryType(encoder, EntryType.END);
+    }
+
+    /**
+     * Writes the record for a directory that is referenced via {@link SharedDirectories}.
+     * The record does not contain the location of the directory, so it can be read at any location.
+     */
+    void writeSharedDirectory(Encoder encoder, DirectorySnapshot directory, SharedDirectories sharedDirectories) throws Exception {
+        writeAccessType(encoder, directory.getAccessType());
+        writeHashCode(encoder, directory.getHash());
+        directory.accept(new EntryWriter(encoder, sharedDirectories, true));
+        writeEntryType(encoder, EntryType.END);
+    }
+
+    private static class EntryWriter extends RootTrackingFileSystemSnapshotHierarchyVisitor {
+        private final Encoder encoder;
+        private final SharedDirectories sharedDirectories;
+        private final boolean omitRoot;
+
+        EntryWriter(Encoder encoder, SharedDirectories sharedDirectories, boolean omitRoot) {
+            this.encoder = encoder;
+            this.sharedDirectories = sharedDirectories;
+            this.omitRoot = omitRoot;
+        }
+
+        @Override
+        public void enterDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
+            if (isRoot && omitRoot) {
+                return;
             }
+            try {
+                writeEntryType(encoder, EntryType.DIR_OPEN);
+                writePath(encoder, isRoot, directorySnapshot);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
 
-            @Override
-            public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot, boolean isRoot) {
-                snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotVisitor() {
-                    @Override
-                    public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
-                        try {
-                            writeEntryType(encoder, EntryType.REGULAR_FILE);
-                            writePath(encoder, isRoot, fileSnapshot);
-                            writeAccessType(encoder, fileSnapshot.getAccessType());
-                            writeHashCode(encoder, fileSnapshot.getHash());
-                            FileMetadata metadata = fileSnapshot.getMetadata();
-                            encoder.writeSmallLong(metadata.getLastModified());
-                            encoder.writeSmallLong(metadata.getLength());
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
+        @Override
+        public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot, boolean isRoot) {
+            return snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotTransformer<SnapshotVisitResult>() {
+                @Override
+                public SnapshotVisitResult visitDirectory(DirectorySnapshot directorySnapshot) {
+                    if (isRoot && omitRoot) {
+                        return SnapshotVisitResult.CONTINUE;
+                    }
+                    HashCode sharedDirectoryKey = sharedDirectories.keyOf(directorySnapshot);
+                    if (sharedDirectoryKey == null) {
+                        return SnapshotVisitResult.CONTINUE;
+                    }
+                    try {
+                        writeEntryType(encoder, EntryType.SHARED_DIR);
+                        writePath(encoder, isRoot, directorySnapshot);
+                        writeHashCode(encoder, sharedDirectoryKey);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
+                    return SnapshotVisitResult.SKIP_SUBTREE;
+                }
 
-                    @Override
-                    public void visitMissing(MissingFileSnapshot missingSnapshot) {
-                        try {
-                            writeEntryType(encoder, EntryType.MISSING);
-                            writePath(encoder, isRoot, missingSnapshot);
-                            writeAccessType(encoder, missingSnapshot.getAccessType());
-                        } catch (IOException e) {
-                            throw new UncheckedIOException(e);
-                        }
+                @Override
+                public SnapshotVisitResult visitRegularFile(RegularFileSnapshot fileSnapshot) {
+                    try {
+                        writeEntryType(encoder, EntryType.REGULAR_FILE);
+                        writePath(encoder, isRoot, fileSnapshot);
+                        writeAccessType(encoder, fileSnapshot.getAccessType());
+                        writeHashCode(encoder, fileSnapshot.getHash());
+                        FileMetadata metadata = fileSnapshot.getMetadata();
+                        encoder.writeSmallLong(metadata.getLastModified());
+                        encoder.writeSmallLong(metadata.getLength());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                });
-                return SnapshotVisitResult.CONTINUE;
-            }
+                    return SnapshotVisitResult.CONTINUE;
+                }
 
-            @Override
-            public void leaveDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
-                try {
-                    writeEntryType(encoder, EntryType.DIR_CLOSE);
-                    writeAccessType(encoder, directorySnapshot.getAccessType());
-                    writeHashCode(encoder, directorySnapshot.getHash());
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
+                @Override
+                public SnapshotVisitResult visitMissing(MissingFileSnapshot missingSnapshot) {
+                    try {
+                        writeEntryType(encoder, EntryType.MISSING);
+                        writePath(encoder, isRoot, missingSnapshot);
+                        writeAccessType(encoder, missingSnapshot.getAccessType());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return SnapshotVisitResult.CONTINUE;
                 }
+            });
+        }
+
+        @Override
+        public void leaveDirectory(DirectorySnapshot directorySnapshot, boolean isRoot) {
+            if (isRoot && omitRoot) {
+                return;
             }
-        });
-        encoder.writeByte((byte) EntryType.END.ordinal());
+            try {
+                writeEntryType(encoder, EntryType.DIR_CLOSE);
+                writeAccessType(encoder, directorySnapshot.getAccessType());
+                writeHashCode(encoder, directorySnapshot.getHash());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
     }
 
     private static void writePath(Encoder encoder, boolean isRoot, FileSystemLocationSnapshot snapshot) throws IOException {
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Sets;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.execution.history.AfterPreviousExecutionState;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hasher;
+import org.gradle.internal.hash.Hashing;
+import org.gradle.internal.serialize.Decoder;
+import org.gradle.internal.serialize.Encoder;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshot;
+import org.gradle.internal.snapshot.FileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.gradle.internal.snapshot.RelativePathTracker;
+import org.gradle.internal.snapshot.RelativePathTrackingFileSystemSnapshotHierarchyVisitor;
+import org.gradle.internal.snapshot.SnapshotVisitResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.ImmutableSortedMap.copyOfSorted;
+import static com.google.common.collect.Maps.transformValues;
+
+/**
+ * Stores large directories of output snapshots separately from the execution history entries that reference them,
+ * so that directories that did not change are neither serialized nor written again when an entry is replaced.
+ *
+ * Every directory with at least {@value #MIN_SHARED_DIRECTORY_ENTRIES} entries below it is stored as a separate record,
+ * keyed by the key of the history entry and a hash of the directory's contents, including file metadata.
+ * Records reference the records of nested directories in turn, so a changed file only causes the records
+ * of the directories above it to be written again.
+ *
+ * Records belong to a single history entry, and are removed when that entry no longer references them.
+ */
+class SharedOutputDirectoryStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedOutputDirectoryStore.class);
+    private static final int MIN_SHARED_DIRECTORY_ENTRIES = 256;
+
+    private final PersistentIndexedCache<HashCode, byte[]> records;
+    private final FileSystemSnapshotSerializer serializer;
+
+    SharedOutputDirectoryStore(PersistentIndexedCache<HashCode, byte[]> records, FileSystemSnapshotSerializer serializer) {
+        this.records = records;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Replaces the output snapshots of the given state with their stored form, writing the records of shared directories
+     * that the previously stored version of the entry did not reference.
+     */
+    AfterPreviousExecutionState toStoredState(String key, AfterPreviousExecutionState state, @Nullable AfterPreviousExecutionState previousStoredState) {
+        Set<HashCode> previousRecords = recordsOf(previousStoredState);
+        Set<HashCode> writtenRecords = new HashSet<>();
+        return withOutputs(state, copyOfSorted(transformValues(state.getOutputFilesProducedByWork(), snapshot -> {
+            //noinspection ConstantConditions
+            return store(key, snapshot, previousRecords, writtenRecords);
+        })));
+    }
+
+    /**
+     * Restores the output snapshots of a stored state, or returns {@code null} when a record it references is missing.
+     */
+    @Nullable
+    AfterPreviousExecutionState fromStoredState(AfterPreviousExecutionState storedState) {
+        try {
+            return withOutputs(storedState, copyOfSorted(transformValues(storedState.getOutputFilesProducedByWork(), snapshot -> {
+                //noinspection ConstantConditions
+                return load((StoredSnapshot) snapshot);
+            })));
+        } catch (MissingRecordException e) {
+            LOGGER.debug("Ignoring execution history with missing shared output directory {}", e.getKey());
+            return null;
+        }
+    }
+
+    /**
+     * Removes the records referenced by the previously stored version of an entry that the current version does not reference.
+     */
+    void removeUnusedRecords(@Nullable AfterPreviousExecutionState previousStoredState, @Nullable AfterPreviousExecutionState storedState) {
+        for (HashCode record : Sets.difference(recordsOf(previousStoredState), recordsOf(storedState))) {
+            records.remove(record);
+        }
+    }
+
+    private StoredSnapshot store(String key, FileSystemSnapshot snapshot, Set<HashCode> previousRecords, Set<HashCode> writtenRecords) {
+        SharedDirectoryFinder finder = new SharedDirectoryFinder(key);
+        snapshot.accept(finder);
+        Map<DirectorySnapshot, HashCode> sharedDirectories = finder.sharedDirectories;
+        FileSystemSnapshotSerializer.SharedDirectories sharedDirectoryKeys = sharedDirectories::get;
+        for (Map.Entry<DirectorySnapshot, HashCode> entry : sharedDirectories.entrySet()) {
+            HashCode record = entry.getValue();
+            if (!previousRecords.contains(record) && writtenRecords.add(record)) {
+                records.put(record, serialize(encoder -> serializer.writeSharedDirectory(encoder, entry.getKey(), sharedDirectoryKeys)));
+            }
+        }
+        byte[] bytes = serialize(encoder -> serializer.write(encoder, snapshot, sharedDirectoryKeys));
+        return new StoredSnapshot(bytes, ImmutableSet.copyOf(sharedDirectories.values()), finder.inlineEntryCount, snapshot);
+    }
+
+    private FileSystemSnapshot load(StoredSnapshot snapshot) {
+        FileSystemSnapshot decoded = snapshot.decoded;
+        if (decoded != null) {
+            return decoded;
+        }
+        try {
+            decoded = serializer.read(decoderFor(snapshot.bytes), key -> {
+                byte[] record = records.getIfPresent(key);
+                if (record == null) {
+                    throw new MissingRecordException(key);
+                }
+                return decoderFor(record);
+            });
+            snapshot.decoded = decoded;
+            return decoded;
+        } catch (MissingRecordException e) {
+            throw e;
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
+
+    private static Set<HashCode> recordsOf(@Nullable AfterPreviousExecutionState storedState) {
+        if (storedState == null) {
+            return ImmutableSet.of();
+        }
+        Set<HashCode> records = new HashSet<>();
+        for (FileSystemSnapshot snapshot : storedState.getOutputFilesProducedByWork().values()) {
+            records.addAll(((StoredSnapshot) snapshot).records);
+        }
+        return records;
+    }
+
+    private static AfterPreviousExecutionState withOutputs(AfterPreviousExecutionState state, ImmutableSortedMap<String, FileSystemSnapshot> outputFilesProducedByWork) {
+        return new DefaultAfterPreviousExecutionState(
+            state.getOriginMetadata(),
+            state.getImplementation(),
+            state.getAdditionalImplementations(),
+            state.getInputProperties(),
+            state.getInputFileProperties(),
+            outputFilesProducedByWork,
+            state.isSuccessful()
+        );
+    }
+
+    private static byte[] serialize(EncoderAction action) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (KryoBackedEncoder encoder = new KryoBackedEncoder(outputStream)) {
+            action.write(encoder);
+        } catch (Exception e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static Decoder decoderFor(byte[] bytes) {
+        return new KryoBackedDecoder(new ByteArrayInputStream(bytes));
+    }
+
+    private interface EncoderAction {
+        void write(Encoder encoder) throws Exception;
+    }
+
+    /**
+     * Computes the keys of the directories to store separately, bottom-up.
+     */
+    private static class SharedDirectoryFinder implements FileSystemSnapshotHierarchyVisitor {
+        private final String key;
+        private final Map<DirectorySnapshot, HashCode> sharedDirectories = new IdentityHashMap<>();
+        private final Deque<DirectoryState> directories = new ArrayDeque<>();
+        private int inlineEntryCount;
+
+        SharedDirectoryFinder(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void enterDirectory(DirectorySnapshot directorySnapshot) {
+            directories.addLast(new DirectoryState());
+        }
+
+        @Override
+        public SnapshotVisitResult visitEntry(FileSystemLocationSnapshot snapshot) {
+            DirectoryState parent = directories.peekLast();
+            if (parent == null) {
+                inlineEntryCount++;
+                return SnapshotVisitResult.CONTINUE;
+            }
+            parent.entryCount++;
+            parent.inlineEntryCount++;
+            snapshot.accept(new FileSystemLocationSnapshot.FileSystemLocationSnapshotVisitor() {
+                @Override
+                public void visitRegularFile(RegularFileSnapshot fileSnapshot) {
+                    Hasher hasher = parent.hasher;
+                    hasher.putString(fileSnapshot.getName());
+                    hasher.putInt(fileSnapshot.getType().ordinal());
+                    hasher.putInt(fileSnapshot.getAccessType().ordinal());
+                    hasher.putHash(fileSnapshot.getHash());
+                    hasher.putLong(fileSnapshot.getMetadata().getLastModified());
+                    hasher.putLong(fileSnapshot.getMetadata().getLength());
+                }
+
+                @Override
+                public void visitMissing(MissingFileSnapshot missingSnapshot) {
+                    Hasher hasher = parent.hasher;
+                    hasher.putString(missingSnapshot.getName());
+                    hasher.putInt(missingSnapshot.getType().ordinal());
+                    hasher.putInt(missingSnapshot.getAccessType().ordinal());
+                }
+            });
+            return SnapshotVisitResult.CONTINUE;
+        }
+
+        @Override
+        public void leaveDirectory(DirectorySnapshot directorySnapshot) {
+            DirectoryState directory = directories.removeLast();
+            Hasher hasher = directory.hasher;
+            hasher.putInt(directorySnapshot.getAccessType().ordinal());
+            hasher.putHash(directorySnapshot.getHash());
+            HashCode contentHash = hasher.hash();
+
+            boolean shared = directory.entryCount >= MIN_SHARED_DIRECTORY_ENTRIES;
+            if (shared) {
+                Hasher recordHasher = Hashing.newHasher();
+                recordHasher.putString(key);
+                recordHasher.putHash(contentHash);
+                sharedDirectories.put(directorySnapshot, recordHasher.hash());
+            }
+            int inlineEntries = shared ? 0 : directory.inlineEntryCount;
+            DirectoryState parent = directories.peekLast();
+            if (parent == null) {
+                inlineEntryCount += inlineEntries;
+            } else {
+                parent.hasher.putString(directorySnapshot.getName());
+                parent.hasher.putInt(directorySnapshot.getType().ordinal());
+                parent.hasher.putHash(contentHash);
+                parent.entryCount += directory.entryCount;
+                parent.inlineEntryCount += inlineEntries;
+            }
+        }
+
+        private static class DirectoryState {
+            private final Hasher hasher = Hashing.newHasher();
+            private int entryCount;
+            private int inlineEntryCount;
+        }
+    }
+
+    /**
+     * The stored form of an output snapshot, which references the records of its shared directories.
+     *
+     * The stored form is what the in-memory cache of the execution history holds, so it also keeps the decoded snapshot.
+     * Only the first load of an entry that is not in memory decodes the snapshot and reads the records.
+     */
+    static class StoredSnapshot implements FileSystemSnapshot {
+        private final byte[] bytes;
+        private final ImmutableSet<HashCode> records;
+        private final int inlineEntryCount;
+        private volatile FileSystemSnapshot decoded;
+
+        StoredSnapshot(byte[] bytes, ImmutableSet<HashCode> records, int inlineEntryCount, @Nullable FileSystemSnapshot decoded) {
+            this.bytes = bytes;
+            this.records = records;
+            this.inlineEntryCount = inlineEntryCount;
+            this.decoded = decoded;
+        }
+
+        /**
+         * The number of entries stored in this snapshot itself rather than in the records it references.
+         */
+        int getInlineEntryCount() {
+            return inlineEntryCount;
+        }
+
+        @Override
+        public SnapshotVisitResult accept(FileSystemSnapshotHierarchyVisitor visitor) {
+            throw new UnsupportedOperationException("Stored output snapshots must be loaded before visiting them.");
+        }
+
+        @Override
+        public SnapshotVisitResult accept(RelativePathTracker pathTracker, RelativePathTrackingFileSystemSnapshotHierarchyVisitor visitor) {
+            throw new UnsupportedOperationException("Stored output snapshots must be loaded before visiting them.");
+        }
+    }
+
+    static class StoredSnapshotSerializer implements Serializer<FileSystemSnapshot> {
+        @Override
+        public FileSystemSnapshot read(Decoder decoder) throws Exception {
+            byte[] bytes = decoder.readBinary();
+            int recordCount = decoder.readSmallInt();
+            ImmutableSet.Builder<HashCode> records = ImmutableSet.builderWithExpectedSize(recordCount);
+            for (int i = 0; i < recordCount; i++) {
+                records.add(HashCode.fromBytes(decoder.readBinary()));
+            }
+            return new StoredSnapshot(bytes, records.build(), 0, null);
+        }
+
+        @Override
+        public void write(Encoder encoder, FileSystemSnapshot value) throws Exception {
+            StoredSnapshot snapshot = (StoredSnapshot) value;
+            encoder.writeBinary(snapshot.bytes);
+            encoder.writeSmallInt(snapshot.records.size());
+            for (HashCode record : snapshot.records) {
+                encoder.writeBinary(record.toByteArray());
+            }
+        }
+    }
+
+    private static class MissingRecordException extends RuntimeException {
+        private final HashCode key;
+
+        MissingRecordException(HashCode key) {
+            super("Missing shared output directory " + key);
+            this.key = key;
+        }
+
+        HashCode getKey() {
+            return key;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl;
+
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * A {@link PersistentIndexedCache} that writes entries to a backing cache from a dedicated thread.
+ *
+ * While a write is pending, later writes for the same key replace it, and reads return its value.
+ * The total weight of the pending writes is bounded: writers block while the bound is reached.
+ * All pending writes are written to the backing cache when this cache is flushed or stopped.
+ */
+class WriteBehindPersistentIndexedCache<K, V> implements PersistentIndexedCache<K, V>, Stoppable {
+    private final PersistentIndexedCache<K, V> delegate;
+    private final ToIntFunction<? super V> weigher;
+    private final long maxPendingWeight;
+    private final ManagedExecutor executor;
+    private final Lock lock = new ReentrantLock();
+    private final Condition pendingChanged = lock.newCondition();
+    private final Map<K, PendingWrite<V>> pending = new LinkedHashMap<>();
+    private long pendingWeight;
+    private boolean stopped;
+    private RuntimeException failure;
+
+    WriteBehindPersistentIndexedCache(String displayName, PersistentIndexedCache<K, V> delegate, ToIntFunction<? super V> weigher, long maxPendingWeight, ExecutorFactory executorFactory) {
+        this.delegate = delegate;
+        this.weigher = weigher;
+        this.maxPendingWeight = maxPendingWeight;
+        this.executor = executorFactory.create(displayName);
+        executor.execute(this::writePendingEntries);
+    }
+
+    @Nullable
+    @Override
+    public V getIfPresent(K key) {
+        PendingWrite<V> write;
+        lock.lock();
+        try {
+            write = pending.get(key);
+        } finally {
+            lock.unlock();
+        }
+        if (write != null) {
+            return write.value;
+        }
+        return delegate.getIfPresent(key);
+    }
+
+    @Override
+    public V get(K key, Function<? super K, ? extends V> producer) {
+        V value = getIfPresent(key);
+        if (value == null) {
+            value = producer.apply(key);
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        enqueue(key, new PendingWrite<>(value, 1 + weigher.applyAsInt(value)));
+    }
+
+    @Override
+    public void remove(K key) {
+        enqueue(key, new PendingWrite<>(null, 1));
+    }
+
+    private void enqueue(K key, PendingWrite<V> write) {
+        lock.lock();
+        try {
+            while (pendingWeight >= maxPendingWeight && !stopped) {
+                pendingChanged.await();
+            }
+            if (stopped) {
+                throw new IllegalStateException("Cannot write to " + delegate + " after it has been stopped.");
+            }
+            PendingWrite<V> replaced = pending.put(key, write);
+            if (replaced != null) {
+                pendingWeight -= replaced.weight;
+            }
+            pendingWeight += write.weight;
+            pendingChanged.signalAll();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writePendingEntries() {
+        while (true) {
+            K key;
+            PendingWrite<V> write;
+            lock.lock();
+            try {
+                while (pending.isEmpty()) {
+                    if (stopped) {
+                        return;
+                    }
+                    pendingChanged.awaitUninterruptibly();
+                }
+                // The entry stays visible to readers until it has been written
+                Map.Entry<K, PendingWrite<V>> next = pending.entrySet().iterator().next();
+                key = next.getKey();
+                write = next.getValue();
+            } finally {
+                lock.unlock();
+            }
+
+            RuntimeException writeFailure = null;
+            try {
+                if (write.value == null) {
+                    delegate.remove(key);
+                } else {
+                    delegate.put(key, write.value);
+                }
+            } catch (RuntimeException e) {
+                writeFailure = e;
+            }
+
+            lock.lock();
+            try {
+                if (writeFailure != null && failure == null) {
+                    failure = writeFailure;
+                }
+                if (pending.remove(key, write)) {
+                    pendingWeight -= write.weight;
+                }
+                pendingChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all pending writes have been written to the backing cache.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            while (!pending.isEmpty()) {
+                pendingChanged.await();
+            }
+            rethrowFailure();
+        } catch (InterruptedException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            pendingChanged.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        executor.stop();
+        lock.lock();
+        try {
+            rethrowFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void rethrowFailure() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            this.failure = null;
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    private static class PendingWrite<V> {
+        @Nullable
+        private final V value;
+        private final int weight;
+
+        PendingWrite(@Nullable V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
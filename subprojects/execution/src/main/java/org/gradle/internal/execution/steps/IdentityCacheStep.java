@@ -19,14 +19,28 @@
 import org.gradle.cache.Cache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Try;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.execution.DeferredExecutionHandler;
 import org.gradle.internal.execution.ExecutionResult;
 import org.gradle.internal.execution.UnitOfWork;
 import org.gradle.internal.execution.UnitOfWork.Identity;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reuses the output of work with the same identity.
+ *
+ * Deferred executions of work with the same identity that run concurrently are de-duplicated: only one of them executes the work,
+ * the others wait for its output. No lock is held on the cache while the work executes, so that work with different identities
+ * can execute in parallel.
+ */
 public class IdentityCacheStep<C extends IdentityContext, R extends Result> implements DeferredExecutionAwareStep<C, R> {
 
     private final Step<? super IdentityContext, ? extends R> delegate;
+    private final ConcurrentMap<Identity, CompletableFuture<Try<?>>> inFlightExecutions = new ConcurrentHashMap<>();
 
     public IdentityCacheStep(Step<? super IdentityContext, ? extends R> delegate) {
         this.delegate = delegate;
@@ -44,11 +58,37 @@ public <T, O> T executeDeferred(UnitOfWork work, C context, Cache<Identity, Try<
         if (cachedOutput != null) {
             return handler.processCachedOutput(cachedOutput);
         } else {
-            return handler.processDeferredOutput(() -> cache.get(
-                identity,
-                () -> execute(work, context).getExecutionResult()
+            return handler.processDeferredOutput(() -> executeOrAwaitInFlightExecution(work, context, cache));
+        }
+    }
+
+    private <O> Try<O> executeOrAwaitInFlightExecution(UnitOfWork work, C context, Cache<Identity, Try<O>> cache) {
+        Identity identity = context.getIdentity();
+        CompletableFuture<Try<?>> execution = new CompletableFuture<>();
+        CompletableFuture<Try<?>> inFlightExecution = inFlightExecutions.putIfAbsent(identity, execution);
+        if (inFlightExecution != null) {
+            try {
+                return Cast.uncheckedNonnullCast(inFlightExecution.join());
+            } catch (CompletionException e) {
+                throw UncheckedException.throwAsUncheckedException(e.getCause());
+            }
+        }
+        try {
+            // Another execution may have completed since the cache was checked
+            Try<O> output = cache.getIfPresent(identity);
+            if (output == null) {
+                output = execute(work, context).getExecutionResult()
                     .map(ExecutionResult::getOutput)
-                    .map(Cast::<O>uncheckedNonnullCast)));
+                    .map(Cast::<O>uncheckedNonnullCast);
+                cache.put(identity, output);
+            }
+            execution.complete(output);
+            return output;
+        } catch (Throwable t) {
+            execution.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlightExecutions.remove(identity, execution);
         }
     }
 }
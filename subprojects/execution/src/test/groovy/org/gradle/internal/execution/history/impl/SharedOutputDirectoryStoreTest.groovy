@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl
+
+import com.google.common.collect.ImmutableList
+import com.google.common.collect.ImmutableSortedMap
+import org.gradle.api.internal.cache.StringInterner
+import org.gradle.caching.internal.origin.OriginMetadata
+import org.gradle.internal.execution.history.AfterPreviousExecutionState
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.FileSystemSnapshot
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.internal.snapshot.impl.ImplementationSnapshot
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.internal.serialize.SerializerSpec
+import org.gradle.testfixtures.internal.TestInMemoryPersistentIndexedCache
+
+import static org.gradle.internal.file.FileMetadata.AccessType.DIRECT
+import static org.gradle.internal.file.impl.DefaultFileMetadata.file
+import static org.gradle.internal.snapshot.SnapshotUtil.index
+
+class SharedOutputDirectoryStoreTest extends SerializerSpec {
+    def stringInterner = new StringInterner()
+    def records = Spy(new TestInMemoryPersistentIndexedCache<HashCode, byte[]>(BaseSerializerFactory.BYTE_ARRAY_SERIALIZER))
+    def store = new SharedOutputDirectoryStore(records, new FileSystemSnapshotSerializer(stringInterner))
+    def stateSerializer = new DefaultPreviousExecutionStateSerializer(
+        new FileCollectionFingerprintSerializer(stringInterner),
+        new SharedOutputDirectoryStore.StoredSnapshotSerializer()
+    )
+
+    def "restores stored output snapshots"() {
+        def outputs = ImmutableSortedMap.<String, FileSystemSnapshot>of(
+            "dir", tree("/out", 0),
+            "file", new RegularFileSnapshot("/file.txt", "file.txt", HashCode.fromInt(1), file(1, 1, DIRECT)),
+            "empty", FileSystemSnapshot.EMPTY
+        )
+
+        when:
+        def storedState = serialize(store.toStoredState("key", state(outputs), null), stateSerializer)
+        def loadedState = store.fromStoredState(storedState)
+
+        then:
+        outputs.keySet().each { property ->
+            assert index(loadedState.outputFilesProducedByWork[property]) == index(outputs[property])
+        }
+        loadedState.outputFilesProducedByWork["dir"] == outputs["dir"]
+        loadedState.originMetadata.buildInvocationId == "build"
+    }
+
+    def "only writes directories that changed since the previously stored entry"() {
+        def previousStoredState = store.toStoredState("key", state(ImmutableSortedMap.of("dir", tree("/out", 0))), null)
+        def outputs = ImmutableSortedMap.<String, FileSystemSnapshot>of("dir", tree("/out", 1))
+
+        when:
+        def storedState = store.toStoredState("key", state(outputs), previousStoredState)
+        store.removeUnusedRecords(previousStoredState, storedState)
+
+        then:
+        // The root and the changed subdirectory
+        2 * records.put(_, _)
+        2 * records.remove(_)
+        index(store.fromStoredState(storedState).outputFilesProducedByWork["dir"]) == index(outputs["dir"])
+    }
+
+    def "removes all records of a removed entry"() {
+        def storedState = store.toStoredState("key", state(ImmutableSortedMap.of("dir", tree("/out", 0))), null)
+
+        when:
+        store.removeUnusedRecords(storedState, null)
+
+        then:
+        store.fromStoredState(serialize(storedState, stateSerializer)) == null
+    }
+
+    def "keeps the decoded output snapshots with the stored state"() {
+        def outputs = ImmutableSortedMap.<String, FileSystemSnapshot>of("dir", tree("/out", 0))
+        def storedState = store.toStoredState("key", state(outputs), null)
+
+        when:
+        def loadedState = store.fromStoredState(storedState)
+
+        then:
+        loadedState.outputFilesProducedByWork["dir"].is(outputs["dir"])
+        0 * records.getIfPresent(_)
+    }
+
+    def "decodes a deserialized stored state only once"() {
+        def outputs = ImmutableSortedMap.<String, FileSystemSnapshot>of("dir", tree("/out", 0))
+        def storedState = serialize(store.toStoredState("key", state(outputs), null), stateSerializer)
+
+        when:
+        def loadedSnapshot = store.fromStoredState(storedState).outputFilesProducedByWork["dir"]
+
+        then:
+        // The root and its two subdirectories
+        3 * records.getIfPresent(_)
+        index(loadedSnapshot) == index(outputs["dir"])
+
+        when:
+        def reloadedSnapshot = store.fromStoredState(storedState).outputFilesProducedByWork["dir"]
+
+        then:
+        0 * records.getIfPresent(_)
+        reloadedSnapshot.is(loadedSnapshot)
+    }
+
+    private static AfterPreviousExecutionState state(ImmutableSortedMap<String, FileSystemSnapshot> outputs) {
+        return new DefaultAfterPreviousExecutionState(
+            new OriginMetadata("build", 1),
+            ImplementationSnapshot.of("Work", HashCode.fromInt(1)),
+            ImmutableList.of(),
+            ImmutableSortedMap.of(),
+            ImmutableSortedMap.of(),
+            outputs,
+            true
+        )
+    }
+
+    /**
+     * A directory with two subdirectories of 300 files each, where the contents of the first file of the first subdirectory depends on the given version.
+     */
+    private static DirectorySnapshot tree(String path, int version) {
+        def subDirectories = (0..1).collect { dirIndex ->
+            def dirPath = path + File.separator + "dir" + dirIndex
+            def files = (0..299).collect { fileIndex ->
+                def filePath = dirPath + File.separator + "file" + fileIndex
+                def contentHash = (dirIndex == 0 && fileIndex == 0) ? version : fileIndex
+                new RegularFileSnapshot(filePath, "file" + fileIndex, HashCode.fromInt(contentHash), file(1, 1, DIRECT)) as FileSystemLocationSnapshot
+            }
+            new DirectorySnapshot(dirPath, "dir" + dirIndex, DIRECT, HashCode.fromInt(dirIndex == 0 ? version : 100), files.sort { it.name }) as FileSystemLocationSnapshot
+        }
+        return new DirectorySnapshot(path, path.substring(1), DIRECT, HashCode.fromInt(version), subDirectories)
+    }
+}
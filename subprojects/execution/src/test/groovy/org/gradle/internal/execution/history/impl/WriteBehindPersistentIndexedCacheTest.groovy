@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.execution.history.impl
+
+import org.gradle.cache.PersistentIndexedCache
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.testfixtures.internal.TestInMemoryPersistentIndexedCache
+import spock.lang.Specification
+
+import java.util.concurrent.CountDownLatch
+
+class WriteBehindPersistentIndexedCacheTest extends Specification {
+    def executorFactory = new DefaultExecutorFactory()
+    def backingCache = new TestInMemoryPersistentIndexedCache<String, String>(BaseSerializerFactory.STRING_SERIALIZER)
+
+    def cleanup() {
+        executorFactory.stop()
+    }
+
+    def "writes entries to backing cache when stopped"() {
+        def cache = writeBehindCache(backingCache, 100)
+        backingCache.put("removed", "value")
+
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.remove("removed")
+        cache.stop()
+
+        then:
+        backingCache.getIfPresent("a") == "1"
+        backingCache.getIfPresent("b") == "2"
+        backingCache.getIfPresent("removed") == null
+    }
+
+    def "reads see pending writes and later writes for the same key replace pending ones"() {
+        def writing = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        def writes = []
+        def delegate = Mock(PersistentIndexedCache) {
+            _ * put(_, _) >> { String key, String value ->
+                writing.countDown()
+                release.await()
+                synchronized (writes) {
+                    writes << "$key=$value"
+                }
+            }
+            _ * remove(_) >> { String key ->
+                synchronized (writes) {
+                    writes << "-$key"
+                }
+            }
+        }
+        def cache = writeBehindCache(delegate, 100)
+
+        when:
+        cache.put("first", "1")
+        writing.await()
+        cache.put("a", "1")
+        cache.put("a", "2")
+        cache.put("b", "1")
+        cache.remove("b")
+
+        then:
+        cache.getIfPresent("first") == "1"
+        cache.getIfPresent("a") == "2"
+        cache.getIfPresent("b") == null
+
+        when:
+        release.countDown()
+        cache.flush()
+
+        then:
+        writes == ["first=1", "a=2", "-b"]
+
+        cleanup:
+        cache.stop()
+    }
+
+    def "blocks writers while pending writes exceed the bound"() {
+        def release = new CountDownLatch(1)
+        def delegate = Mock(PersistentIndexedCache) {
+            _ * put(_, _) >> { release.await() }
+        }
+        def cache = writeBehindCache(delegate, 10)
+        def writer = new Thread({
+            10.times { cache.put("key$it", "value") }
+        })
+
+        when:
+        writer.start()
+        writer.join(200)
+
+        then:
+        writer.alive
+
+        when:
+        release.countDown()
+        writer.join()
+        cache.stop()
+
+        then:
+        !writer.alive
+    }
+
+    def "rethrows write failures when stopped"() {
+        def failure = new RuntimeException("broken")
+        def delegate = Mock(PersistentIndexedCache) {
+            _ * put(_, _) >> { throw failure }
+        }
+        def cache = writeBehindCache(delegate, 100)
+
+        when:
+        cache.put("a", "1")
+        cache.stop()
+
+        then:
+        def e = thrown(RuntimeException)
+        e.is(failure)
+    }
+
+    def "cannot write after being stopped"() {
+        def cache = writeBehindCache(backingCache, 100)
+        cache.stop()
+
+        when:
+        cache.put("a", "1")
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    private WriteBehindPersistentIndexedCache<String, String> writeBehindCache(PersistentIndexedCache<String, String> delegate, long maxPendingWeight) {
+        return new WriteBehindPersistentIndexedCache<String, String>("test writer", delegate, { String value -> value.length() }, maxPendingWeight, executorFactory)
+    }
+}
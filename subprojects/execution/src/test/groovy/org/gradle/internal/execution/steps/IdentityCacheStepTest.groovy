@@ -22,7 +22,12 @@ import org.gradle.internal.Try
 import org.gradle.internal.execution.DeferredExecutionHandler
 import org.gradle.internal.execution.ExecutionResult
 import org.gradle.internal.execution.UnitOfWork
+import spock.util.concurrent.PollingConditions
 
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicReference
 import java.util.function.Supplier
 
 class IdentityCacheStepTest extends StepSpec<IdentityContext> {
@@ -74,4 +79,51 @@ class IdentityCacheStepTest extends StepSpec<IdentityContext> {
         1 * processor.processCachedOutput(cachedOutput) >> processed
         0 * _
     }
+
+    def "executes work only once when deferred executions with the same identity run concurrently"() {
+        def delegateOutput = Mock(Object)
+        def delegateResult = Stub(CachingResult) {
+            getExecutionResult() >> Try.successful(Stub(ExecutionResult) {
+                getOutput() >> delegateOutput
+            })
+        }
+        def executing = new CountDownLatch(1)
+        def secondThread = new AtomicReference<Thread>()
+        def executor = Executors.newFixedThreadPool(2)
+        List<Supplier<Try<Object>>> deferredExecutions = []
+
+        when:
+        2.times {
+            step.executeDeferred(work, context, cache, processor)
+        }
+        def first = executor.submit({ deferredExecutions[0].get() } as Callable)
+        executing.await()
+        def second = executor.submit({
+            secondThread.set(Thread.currentThread())
+            deferredExecutions[1].get()
+        } as Callable)
+
+        then:
+        first.get().get() == delegateOutput
+        second.get().get() == delegateOutput
+        cache.getIfPresent(identity).get() == delegateOutput
+
+        and:
+        2 * processor.processDeferredOutput(_) >> { Supplier<Try<Object>> deferredExecution ->
+            deferredExecutions << deferredExecution
+            return null
+        }
+        1 * delegate.execute(work, context) >> {
+            executing.countDown()
+            // Only finish once the second execution waits for this one, so that it can't find the output in the cache instead
+            new PollingConditions(timeout: 10).eventually {
+                assert secondThread.get()?.state == Thread.State.WAITING
+            }
+            delegateResult
+        }
+        0 * _
+
+        cleanup:
+        executor.shutdown()
+    }
 }
@@ -11,6 +11,9 @@ dependencies {
     implementation(project(":base-annotations"))
     implementation(libs.guava)
     implementation(libs.slf4jApi)
+    implementation(libs.commonsCompress) {
+        because("The LZ4 frame streams use its XXHash32 checksum")
+    }
 
     testImplementation(project(":native"))
     testImplementation(project(":base-services")) {
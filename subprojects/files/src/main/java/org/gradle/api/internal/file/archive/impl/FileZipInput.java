@@ -75,6 +75,16 @@ private FileZipInput(File file) {
         this.entries = this.file.entries();
     }
 
+    /**
+     * The number of entries in the zip file, as recorded in its central directory.
+     */
+    public int size() {
+        return file.size();
+    }
+
+    /**
+     * Returns the entries of the zip file. Unlike the entries of a stream, their content can be read in any order, and from multiple threads.
+     */
     @Override
     public Iterator<ZipEntry> iterator() {
         return new AbstractIterator<ZipEntry>() {
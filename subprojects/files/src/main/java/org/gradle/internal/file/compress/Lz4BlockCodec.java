@@ -0,0 +1,199 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compresses and decompresses independent LZ4 blocks.
+ *
+ * The compressor is a single pass, greedy matcher over a hash table of recently seen 4-byte sequences,
+ * the same approach as the "fast" mode of the reference LZ4 implementation.
+ */
+public final class Lz4BlockCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int RUN_MASK = 0x0F;
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6;
+
+    private final int[] hashTable = new int[1 << HASH_LOG];
+
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[0..length)} into {@code dst}, which must hold at least {@link #maxCompressedLength(int)} bytes.
+     *
+     * @return the number of bytes written to {@code dst}
+     */
+    public int compress(byte[] src, int length, byte[] dst) {
+        int anchor = 0;
+        int op = 0;
+        if (length > MATCH_FIND_LIMIT) {
+            Arrays.fill(hashTable, -1);
+            int matchLimit = length - LAST_LITERALS;
+            int searchLimit = length - MATCH_FIND_LIMIT;
+            int ip = 0;
+            while (ip < searchLimit) {
+                int sequence = readInt(src, ip);
+                int hash = hash(sequence);
+                int ref = hashTable[hash];
+                hashTable[hash] = ip;
+                if (ref < 0 || ip - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_TRIGGER);
+                    continue;
+                }
+                while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH + commonLength(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+                if (ip < searchLimit) {
+                    hashTable[hash(readInt(src, ip - 2))] = ip - 2;
+                }
+            }
+        }
+        return writeLastLiterals(src, anchor, length - anchor, dst, op);
+    }
+
+    /**
+     * Decompresses {@code src[0..length)} into {@code dst}.
+     *
+     * @return the number of bytes written to {@code dst}
+     */
+    public static int decompress(byte[] src, int length, byte[] dst) throws IOException {
+        try {
+            int ip = 0;
+            int op = 0;
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literalLength += b;
+                    } while (b == 0xFF);
+                }
+                if (ip + literalLength > length || op + literalLength > dst.length) {
+                    throw malformed();
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == length) {
+                    return op;
+                }
+
+                int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+                ip += 2;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 0xFF);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > op || op + matchLength > dst.length) {
+                    throw malformed();
+                }
+                int ref = op - offset;
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                } else {
+                    // Overlapping match repeating the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op + i] = dst[ref + i];
+                    }
+                }
+                op += matchLength;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw malformed();
+        }
+    }
+
+    private static IOException malformed() {
+        return new IOException("Malformed LZ4 block.");
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int offset, int matchLength, byte[] dst, int op) {
+        int tokenPosition = op++;
+        int extraMatchLength = matchLength - MIN_MATCH;
+        int token = (Math.min(literalLength, RUN_MASK) << 4) | Math.min(extraMatchLength, RUN_MASK);
+        dst[tokenPosition] = (byte) token;
+        if (literalLength >= RUN_MASK) {
+            op = writeLength(literalLength - RUN_MASK, dst, op);
+        }
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        if (extraMatchLength >= RUN_MASK) {
+            op = writeLength(extraMatchLength - RUN_MASK, dst, op);
+        }
+        return op;
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalStart, int literalLength, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        if (literalLength >= RUN_MASK) {
+            op = writeLength(literalLength - RUN_MASK, dst, op);
+        }
+        System.arraycopy(src, literalStart, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    private static int writeLength(int length, byte[] dst, int op) {
+        while (length >= 0xFF) {
+            dst[op++] = (byte) 0xFF;
+            length -= 0xFF;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static int commonLength(byte[] src, int ip, int ref, int limit) {
+        int start = ip;
+        while (ip < limit && src[ip] == src[ref]) {
+            ip++;
+            ref++;
+        }
+        return ip - start;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF)
+            | (bytes[offset + 1] & 0xFF) << 8
+            | (bytes[offset + 2] & 0xFF) << 16
+            | (bytes[offset + 3] & 0xFF) << 24;
+    }
+}
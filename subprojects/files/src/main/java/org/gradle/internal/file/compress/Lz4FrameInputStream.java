@@ -0,0 +1,167 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file.compress;
+
+import org.apache.commons.compress.compressors.lz4.XXHash32;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Checksum;
+
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_BLOCK_CHECKSUM;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_BLOCK_INDEPENDENCE;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_CONTENT_CHECKSUM;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_CONTENT_SIZE;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_DICTIONARY_ID;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.FLAG_VERSION;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.MAGIC;
+import static org.gradle.internal.file.compress.Lz4FrameOutputStream.UNCOMPRESSED_BLOCK;
+
+/**
+ * Reads a single LZ4 frame with independent blocks, as written by {@link Lz4FrameOutputStream}.
+ */
+public class Lz4FrameInputStream extends InputStream {
+    private static final int VERSION_MASK = 0xC0;
+
+    private final DataInputStream input;
+    private final boolean blockChecksums;
+    private final Checksum contentChecksum;
+    private final byte[] compressedBlock;
+    private final byte[] block;
+    private int blockLength;
+    private int position;
+    private boolean finished;
+
+    public Lz4FrameInputStream(InputStream input) throws IOException {
+        this.input = new DataInputStream(input);
+        if (readIntLittleEndian() != MAGIC) {
+            throw new IOException("Not in LZ4 frame format.");
+        }
+        byte[] descriptor = new byte[10];
+        this.input.readFully(descriptor, 0, 2);
+        int flags = descriptor[0] & 0xFF;
+        if ((flags & VERSION_MASK) != FLAG_VERSION) {
+            throw new IOException("Unsupported LZ4 frame version.");
+        }
+        if ((flags & FLAG_BLOCK_INDEPENDENCE) == 0 || (flags & FLAG_DICTIONARY_ID) != 0) {
+            throw new IOException("Unsupported LZ4 frame with dependent blocks or a dictionary.");
+        }
+        int descriptorLength = 2;
+        if ((flags & FLAG_CONTENT_SIZE) != 0) {
+            this.input.readFully(descriptor, descriptorLength, 8);
+            descriptorLength += 8;
+        }
+        if (this.input.readByte() != Lz4FrameOutputStream.headerChecksum(descriptor, 0, descriptorLength)) {
+            throw new IOException("LZ4 frame header checksum mismatch.");
+        }
+        this.blockChecksums = (flags & FLAG_BLOCK_CHECKSUM) != 0;
+        this.contentChecksum = (flags & FLAG_CONTENT_CHECKSUM) != 0 ? new XXHash32() : null;
+        int blockSizeId = (descriptor[1] >>> 4) & 0x07;
+        if (blockSizeId < 4) {
+            throw new IOException("Invalid LZ4 frame block size.");
+        }
+        int maxBlockSize = Lz4FrameOutputStream.maxBlockSize(blockSizeId);
+        this.block = new byte[maxBlockSize];
+        this.compressedBlock = new byte[maxBlockSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return block[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int toCopy = Math.min(length, blockLength - position);
+        System.arraycopy(block, position, bytes, offset, toCopy);
+        position += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public int available() {
+        return blockLength - position;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (position == blockLength) {
+            if (finished) {
+                return false;
+            }
+            readBlock();
+        }
+        return true;
+    }
+
+    private void readBlock() throws IOException {
+        int blockSize = readIntLittleEndian();
+        if (blockSize == 0) {
+            finished = true;
+            if (contentChecksum != null && readIntLittleEndian() != (int) contentChecksum.getValue()) {
+                throw new IOException("LZ4 frame content checksum mismatch.");
+            }
+            return;
+        }
+        boolean uncompressed = (blockSize & UNCOMPRESSED_BLOCK) != 0;
+        int length = blockSize & ~UNCOMPRESSED_BLOCK;
+        if (length > block.length) {
+            throw new IOException("LZ4 block exceeds the maximum block size of the frame.");
+        }
+        if (uncompressed) {
+            input.readFully(block, 0, length);
+            verifyBlockChecksum(block, length);
+            blockLength = length;
+        } else {
+            input.readFully(compressedBlock, 0, length);
+            verifyBlockChecksum(compressedBlock, length);
+            blockLength = Lz4BlockCodec.decompress(compressedBlock, length, block);
+        }
+        position = 0;
+        if (contentChecksum != null) {
+            contentChecksum.update(block, 0, blockLength);
+        }
+    }
+
+    private void verifyBlockChecksum(byte[] data, int length) throws IOException {
+        if (blockChecksums) {
+            Checksum checksum = new XXHash32();
+            checksum.update(data, 0, length);
+            if (readIntLittleEndian() != (int) checksum.getValue()) {
+                throw new IOException("LZ4 block checksum mismatch.");
+            }
+        }
+    }
+
+    private int readIntLittleEndian() throws IOException {
+        return Integer.reverseBytes(input.readInt());
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
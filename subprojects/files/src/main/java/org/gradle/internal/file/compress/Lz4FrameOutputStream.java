@@ -0,0 +1,138 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.file.compress;
+
+import org.apache.commons.compress.compressors.lz4.XXHash32;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Writes the LZ4 frame format with independent blocks and a content checksum.
+ *
+ * @see <a href="https://github.com/lz4/lz4/blob/dev/doc/lz4_Frame_format.md">LZ4 Frame Format Description</a>
+ */
+public class Lz4FrameOutputStream extends FilterOutputStream {
+    public static final int MAGIC = 0x184D2204;
+    static final int FLAG_VERSION = 0x40;
+    static final int FLAG_BLOCK_INDEPENDENCE = 0x20;
+    static final int FLAG_BLOCK_CHECKSUM = 0x10;
+    static final int FLAG_CONTENT_SIZE = 0x08;
+    static final int FLAG_CONTENT_CHECKSUM = 0x04;
+    static final int FLAG_DICTIONARY_ID = 0x01;
+    static final int UNCOMPRESSED_BLOCK = 0x80000000;
+    // 256 KB blocks, balancing the compression ratio against the memory used per stream
+    private static final int BLOCK_SIZE_ID = 5;
+
+    private final Lz4BlockCodec codec = new Lz4BlockCodec();
+    private final Checksum contentChecksum = new XXHash32();
+    private final byte[] block;
+    private final byte[] compressedBlock;
+    private int blockLength;
+    private boolean closed;
+
+    public Lz4FrameOutputStream(OutputStream output) throws IOException {
+        super(output);
+        this.block = new byte[maxBlockSize(BLOCK_SIZE_ID)];
+        this.compressedBlock = new byte[Lz4BlockCodec.maxCompressedLength(block.length)];
+        writeHeader();
+    }
+
+    static int maxBlockSize(int blockSizeId) {
+        return 1 << (2 * blockSizeId + 8);
+    }
+
+    private void writeHeader() throws IOException {
+        byte[] header = new byte[7];
+        writeIntLittleEndian(MAGIC, header, 0);
+        header[4] = (byte) (FLAG_VERSION | FLAG_BLOCK_INDEPENDENCE | FLAG_CONTENT_CHECKSUM);
+        header[5] = (byte) (BLOCK_SIZE_ID << 4);
+        header[6] = headerChecksum(header, 4, 2);
+        out.write(header);
+    }
+
+    static byte headerChecksum(byte[] descriptor, int offset, int length) {
+        Checksum checksum = new XXHash32();
+        checksum.update(descriptor, offset, length);
+        return (byte) (checksum.getValue() >>> 8);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == block.length) {
+            writeBlock();
+        }
+        block[blockLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+            int toCopy = Math.min(length, block.length - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, toCopy);
+            blockLength += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        contentChecksum.update(block, 0, blockLength);
+        int compressedLength = codec.compress(block, blockLength, compressedBlock);
+        byte[] blockSize = new byte[4];
+        if (compressedLength < blockLength) {
+            writeIntLittleEndian(compressedLength, blockSize, 0);
+            out.write(blockSize);
+            out.write(compressedBlock, 0, compressedLength);
+        } else {
+            writeIntLittleEndian(blockLength | UNCOMPRESSED_BLOCK, blockSize, 0);
+            out.write(blockSize);
+            out.write(block, 0, blockLength);
+        }
+        blockLength = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (blockLength > 0) {
+                writeBlock();
+            }
+            byte[] trailer = new byte[8];
+            writeIntLittleEndian((int) contentChecksum.getValue(), trailer, 4);
+            out.write(trailer);
+        } finally {
+            out.close();
+        }
+    }
+
+    static void writeIntLittleEndian(int value, byte[] bytes, int offset) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares file content hashing throughput of the available {@link FileHashingMode}s
+ * over sets of files with a size distribution similar to what Gradle snapshots in practice.
+ */
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class FileHashingBenchmark {
+
+    @Param({"DEFAULT", "FAST"})
+    FileHashingMode mode;
+
+    /**
+     * <ul>
+     *     <li>sources: many small files, 1 KB - 32 KB</li>
+     *     <li>classpath: mostly small to medium jars, 16 KB - 2 MB, with a few large ones up to 64 MB</li>
+     * </ul>
+     */
+    @Param({"sources", "classpath"})
+    String distribution;
+
+    private File tempDir;
+    private List<File> files;
+    private FileHasher fileHasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        tempDir = Files.createTempDirectory("file-hashing").toFile();
+        fileHasher = new DefaultFileHasher(new DefaultStreamHasher(mode));
+        Random random = new Random(1234L);
+        files = new ArrayList<File>();
+        if (distribution.equals("sources")) {
+            for (int i = 0; i < 2000; i++) {
+                files.add(createFile(random, 1024 + random.nextInt(31 * 1024)));
+            }
+        } else {
+            for (int i = 0; i < 200; i++) {
+                files.add(createFile(random, 16 * 1024 + random.nextInt(2 * 1024 * 1024)));
+            }
+            for (int i = 0; i < 4; i++) {
+                files.add(createFile(random, 16 * 1024 * 1024 + random.nextInt(48 * 1024 * 1024)));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+        tempDir.delete();
+    }
+
+    private File createFile(Random random, int size) throws IOException {
+        File file = new File(tempDir, "file-" + files.size());
+        byte[] buffer = new byte[8192];
+        OutputStream output = new FileOutputStream(file);
+        try {
+            int remaining = size;
+            while (remaining > 0) {
+                random.nextBytes(buffer);
+                int length = Math.min(remaining, buffer.length);
+                output.write(buffer, 0, length);
+                remaining -= length;
+            }
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    @Benchmark
+    public void hashFiles(Blackhole blackhole) {
+        for (File file : files) {
+            blackhole.consume(fileHasher.hash(file));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Compares hashing files through a heap buffer with hashing memory-mapped files,
+ * to find the size from which {@link DefaultFileHasher} should memory-map files.
+ */
+@Fork(1)
+@Threads(2)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class MemoryMappedFileHashingBenchmark {
+
+    @Param({"4096", "65536", "1048576", "4194304", "16777216", "268435456"})
+    int fileSize;
+
+    @Param({"streamed", "mapped"})
+    String access;
+
+    @Param({"DEFAULT", "FAST"})
+    FileHashingMode mode;
+
+    private File file;
+    private FileHasher fileHasher;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = File.createTempFile("mapped-hashing", ".bin");
+        byte[] buffer = new byte[8192];
+        Random random = new Random(1234L);
+        OutputStream output = new FileOutputStream(file);
+        try {
+            int remaining = fileSize;
+            while (remaining > 0) {
+                random.nextBytes(buffer);
+                int length = Math.min(remaining, buffer.length);
+                output.write(buffer, 0, length);
+                remaining -= length;
+            }
+        } finally {
+            output.close();
+        }
+        long threshold = access.equals("mapped") ? 0 : Long.MAX_VALUE;
+        fileHasher = new DefaultFileHasher(new DefaultStreamHasher(mode), threshold);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void hashFile(Blackhole blackhole) {
+        blackhole.consume(fileHasher.hash(file));
+    }
+}
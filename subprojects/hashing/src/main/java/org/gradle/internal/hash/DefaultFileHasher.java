@@ -19,26 +19,68 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
 
 public class DefaultFileHasher implements FileHasher {
+    /**
+     * Files of at least this size are hashed by memory-mapping them, rather than by reading them through a heap buffer.
+     */
+    public static final long DEFAULT_MEMORY_MAPPING_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * Mapped regions are only released when they are garbage collected, and on Windows a mapped file cannot be deleted or replaced until then.
+     */
+    private static final boolean MEMORY_MAPPING_SUPPORTED = !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("windows");
+
     private final StreamHasher streamHasher;
+    private final long memoryMappingThreshold;
 
     public DefaultFileHasher(StreamHasher streamHasher) {
+        this(streamHasher, DEFAULT_MEMORY_MAPPING_THRESHOLD);
+    }
+
+    public DefaultFileHasher(StreamHasher streamHasher, long memoryMappingThreshold) {
         this.streamHasher = streamHasher;
+        this.memoryMappingThreshold = memoryMappingThreshold;
     }
 
     @Override
     public HashCode hash(File file) {
-        InputStream inputStream;
+        return hash(file, -1);
+    }
+
+    @Override
+    public HashCode hash(File file, long length, long lastModified) {
+        return hash(file, length);
+    }
+
+    private HashCode hash(File file, long knownLength) {
+        FileInputStream inputStream;
         try {
             inputStream = new FileInputStream(file);
         } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(String.format("Failed to create MD5 hash for file '%s' as it does not exist.", file), e);
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s' as it does not exist.", file), e);
         }
         try {
+            if (MEMORY_MAPPING_SUPPORTED && (knownLength < 0 || knownLength >= memoryMappingThreshold)) {
+                // Use the actual size of the opened file, as mapping beyond its end fails
+                FileChannel channel = inputStream.getChannel();
+                long length = channel.size();
+                if (length >= memoryMappingThreshold) {
+                    try {
+                        return streamHasher.hashMapped(channel, length);
+                    } catch (InternalError e) {
+                        // The JVM reports a fault while accessing a mapped region, for example because the file was truncated, as an InternalError.
+                        // Hash the current content of the file instead.
+                        channel.position(0);
+                    }
+                }
+            }
             return streamHasher.hash(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s'.", file), e);
         } finally {
             try {
                 inputStream.close();
@@ -47,9 +89,4 @@ public HashCode hash(File file) {
             }
         }
     }
-
-    @Override
-    public HashCode hash(File file, long length, long lastModified) {
-        return hash(file);
-    }
 }
@@ -21,20 +21,36 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 
 public class DefaultStreamHasher implements StreamHasher {
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
+    private static final long MAX_MAPPED_REGION_SIZE = 256 * 1024 * 1024;
 
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+    private final HashFunction hashFunction;
+    private final HashCode signature;
+
+    public DefaultStreamHasher() {
+        this(FileHashingMode.DEFAULT);
+    }
+
+    public DefaultStreamHasher(FileHashingMode mode) {
+        this.hashFunction = mode.getHashFunction();
+        this.signature = mode == FileHashingMode.DEFAULT
+            ? SIGNATURE
+            : Hashing.signature(DefaultStreamHasher.class.getName() + ":" + mode.name());
+    }
 
     @Override
     public HashCode hash(InputStream inputStream) {
         try {
             return doHash(inputStream, ByteStreams.nullOutputStream());
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to create MD5 hash for file content.", e);
+            throw new UncheckedIOException("Failed to create hash for file content.", e);
         }
     }
 
@@ -43,11 +59,29 @@ public HashCode hashCopy(InputStream inputStream, OutputStream outputStream) thr
         return doHash(inputStream, outputStream);
     }
 
+    @Override
+    public HashCode hashMapped(FileChannel channel, long length) {
+        try {
+            PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
+            hasher.putHash(signature);
+            long position = 0;
+            while (position < length) {
+                long regionSize = Math.min(length - position, MAX_MAPPED_REGION_SIZE);
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+                hasher.putBytes(region);
+                position += regionSize;
+            }
+            return hasher.hash();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create hash for file content.", e);
+        }
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
-            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
-            hasher.putHash(SIGNATURE);
+            PrimitiveHasher hasher = hashFunction.newPrimitiveHasher();
+            hasher.putHash(signature);
             while (true) {
                 int nread = inputStream.read(buffer);
                 if (nread < 0) {
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.hash;
+
+/**
+ * The hash function used to fingerprint the content of files.
+ *
+ * Each mode uses its own persistent file hash cache, so hashes produced by different modes are never mixed.
+ */
+public enum FileHashingMode {
+    /**
+     * Hashes file content with the default hash function (MD5).
+     */
+    DEFAULT(Hashing.defaultFunction(), "fileHashes"),
+
+    /**
+     * Hashes file content with a non-cryptographic 128-bit hash function (MurmurHash3).
+     */
+    FAST(Hashing.murmur3_128(), "fileHashes-murmur3");
+
+    /**
+     * System property that enables {@link #FAST} file hashing when set to {@code true}.
+     */
+    public static final String FAST_FILE_HASHING_PROPERTY = "org.gradle.internal.file-hashing.fast";
+
+    private final HashFunction hashFunction;
+    private final String cacheName;
+
+    FileHashingMode(HashFunction hashFunction, String cacheName) {
+        this.hashFunction = hashFunction;
+        this.cacheName = cacheName;
+    }
+
+    public HashFunction getHashFunction() {
+        return hashFunction;
+    }
+
+    /**
+     * The name of the persistent cache holding the file hashes produced in this mode.
+     */
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public static FileHashingMode fromSystemProperties() {
+        return Boolean.getBoolean(FAST_FILE_HASHING_PROPERTY) ? FAST : DEFAULT;
+    }
+}
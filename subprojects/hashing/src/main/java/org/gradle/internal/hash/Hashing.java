@@ -42,6 +42,8 @@ private Hashing() {}
 
     private static final HashFunction SHA512 = MessageDigestHashFunction.of("SHA-512");
 
+    private static final HashFunction MURMUR3_128 = new Murmur3HashFunction();
+
     private static final HashFunction DEFAULT = MD5;
 
     /**
@@ -138,6 +140,13 @@ public static HashFunction sha512() {
         return SHA512;
     }
 
+    /**
+     * 128-bit MurmurHash3 hashing function. Non-cryptographic, but considerably faster than {@link #md5()}.
+     */
+    public static HashFunction murmur3_128() {
+        return MURMUR3_128;
+    }
+
     private static abstract class MessageDigestHashFunction implements HashFunction {
         private final int hexDigits;
 
@@ -260,6 +269,11 @@ public void putBytes(byte[] bytes, int off, int len) {
             getDigest().update(bytes, off, len);
         }
 
+        @Override
+        public void putBytes(ByteBuffer bytes) {
+            getDigest().update(bytes);
+        }
+
         private void update(int length) {
             getDigest().update(buffer.array(), 0, length);
             castBuffer(buffer).clear();
@@ -315,7 +329,7 @@ public HashCode hash() {
         }
     }
 
-    private static class DefaultHasher implements Hasher {
+    static class DefaultHasher implements Hasher {
         private final PrimitiveHasher hasher;
         private String invalidReason;
 
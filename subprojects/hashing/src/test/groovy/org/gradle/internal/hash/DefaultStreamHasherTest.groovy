@@ -36,4 +36,49 @@ class DefaultStreamHasherTest extends Specification {
         hash.toString() == "af67a92e9f73b51572e9b94e343d2840"
         output.toByteArray() == "hello".bytes
     }
+
+    def "can hash input with fast file hashing"() {
+        def input = new ByteArrayInputStream("hello".bytes)
+        when:
+        def hash = new DefaultStreamHasher(FileHashingMode.FAST).hash(input)
+        then:
+        hash.toString() == "de2f17834a23264205bb10dcc8365804"
+    }
+
+    def "memory-mapped hash matches streamed hash with #mode file hashing"() {
+        def file = File.createTempFile("hasher", "test")
+        file.deleteOnExit()
+        def content = new byte[100003]
+        new Random(1234L).nextBytes(content)
+        file.bytes = content
+        def streamHasher = new DefaultStreamHasher(mode)
+
+        when:
+        def streamed = streamHasher.hash(new ByteArrayInputStream(content))
+        def mapped = new FileInputStream(file).withCloseable { streamHasher.hashMapped(it.channel, content.length) }
+
+        then:
+        mapped == streamed
+        new DefaultFileHasher(streamHasher, 0).hash(file) == streamed
+        new DefaultFileHasher(streamHasher, Long.MAX_VALUE).hash(file) == streamed
+
+        where:
+        mode << FileHashingMode.values()
+    }
+
+    def "falls back to streamed hash when memory-mapped file cannot be accessed"() {
+        def file = File.createTempFile("hasher", "test")
+        file.deleteOnExit()
+        file.bytes = "hello".bytes
+        def streamHasher = Mock(StreamHasher)
+        def hash = HashCode.fromInt(1)
+
+        when:
+        def result = new DefaultFileHasher(streamHasher, 0).hash(file)
+
+        then:
+        result == hash
+        _ * streamHasher.hashMapped(_, 5) >> { throw new InternalError("a fault occurred in an unsafe memory access operation") }
+        _ * streamHasher.hash({ it.text == "hello" }) >> hash
+    }
 }
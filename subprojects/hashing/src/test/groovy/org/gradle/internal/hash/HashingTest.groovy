@@ -109,6 +109,26 @@ class HashingTest extends Specification {
         hashStrings(["abc", "de"]) != hashStrings(["ab", "cde"])
     }
 
+    def 'murmur3 produces reference hash'() {
+        expect:
+        Hashing.murmur3_128().hashString("The quick brown fox jumps over the lazy dog").toString() == "6c1b07bc7bbc4be347939ac4a93c437a"
+    }
+
+    def 'murmur3 hash does not depend on how input is split'() {
+        given:
+        def bytes = (0..<100).collect { it as byte } as byte[]
+
+        when:
+        def hasher = Hashing.murmur3_128().newPrimitiveHasher()
+        hasher.putBytes(bytes, 0, 7)
+        hasher.putByte(bytes[7])
+        hasher.putBytes(bytes, 8, 31)
+        hasher.putBytes(bytes, 39, 61)
+
+        then:
+        hasher.hash() == Hashing.murmur3_128().hashBytes(bytes)
+    }
+
     def hashStrings(List<String> strings) {
         def hasher = Hashing.newHasher()
         strings.each { hasher.putString(it) }
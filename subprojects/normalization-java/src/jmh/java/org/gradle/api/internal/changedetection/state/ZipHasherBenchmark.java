@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.file.FileMetadata.AccessType;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Compares hashing the entries of jars on the calling thread with hashing them in parallel.
+ *
+ * The jars are either real-world jars found on the classpath of the benchmark, or a generated fat jar.
+ */
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ZipHasherBenchmark {
+
+    private static final int GENERATED_ENTRIES = 100000;
+
+    @Param({"guava", "asm", "generated"})
+    String archive;
+
+    @Param({"1", "4"})
+    int parallelism;
+
+    private File file;
+    private ForkJoinPool forkJoinPool;
+    private ZipHasher zipHasher;
+    private RegularFileSnapshotContext context;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        file = archive.equals("generated") ? generateJar() : findJarOnClasspath(archive);
+        forkJoinPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        zipHasher = new ZipHasher(new RuntimeClasspathResourceHasher(), forkJoinPool);
+        RegularFileSnapshot snapshot = new RegularFileSnapshot(file.getAbsolutePath(), file.getName(), HashCode.fromInt(0), DefaultFileMetadata.file(file.lastModified(), file.length(), AccessType.DIRECT));
+        context = new DefaultRegularFileSnapshotContext(() -> new String[0], snapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+        if (archive.equals("generated")) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void hashJar(Blackhole blackhole) {
+        blackhole.consume(zipHasher.hash(context));
+    }
+
+    private static File findJarOnClasspath(String name) {
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            File candidate = new File(entry);
+            if (candidate.getName().startsWith(name + "-") && candidate.getName().endsWith(".jar")) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("Could not find a jar for '" + name + "' on the classpath.");
+    }
+
+    private static File generateJar() throws IOException {
+        File file = File.createTempFile("fat", ".jar");
+        try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < GENERATED_ENTRIES; i++) {
+                output.putNextEntry(new ZipEntry("org/example/package" + (i % 100) + "/Resource" + i + ".txt"));
+                output.write(("Resource " + i).getBytes(StandardCharsets.UTF_8));
+                output.closeEntry();
+            }
+        }
+        return file;
+    }
+}
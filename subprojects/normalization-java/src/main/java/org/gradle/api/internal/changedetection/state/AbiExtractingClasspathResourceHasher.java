@@ -89,5 +89,7 @@ private boolean isClassFile(String name) {
     @Override
     public void appendConfigurationToHasher(Hasher hasher) {
         hasher.putString(getClass().getName());
+        // Different extractors produce different ABIs from the same classes, so the hashes must not be shared between them
+        hasher.putString(extractor.getClass().getName());
     }
 }
@@ -37,14 +37,23 @@
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ZipHasher implements RegularFileHasher, ConfigurableNormalizer {
 
     private static final Set<String> KNOWN_ZIP_EXTENSIONS = ImmutableSet.of("zip", "jar", "war", "rar", "ear", "apk", "aar");
     private static final Logger LOGGER = LoggerFactory.getLogger(ZipHasher.class);
+    /**
+     * The number of entries hashed by a single task when hashing the entries of an archive in parallel.
+     * Archives with fewer entries are hashed on the calling thread.
+     */
+    private static final int ENTRIES_PER_SLICE = 1024;
 
     public static boolean isZipFile(final String name) {
         return KNOWN_ZIP_EXTENSIONS.contains(FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT));
@@ -52,16 +61,30 @@ public static boolean isZipFile(final String name) {
 
     private final ResourceHasher resourceHasher;
     private final HashingExceptionReporter hashingExceptionReporter;
+    private final ForkJoinPool forkJoinPool;
 
     public ZipHasher(ResourceHasher resourceHasher) {
+        this(resourceHasher, (ForkJoinPool) null);
+    }
+
+    /**
+     * When given a {@link ForkJoinPool}, the entries of large archives are read from the central directory and hashed in slices in the pool.
+     * The resource hasher then needs to be safe to use from multiple threads.
+     */
+    public ZipHasher(ResourceHasher resourceHasher, @Nullable ForkJoinPool forkJoinPool) {
         this(resourceHasher, (s, e) -> {
             LOGGER.debug("Malformed archive '{}'. Falling back to full content hash instead of entry hashing.", s.getName(), e);
-        });
+        }, forkJoinPool);
     }
 
     public ZipHasher(ResourceHasher resourceHasher, HashingExceptionReporter hashingExceptionReporter) {
+        this(resourceHasher, hashingExceptionReporter, null);
+    }
+
+    public ZipHasher(ResourceHasher resourceHasher, HashingExceptionReporter hashingExceptionReporter, @Nullable ForkJoinPool forkJoinPool) {
         this.resourceHasher = resourceHasher;
         this.hashingExceptionReporter = hashingExceptionReporter;
+        this.forkJoinPool = forkJoinPool;
     }
 
     @Nullable
@@ -86,6 +109,9 @@ private HashCode hashZipContents(RegularFileSnapshot zipFileSnapshot) {
             Hasher hasher = Hashing.newHasher();
             FingerprintHashingStrategy.SORT.appendToHasher(hasher, fingerprints);
             return hasher.hash();
+        } catch (UncheckedIOException e) {
+            hashingExceptionReporter.report(zipFileSnapshot, e.getCause());
+            return zipFileSnapshot.getHash();
         } catch (Exception e) {
             hashingExceptionReporter.report(zipFileSnapshot, e);
             return zipFileSnapshot.getHash();
@@ -94,25 +120,90 @@ private HashCode hashZipContents(RegularFileSnapshot zipFileSnapshot) {
 
     private List<FileSystemLocationFingerprint> fingerprintZipEntries(String zipFile) throws IOException {
         try (ZipInput input = FileZipInput.create(new File(zipFile))) {
+            if (forkJoinPool != null && input instanceof FileZipInput && ((FileZipInput) input).size() > ENTRIES_PER_SLICE) {
+                return fingerprintZipEntriesInParallel(zipFile, input, forkJoinPool);
+            }
             List<FileSystemLocationFingerprint> fingerprints = Lists.newArrayList();
             fingerprintZipEntries("", zipFile, fingerprints, input);
             return fingerprints;
         }
     }
 
+    /**
+     * Hashes slices of the entries of an archive concurrently. The entries of a {@link FileZipInput} are read from the central directory,
+     * and their content can be read from any thread. The order of the fingerprints does not matter, as they are sorted before being hashed.
+     */
+    private List<FileSystemLocationFingerprint> fingerprintZipEntriesInParallel(String zipFile, ZipInput input, ForkJoinPool forkJoinPool) {
+        List<List<ZipEntry>> slices = new ArrayList<>();
+        List<ZipEntry> slice = new ArrayList<>(ENTRIES_PER_SLICE);
+        for (ZipEntry zipEntry : input) {
+            if (zipEntry.isDirectory()) {
+                continue;
+            }
+            if (slice.size() == ENTRIES_PER_SLICE) {
+                slices.add(slice);
+                slice = new ArrayList<>(ENTRIES_PER_SLICE);
+            }
+            slice.add(zipEntry);
+        }
+        List<ForkJoinTask<List<FileSystemLocationFingerprint>>> tasks = new ArrayList<>(slices.size());
+        for (List<ZipEntry> entries : slices) {
+            tasks.add(forkJoinPool.submit(() -> fingerprintSlice(zipFile, entries)));
+        }
+
+        List<FileSystemLocationFingerprint> fingerprints = Lists.newArrayList();
+        fingerprints.add(newZipMarker(""));
+        RuntimeException failure = null;
+        try {
+            fingerprints.addAll(fingerprintSlice(zipFile, slice));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // Wait for all slices, even when one of them failed, so that no slice is still reading from the archive once it is closed
+        for (ForkJoinTask<List<FileSystemLocationFingerprint>> task : tasks) {
+            try {
+                fingerprints.addAll(task.join());
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return fingerprints;
+    }
+
+    private List<FileSystemLocationFingerprint> fingerprintSlice(String zipFile, List<ZipEntry> entries) {
+        List<FileSystemLocationFingerprint> fingerprints = new ArrayList<>(entries.size());
+        try {
+            for (ZipEntry zipEntry : entries) {
+                fingerprintZipEntry("", zipFile, fingerprints, zipEntry);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return fingerprints;
+    }
+
     private void fingerprintZipEntries(String parentName, String rootParentName, List<FileSystemLocationFingerprint> fingerprints, ZipInput input) throws IOException {
         fingerprints.add(newZipMarker(parentName));
         for (ZipEntry zipEntry : input) {
             if (zipEntry.isDirectory()) {
                 continue;
             }
-            String fullName = parentName.isEmpty() ? zipEntry.getName() : parentName + "/" + zipEntry.getName();
-            ZipEntryContext zipEntryContext = new ZipEntryContext(zipEntry, fullName, rootParentName);
-            if (isZipFile(zipEntry.getName())) {
-                fingerprintZipEntries(fullName, rootParentName, fingerprints, new StreamZipInput(zipEntry.getInputStream()));
-            } else {
-                fingerprintZipEntry(zipEntryContext, fingerprints);
-            }
+            fingerprintZipEntry(parentName, rootParentName, fingerprints, zipEntry);
+        }
+    }
+
+    private void fingerprintZipEntry(String parentName, String rootParentName, List<FileSystemLocationFingerprint> fingerprints, ZipEntry zipEntry) throws IOException {
+        String fullName = parentName.isEmpty() ? zipEntry.getName() : parentName + "/" + zipEntry.getName();
+        ZipEntryContext zipEntryContext = new ZipEntryContext(zipEntry, fullName, rootParentName);
+        if (isZipFile(zipEntry.getName())) {
+            fingerprintZipEntries(fullName, rootParentName, fingerprints, new StreamZipInput(zipEntry.getInputStream()));
+        } else {
+            fingerprintZipEntry(zipEntryContext, fingerprints);
         }
     }
 
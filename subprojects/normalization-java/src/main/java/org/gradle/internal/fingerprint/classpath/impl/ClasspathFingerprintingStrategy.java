@@ -53,6 +53,7 @@
 import javax.annotation.Nullable;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import static org.gradle.internal.fingerprint.classpath.impl.ClasspathFingerprintingStrategy.NonJarFingerprintingStrategy.IGNORE;
 import static org.gradle.internal.fingerprint.classpath.impl.ClasspathFingerprintingStrategy.NonJarFingerprintingStrategy.USE_FILE_HASH;
@@ -96,15 +97,29 @@ private ClasspathFingerprintingStrategy(String identifier,
     }
 
     public static ClasspathFingerprintingStrategy runtimeClasspath(ResourceFilter classpathResourceFilter, ResourceEntryFilter manifestAttributeResourceEntryFilter, Map<String, ResourceEntryFilter> propertiesFileFilters, RuntimeClasspathResourceHasher runtimeClasspathResourceHasher, ResourceSnapshotterCacheService cacheService, Interner<String> stringInterner) {
+        return runtimeClasspath(classpathResourceFilter, manifestAttributeResourceEntryFilter, propertiesFileFilters, runtimeClasspathResourceHasher, cacheService, stringInterner, null);
+    }
+
+    /**
+     * Creates a runtime classpath strategy that hashes the entries of large jars in the given pool, if any.
+     */
+    public static ClasspathFingerprintingStrategy runtimeClasspath(ResourceFilter classpathResourceFilter, ResourceEntryFilter manifestAttributeResourceEntryFilter, Map<String, ResourceEntryFilter> propertiesFileFilters, RuntimeClasspathResourceHasher runtimeClasspathResourceHasher, ResourceSnapshotterCacheService cacheService, Interner<String> stringInterner, @Nullable ForkJoinPool zipHashingPool) {
         ResourceHasher resourceHasher = propertiesFileHasher(runtimeClasspathResourceHasher, propertiesFileFilters);
         resourceHasher = metaInfAwareClasspathResourceHasher(resourceHasher, manifestAttributeResourceEntryFilter);
         resourceHasher = ignoringResourceHasher(resourceHasher, classpathResourceFilter);
-        ZipHasher zipHasher = new ZipHasher(resourceHasher);
+        ZipHasher zipHasher = new ZipHasher(resourceHasher, zipHashingPool);
         return new ClasspathFingerprintingStrategy(CLASSPATH_IDENTIFIER, USE_FILE_HASH, resourceHasher, zipHasher, cacheService, stringInterner);
     }
 
     public static ClasspathFingerprintingStrategy compileClasspath(ResourceHasher classpathResourceHasher, ResourceSnapshotterCacheService cacheService, Interner<String> stringInterner) {
-        ZipHasher zipHasher = new ZipHasher(classpathResourceHasher);
+        return compileClasspath(classpathResourceHasher, cacheService, stringInterner, (ForkJoinPool) null);
+    }
+
+    /**
+     * Creates a compile classpath strategy that hashes the entries of large jars in the given pool, if any.
+     */
+    public static ClasspathFingerprintingStrategy compileClasspath(ResourceHasher classpathResourceHasher, ResourceSnapshotterCacheService cacheService, Interner<String> stringInterner, @Nullable ForkJoinPool zipHashingPool) {
+        ZipHasher zipHasher = new ZipHasher(classpathResourceHasher, zipHashingPool);
         return new ClasspathFingerprintingStrategy(COMPILE_CLASSPATH_IDENTIFIER, IGNORE, classpathResourceHasher, zipHasher, cacheService, stringInterner);
     }
 
@@ -26,6 +26,7 @@ import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import org.junit.Rule
 import spock.lang.Specification
 
+import java.util.concurrent.ForkJoinPool
 import java.util.jar.Attributes
 import java.util.jar.JarEntry
 import java.util.jar.JarOutputStream
@@ -146,6 +147,37 @@ class ZipHasherTest extends Specification {
         hash1 == hash2
     }
 
+    def "hashing the entries of a large jar in parallel produces the same hashcode"() {
+        given:
+        def pool = new ForkJoinPool(4)
+        def parallelZipHasher = new ZipHasher(resourceHasher(ResourceEntryFilter.FILTER_NOTHING, ResourceEntryFilter.FILTER_NOTHING), pool)
+        def jarfile = tmpDir.file("large.jar")
+        createJarWithEntries(jarfile, 3000, "content")
+        def jarfile2 = tmpDir.file("large2.jar")
+        createJarWithEntries(jarfile2, 3000, "changed")
+
+        when:
+        def hash = parallelZipHasher.hash(snapshotContext(jarfile))
+
+        then:
+        hash == zipHasher.hash(snapshotContext(jarfile))
+        parallelZipHasher.hash(snapshotContext(jarfile2)) == zipHasher.hash(snapshotContext(jarfile2))
+        hash != parallelZipHasher.hash(snapshotContext(jarfile2))
+
+        cleanup:
+        pool?.shutdown()
+    }
+
+    def createJarWithEntries(TestFile jarfile, int count, String lastEntryContent) {
+        def jarOutput = new JarOutputStream(jarfile.newOutputStream())
+        count.times { index ->
+            jarOutput.putNextEntry(new JarEntry("dir${index % 10}/entry${index}.txt"))
+            jarOutput << (index == count - 1 ? lastEntryContent : "entry ${index}")
+            jarOutput.closeEntry()
+        }
+        jarOutput.close()
+    }
+
     def createJarWithAttributes(TestFile jarfile, Map<String, String> attributes) {
         def manifest = new Manifest()
         def mainAttributes = manifest.getMainAttributes()
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.apache.commons.io.FileUtils;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs mixes of reads, updates and removals against a {@link BTreePersistentIndexedCache} holding a realistic number of entries.
+ * The cache is only ever used by one thread at a time, so the benchmark runs on a single thread.
+ */
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class BTreePersistentIndexedCacheBenchmark {
+
+    @Param({"10000", "100000"})
+    int keyCount;
+
+    // Percentage of operations that are reads, the others are split evenly between updates and removals
+    @Param({"100", "90", "50"})
+    int readPercentage;
+
+    private File tempDir;
+    private BTreePersistentIndexedCache<String, String> cache;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws IOException {
+        tempDir = Files.createTempDirectory("btree-benchmark").toFile();
+        cache = new BTreePersistentIndexedCache<>(new File(tempDir, "cache.bin"), BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER);
+        for (int i = 0; i < keyCount; i++) {
+            cache.put(keyFor(i), valueFor(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws IOException {
+        cache.close();
+        FileUtils.forceDelete(tempDir);
+    }
+
+    @Benchmark
+    public void operation(Blackhole blackhole) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = random.nextInt(keyCount);
+        int operation = random.nextInt(100);
+        if (operation < readPercentage) {
+            blackhole.consume(cache.get(keyFor(key)));
+        } else if (operation % 2 == 0) {
+            cache.put(keyFor(key), valueFor(key));
+        } else {
+            cache.remove(keyFor(key));
+        }
+    }
+
+    private static String keyFor(int i) {
+        return "key-" + i;
+    }
+
+    private static String valueFor(int i) {
+        return "value-" + i + "-0123456789abcdefghijklmnopqrstuvwxyz";
+    }
+}
@@ -27,6 +27,7 @@
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final CacheDecorator cacheDecorator;
+    private final boolean logStructured;
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null);
@@ -41,10 +42,15 @@ public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName,
     }
 
     private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator) {
+        this(cacheName, keySerializer, valueSerializer, cacheDecorator, false);
+    }
+
+    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator, boolean logStructured) {
         this.cacheName = cacheName;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.cacheDecorator = cacheDecorator;
+        this.logStructured = logStructured;
     }
 
     public String getCacheName() {
@@ -64,7 +70,22 @@ public CacheDecorator getCacheDecorator() {
         return cacheDecorator;
     }
 
+    /**
+     * Whether the entries are stored in an append-only log instead of a B-tree.
+     */
+    public boolean isLogStructured() {
+        return logStructured;
+    }
+
     public PersistentIndexedCacheParameters<K, V> withCacheDecorator(CacheDecorator cacheDecorator) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, logStructured);
+    }
+
+    /**
+     * Stores the entries in an append-only log, which is compacted when most of it consists of superseded entries.
+     * This suits caches whose entries are frequently replaced.
+     */
+    public PersistentIndexedCacheParameters<K, V> withLogStructuredStorage() {
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, true);
     }
 }
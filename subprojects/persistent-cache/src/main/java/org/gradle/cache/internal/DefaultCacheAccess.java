@@ -32,6 +32,7 @@
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.log.LogStructuredPersistentIndexedCache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -52,6 +53,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -75,6 +77,7 @@ public class DefaultCacheAccess implements CacheCoordinator {
     private final CacheAccessOperationsStack operations;
 
     private ManagedExecutor cacheUpdateExecutor;
+    private ManagedExecutor compactionExecutor;
     private CacheAccessWorker cacheAccessWorker;
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
@@ -127,6 +130,13 @@ private synchronized AsyncCacheAccess getCacheAccessWorker() {
         return cacheAccessWorker;
     }
 
+    private synchronized Executor getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = executorFactory.create("Cache compaction for " + cacheDisplayName);
+        }
+        return compactionExecutor;
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -184,6 +194,11 @@ public synchronized void close() {
             fileLockHeldByOwner = null;
             stateLock.unlock();
         }
+        // The indexed caches have been closed, which abandons the compactions that are still running
+        if (compactionExecutor != null) {
+            compactionExecutor.stop();
+            compactionExecutor = null;
+        }
     }
 
     @Override
@@ -282,7 +297,9 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
             if (entry == null) {
                 File cacheFile = findCacheFile(parameters);
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
+                Factory<IndexedCacheStorage<K, V>> indexedCacheFactory = parameters.isLogStructured()
+                    ? () -> doCreateLogStructuredCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer())
+                    : () -> doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
 
                 MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
                 CacheDecorator decorator = parameters.getCacheDecorator();
@@ -307,7 +324,8 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
     }
 
     private <K, V> File findCacheFile(PersistentIndexedCacheParameters<K, V> parameters) {
-        return new File(baseDir, parameters.getCacheName() + ".bin");
+        // Use a different file for each storage format, so switching formats does not read a file in the other format
+        return new File(baseDir, parameters.getCacheName() + (parameters.isLogStructured() ? ".log" : ".bin"));
     }
 
     @Override
@@ -319,6 +337,10 @@ <K, V> BTreePersistentIndexedCache<K, V> doCreateCache(File cacheFile, Serialize
         return new BTreePersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer);
     }
 
+    <K, V> LogStructuredPersistentIndexedCache<K, V> doCreateLogStructuredCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
+        return new LogStructuredPersistentIndexedCache<>(cacheFile, keySerializer, valueSerializer, getCompactionExecutor());
+    }
+
     /**
      * Called just after the file lock has been acquired.
      */
@@ -482,6 +504,7 @@ void assertCompatibleCacheParameters(PersistentIndexedCacheParameters<K, V> para
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleStorage(faultMessages, parameters.isLogStructured());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -524,6 +547,14 @@ private void checkCompatibleCacheDecorator(Collection<String> faultMessages, Cac
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleStorage(Collection<String> faultMessages, boolean logStructured) {
+            if (logStructured != parameters.isLogStructured()) {
+                faultMessages.add(
+                    String.format(" * Requested log structured storage (%s) doesn't match current cache storage (%s)",
+                        logStructured, parameters.isLogStructured()));
+            }
+        }
     }
 
     @VisibleForTesting
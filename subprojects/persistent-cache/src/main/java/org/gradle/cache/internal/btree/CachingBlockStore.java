@@ -25,15 +25,29 @@
 import java.util.LinkedHashMap;
 import java.util.Map;
 
+/**
+ * Keeps recently used blocks of the cacheable types in memory. The in-memory cache is sized in proportion to the
+ * maximum heap.
+ */
 public class CachingBlockStore implements BlockStore {
+    // Each store may keep up to this fraction of the maximum heap in cached blocks
+    private static final int HEAP_FRACTION = 256;
+    // The previous fixed limit of 100 index blocks of the default size
+    private static final long MIN_CACHE_BYTES = 100 * 12 * 1024;
+
     private final BlockStore store;
     private final Map<BlockPointer, BlockPayload> dirty = new LinkedHashMap<BlockPointer, BlockPayload>();
-    private final Cache<BlockPointer, BlockPayload> indexBlockCache = CacheBuilder.newBuilder().maximumSize(100).concurrencyLevel(1).build();
+    private final Cache<BlockPointer, BlockPayload> indexBlockCache;
     private final ImmutableSet<Class<? extends BlockPayload>> cacheableBlockTypes;
 
     public CachingBlockStore(BlockStore store, Collection<Class<? extends BlockPayload>> cacheableBlockTypes) {
         this.store = store;
         this.cacheableBlockTypes = ImmutableSet.copyOf(cacheableBlockTypes);
+        this.indexBlockCache = CacheBuilder.newBuilder()
+            .maximumWeight(Math.max(MIN_CACHE_BYTES, Runtime.getRuntime().maxMemory() / HEAP_FRACTION))
+            .weigher((BlockPointer pos, BlockPayload block) -> block.getBlock().getSize())
+            .concurrencyLevel(1)
+            .build();
     }
 
     @Override
@@ -0,0 +1,569 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal.log;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.IndexedCacheStorage;
+import org.gradle.internal.io.RandomAccessFileInputStream;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent indexed cache stored as an append-only log of records, with an in-memory index from each key to its latest record.
+ *
+ * <p>Each put or remove appends a record to the end of the log, so no record is ever rewritten in place. When the cache is closed,
+ * the index is written to a checkpoint next to the log. Opening the cache reads the checkpoint and scans only the records appended
+ * after it, falling back to scanning the whole log when the checkpoint is missing or belongs to another log. A torn record at the
+ * end of the log is discarded.</p>
+ *
+ * <p>When most of the log consists of superseded records, the live records are copied to a new log on the given executor. Closing
+ * the cache moves a finished copy over the log, after appending the records written in the meantime, and abandons a copy which
+ * has not finished yet.</p>
+ *
+ * <p>Any number of {@link #get(Object)} calls can run concurrently, while all other operations have exclusive access to the cache.
+ * Synchronization with other processes is left to the file lock held by the owner of the cache.</p>
+ */
+public class LogStructuredPersistentIndexedCache<K, V> implements IndexedCacheStorage<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredPersistentIndexedCache.class);
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+    private static final int MAGIC = 0x47524c47;
+    private static final int CHECKPOINT_MAGIC = 0x47524349;
+    private static final int VERSION = 2;
+    // Magic number, version and generation
+    private static final int HEADER_SIZE = 16;
+    // Key length, value length and checksum
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int REMOVED = -1;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private final File cacheFile;
+    private final File checkpointFile;
+    private final File compactedFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final Executor compactionExecutor;
+    private final RecordIndex index = new RecordIndex();
+    private final Lock readLock;
+    private final Lock writeLock;
+    // Concurrent readers share the file position
+    private final Object fileReadLock = new Object();
+    private RandomAccessFile file;
+    // Identifies the log, so that a checkpoint of another log is never used
+    private long generation;
+    private long endOfLog;
+    private long checkpointedEndOfLog;
+    private long liveBytes;
+    private Compaction compaction;
+
+    public LogStructuredPersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor) {
+        this.cacheFile = cacheFile;
+        this.checkpointFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".idx");
+        this.compactedFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".compact");
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.compactionExecutor = compactionExecutor;
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        this.readLock = lock.readLock();
+        this.writeLock = lock.writeLock();
+        try {
+            open();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + cacheFile.getName() + " (" + cacheFile + ")";
+    }
+
+    private void open() throws IOException {
+        LOGGER.debug("Opening {}", this);
+        cacheFile.getParentFile().mkdirs();
+        file = new RandomAccessFile(cacheFile, "rw");
+        if (!hasValidHeader()) {
+            if (file.length() > 0) {
+                LOGGER.warn("{} is corrupt. Discarding.", this);
+            }
+            generation = ThreadLocalRandom.current().nextLong();
+            file.setLength(0);
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeLong(generation);
+        }
+        checkpointedEndOfLog = readCheckpoint();
+        if (checkpointedEndOfLog < 0) {
+            // Never use this checkpoint again, even once the log has grown past the end it covers
+            Files.deleteIfExists(checkpointFile.toPath());
+            readIndex(HEADER_SIZE);
+        } else {
+            readIndex(checkpointedEndOfLog);
+        }
+        writeLock.lock();
+        try {
+            maybeStartCompaction();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private boolean hasValidHeader() throws IOException {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        file.seek(0);
+        if (file.readInt() != MAGIC || file.readInt() != VERSION) {
+            return false;
+        }
+        generation = file.readLong();
+        return true;
+    }
+
+    /**
+     * Reads the index from the checkpoint, returning the end of the log it covers or -1 when it cannot be used.
+     */
+    private long readCheckpoint() {
+        index.clear();
+        liveBytes = 0;
+        if (!checkpointFile.isFile()) {
+            return -1;
+        }
+        try (CheckedInputStream checkedInput = new CheckedInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)), new CRC32())) {
+            DataInputStream input = new DataInputStream(checkedInput);
+            if (input.readInt() != CHECKPOINT_MAGIC || input.readInt() != VERSION || input.readLong() != generation) {
+                return -1;
+            }
+            long checkpointedEnd = input.readLong();
+            if (checkpointedEnd < HEADER_SIZE || checkpointedEnd > file.length()) {
+                return -1;
+            }
+            long checkpointedLiveBytes = input.readLong();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                index.put(input.readLong(), input.readLong(), input.readInt());
+            }
+            int expectedChecksum = (int) checkedInput.getChecksum().getValue();
+            if (input.readInt() != expectedChecksum) {
+                LOGGER.debug("Ignoring corrupt checkpoint of {}.", this);
+                index.clear();
+                return -1;
+            }
+            liveBytes = checkpointedLiveBytes;
+            return checkpointedEnd;
+        } catch (IOException e) {
+            LOGGER.debug("Could not read checkpoint of {}.", this, e);
+            index.clear();
+            return -1;
+        }
+    }
+
+    private void writeCheckpoint() throws Exception {
+        try (CheckedOutputStream checkedOutput = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(checkpointFile)), new CRC32())) {
+            DataOutputStream output = new DataOutputStream(checkedOutput);
+            output.writeInt(CHECKPOINT_MAGIC);
+            output.writeInt(VERSION);
+            output.writeLong(generation);
+            output.writeLong(endOfLog);
+            output.writeLong(liveBytes);
+            output.writeInt(index.size());
+            index.visit((hash, offset, size) -> {
+                output.writeLong(hash);
+                output.writeLong(offset);
+                output.writeInt(size);
+            });
+            output.flush();
+            output.writeInt((int) checkedOutput.getChecksum().getValue());
+        }
+        checkpointedEndOfLog = endOfLog;
+    }
+
+    private void readIndex(long start) throws IOException {
+        long length = file.length();
+        long offset = start;
+        file.seek(offset);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new RandomAccessFileInputStream(file)));
+        while (offset < length) {
+            byte[] key;
+            int valueLength;
+            try {
+                int keyLength = input.readInt();
+                valueLength = input.readInt();
+                int checksum = input.readInt();
+                if (keyLength < 0 || valueLength < REMOVED || offset + RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0) > length) {
+                    break;
+                }
+                key = new byte[keyLength];
+                input.readFully(key);
+                byte[] value = new byte[Math.max(valueLength, 0)];
+                input.readFully(value);
+                if (checksum != checksumOf(key, valueLength, value)) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            int size = recordSize(key.length, valueLength);
+            if (valueLength == REMOVED) {
+                removeFromIndex(hashOf(key));
+            } else {
+                addToIndex(hashOf(key), offset, size);
+            }
+            offset += size;
+        }
+        if (offset < length) {
+            LOGGER.warn("{} has an incomplete record at offset {}. Discarding the rest of the log.", this, offset);
+            file.setLength(offset);
+        }
+        endOfLog = offset;
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            long hash = hashOf(keyBytes);
+            readLock.lock();
+            try {
+                int slot = index.find(hash);
+                if (slot < 0) {
+                    return null;
+                }
+                byte[] record = new byte[index.sizeAt(slot)];
+                synchronized (fileReadLock) {
+                    file.seek(index.offsetAt(slot));
+                    file.readFully(record);
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                int keyLength = buffer.getInt(0);
+                int valueLength = buffer.getInt(4);
+                if (!ByteBuffer.wrap(record, RECORD_HEADER_SIZE, keyLength).equals(ByteBuffer.wrap(keyBytes))) {
+                    // Another key with the same hash
+                    return null;
+                }
+                return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(record, RECORD_HEADER_SIZE + keyLength, valueLength)));
+            } finally {
+                readLock.unlock();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            writeLock.lock();
+            try {
+                long offset = append(keyBytes, valueBytes.length, valueBytes);
+                addToIndex(hashOf(keyBytes), offset, recordSize(keyBytes.length, valueBytes.length));
+                maybeStartCompaction();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void remove(K key) {
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            writeLock.lock();
+            try {
+                if (removeFromIndex(hashOf(keyBytes))) {
+                    append(keyBytes, REMOVED, new byte[0]);
+                    maybeStartCompaction();
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        LOGGER.debug("Closing {}", this);
+        writeLock.lock();
+        try {
+            if (file == null) {
+                return;
+            }
+            try {
+                if (compaction != null) {
+                    finishCompaction();
+                }
+                if (endOfLog != checkpointedEndOfLog) {
+                    writeCheckpoint();
+                }
+            } finally {
+                if (file != null) {
+                    file.close();
+                    file = null;
+                }
+                index.clear();
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isOpen() {
+        return file != null;
+    }
+
+    /**
+     * Returns the number of bytes used by the records which are not superseded by a later record.
+     */
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    private void maybeStartCompaction() {
+        if (compaction == null && endOfLog >= MIN_COMPACTION_SIZE && liveBytes < (endOfLog - HEADER_SIZE) / 2) {
+            LOGGER.debug("Compacting {}, {} of {} bytes are live", this, liveBytes, endOfLog);
+            compaction = new Compaction();
+            compactionExecutor.execute(compaction);
+        }
+    }
+
+    /**
+     * Moves the compacted log over the log if the compaction has finished, and abandons it otherwise.
+     * Called while the file lock is held, as the log must not change while it is replaced.
+     */
+    private void finishCompaction() throws IOException {
+        Compaction compaction = this.compaction;
+        this.compaction = null;
+        if (!compaction.awaitFinished()) {
+            LOGGER.debug("Abandoning unfinished compaction of {}", this);
+            Files.deleteIfExists(compactedFile.toPath());
+            return;
+        }
+        try (RandomAccessFile compacted = new RandomAccessFile(compactedFile, "rw")) {
+            // Append the records written since the compaction took its snapshot of the index
+            FileChannel source = file.getChannel();
+            FileChannel target = compacted.getChannel();
+            long position = compaction.snapshotEndOfLog;
+            target.position(compaction.compactedEndOfLog);
+            while (position < endOfLog) {
+                position += source.transferTo(position, endOfLog - position, target);
+            }
+        }
+        file.close();
+        file = null;
+        try {
+            Files.move(compactedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(compactedFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        long shift = compaction.snapshotEndOfLog - compaction.compactedEndOfLog;
+        index.relocate(offset -> offset >= compaction.snapshotEndOfLog ? offset - shift : compaction.relocatedOffsetOf(offset));
+        endOfLog -= shift;
+        generation = compaction.generation;
+        checkpointedEndOfLog = -1;
+    }
+
+    private long append(byte[] key, int valueLength, byte[] value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + key.length + value.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(key.length);
+        output.writeInt(valueLength);
+        output.writeInt(checksumOf(key, valueLength, value));
+        output.write(key);
+        output.write(value);
+        long offset = endOfLog;
+        file.seek(offset);
+        file.write(bytes.toByteArray());
+        endOfLog += bytes.size();
+        return offset;
+    }
+
+    private void addToIndex(long hash, long offset, int size) {
+        liveBytes += size - index.put(hash, offset, size);
+    }
+
+    private boolean removeFromIndex(long hash) {
+        int previousSize = index.remove(hash);
+        liveBytes -= previousSize;
+        return previousSize > 0;
+    }
+
+    private static int recordSize(int keyLength, int valueLength) {
+        return RECORD_HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    private static long hashOf(byte[] key) {
+        return KEY_HASH.hashBytes(key).asLong();
+    }
+
+    private static int checksumOf(byte[] key, int valueLength, byte[] value) {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(valueLength >>> shift);
+        }
+        crc.update(value);
+        return (int) crc.getValue();
+    }
+
+    private static <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(bytes);
+        serializer.write(encoder, value);
+        encoder.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copies the records which are live when the compaction starts to a new log.
+     * The records before the end of the log at that point are never modified, so they can be read while the cache is in use.
+     */
+    private class Compaction implements Runnable {
+        private final long generation = ThreadLocalRandom.current().nextLong();
+        private final AtomicBoolean started = new AtomicBoolean();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private boolean succeeded;
+        private long snapshotEndOfLog;
+        private long compactedEndOfLog;
+        private long[] sourceOffsets;
+        private long[] targetOffsets;
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                // The cache can be closed while waiting for the lock, which waits for this compaction to stop
+                while (!readLock.tryLock(10, TimeUnit.MILLISECONDS)) {
+                    if (cancelled) {
+                        return;
+                    }
+                }
+                try {
+                    snapshotEndOfLog = endOfLog;
+                    sourceOffsets = index.sortedOffsets();
+                } finally {
+                    readLock.unlock();
+                }
+                targetOffsets = new long[sourceOffsets.length];
+                succeeded = copyLiveRecords();
+            } catch (Exception e) {
+                LOGGER.warn("Could not compact {}.", LogStructuredPersistentIndexedCache.this, e);
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private boolean copyLiveRecords() throws IOException {
+            try (
+                RandomAccessFile source = new RandomAccessFile(cacheFile, "r");
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedFile)))
+            ) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(generation);
+                long position = HEADER_SIZE;
+                byte[] buffer = new byte[RECORD_HEADER_SIZE];
+                for (int i = 0; i < sourceOffsets.length; i++) {
+                    if (cancelled) {
+                        return false;
+                    }
+                    source.seek(sourceOffsets[i]);
+                    source.readFully(buffer, 0, RECORD_HEADER_SIZE);
+                    ByteBuffer header = ByteBuffer.wrap(buffer);
+                    int size = recordSize(header.getInt(0), header.getInt(4));
+                    if (buffer.length < size) {
+                        buffer = Arrays.copyOf(buffer, size);
+                    }
+                    source.readFully(buffer, RECORD_HEADER_SIZE, size - RECORD_HEADER_SIZE);
+                    output.write(buffer, 0, size);
+                    targetOffsets[i] = position;
+                    position += size;
+                }
+                compactedEndOfLog = position;
+                return true;
+            }
+        }
+
+        /**
+         * Waits for a running compaction to finish or to stop, and returns whether the compacted log can replace the log.
+         */
+        boolean awaitFinished() {
+            if (started.compareAndSet(false, true)) {
+                // Never ran
+                return false;
+            }
+            cancelled = true;
+            Uninterruptibles.awaitUninterruptibly(finished);
+            return succeeded;
+        }
+
+        long relocatedOffsetOf(long offset) {
+            int i = Arrays.binarySearch(sourceOffsets, offset);
+            if (i < 0) {
+                throw new IllegalStateException(String.format("Record at offset %s was not compacted.", offset));
+            }
+            return targetOffsets[i];
+        }
+    }
+}
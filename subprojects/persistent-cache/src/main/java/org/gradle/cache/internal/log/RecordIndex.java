@@ -0,0 +1,184 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.cache.internal.log;
+
+import java.util.Arrays;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * An open addressing hash table from the 64-bit hash of a key to the offset and size of the latest record of that key.
+ *
+ * <p>Keys are identified by their hash only, as in the B-tree store, so that the index does not hold on to the keys themselves.</p>
+ */
+class RecordIndex {
+    private static final long EMPTY = -1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] hashes;
+    private long[] offsets;
+    private int[] sizes;
+    private int count;
+
+    RecordIndex() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the slot of the record of the given key, or -1 when there is none.
+     */
+    int find(long hash) {
+        int mask = offsets.length - 1;
+        for (int slot = slotOf(hash, mask); offsets[slot] != EMPTY; slot = (slot + 1) & mask) {
+            if (hashes[slot] == hash) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    long offsetAt(int slot) {
+        return offsets[slot];
+    }
+
+    int sizeAt(int slot) {
+        return sizes[slot];
+    }
+
+    /**
+     * Points the given key to a new record, returning the size of the record it replaces or 0 when there is none.
+     */
+    int put(long hash, long offset, int size) {
+        if ((count + 1) * 4 > offsets.length * 3) {
+            grow();
+        }
+        int mask = offsets.length - 1;
+        int slot = slotOf(hash, mask);
+        while (offsets[slot] != EMPTY) {
+            if (hashes[slot] == hash) {
+                int previousSize = sizes[slot];
+                offsets[slot] = offset;
+                sizes[slot] = size;
+                return previousSize;
+            }
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        offsets[slot] = offset;
+        sizes[slot] = size;
+        count++;
+        return 0;
+    }
+
+    /**
+     * Removes the given key, returning the size of its record or 0 when there is none.
+     */
+    int remove(long hash) {
+        int slot = find(hash);
+        if (slot < 0) {
+            return 0;
+        }
+        int removedSize = sizes[slot];
+        int mask = offsets.length - 1;
+        // Shift back the following entries of the probe sequence, so that lookups never stop at the freed slot
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (offsets[next] == EMPTY) {
+                break;
+            }
+            int home = slotOf(hashes[next], mask);
+            boolean reachableFromSlot = slot <= next ? home <= slot || home > next : home <= slot && home > next;
+            if (reachableFromSlot) {
+                hashes[slot] = hashes[next];
+                offsets[slot] = offsets[next];
+                sizes[slot] = sizes[next];
+                slot = next;
+            }
+        }
+        offsets[slot] = EMPTY;
+        count--;
+        return removedSize;
+    }
+
+    void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Returns the offsets of all records, in ascending order.
+     */
+    long[] sortedOffsets() {
+        long[] result = new long[count];
+        int pos = 0;
+        for (long offset : offsets) {
+            if (offset != EMPTY) {
+                result[pos++] = offset;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    void relocate(LongUnaryOperator newOffset) {
+        for (int slot = 0; slot < offsets.length; slot++) {
+            if (offsets[slot] != EMPTY) {
+                offsets[slot] = newOffset.applyAsLong(offsets[slot]);
+            }
+        }
+    }
+
+    void visit(Visitor visitor) throws Exception {
+        for (int slot = 0; slot < offsets.length; slot++) {
+            if (offsets[slot] != EMPTY) {
+                visitor.visit(hashes[slot], offsets[slot], sizes[slot]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        long[] oldOffsets = offsets;
+        int[] oldSizes = sizes;
+        allocate(oldOffsets.length * 2);
+        for (int slot = 0; slot < oldOffsets.length; slot++) {
+            if (oldOffsets[slot] != EMPTY) {
+                put(oldHashes[slot], oldOffsets[slot], oldSizes[slot]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        offsets = new long[capacity];
+        sizes = new int[capacity];
+        Arrays.fill(offsets, EMPTY);
+        count = 0;
+    }
+
+    private static int slotOf(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    interface Visitor {
+        void visit(long hash, long offset, int size) throws Exception;
+    }
+}
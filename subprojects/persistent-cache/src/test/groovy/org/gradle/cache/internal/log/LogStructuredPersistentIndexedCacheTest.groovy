@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.log
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class LogStructuredPersistentIndexedCacheTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider(getClass())
+    File cacheFile
+    File checkpointFile
+    List<Runnable> compactions = []
+    LogStructuredPersistentIndexedCache<String, String> cache
+
+    def setup() {
+        cacheFile = tmpDir.file("cache.log")
+        checkpointFile = tmpDir.file("cache.log.idx")
+        cache = createCache()
+    }
+
+    def cleanup() {
+        cache.close()
+    }
+
+    def "persists added, replaced and removed entries"() {
+        when:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.put("a", "3")
+        cache.put("c", "4")
+        cache.remove("c")
+        reopen()
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == "2"
+        cache.get("c") == null
+        cache.get("unknown") == null
+    }
+
+    def "compacts the log in the background and replaces it when closed"() {
+        given:
+        def value = "x" * 1000
+        2000.times {
+            cache.put("key-${it % 10}", value + it)
+        }
+        def length = cacheFile.length()
+
+        expect:
+        compactions.size() == 1
+
+        when:
+        compactions[0].run()
+        cache.put("key-0", "latest")
+        cache.remove("key-1")
+        reopen()
+
+        then:
+        cacheFile.length() < length / 100
+        !tmpDir.file("cache.log.compact").exists()
+        cache.get("key-0") == "latest"
+        cache.get("key-1") == null
+        (2..9).each {
+            assert cache.get("key-$it") == value + (1990 + it)
+        }
+    }
+
+    def "abandons a compaction which has not finished when closed"() {
+        given:
+        def value = "x" * 1000
+        2000.times {
+            cache.put("key-${it % 10}", value + it)
+        }
+        def length = cacheFile.length()
+
+        when:
+        reopen()
+        compactions[0].run()
+
+        then:
+        cacheFile.length() == length
+        !tmpDir.file("cache.log.compact").exists()
+        10.times {
+            assert cache.get("key-$it") == value + (1990 + it)
+        }
+    }
+
+    def "reads records appended after the checkpoint"() {
+        given:
+        cache.put("a", "1")
+        cache.close()
+        def checkpoint = checkpointFile.bytes
+
+        when:
+        cache = createCache()
+        cache.put("b", "2")
+        cache.put("a", "3")
+        cache.close()
+        // As if the process had stopped before writing a new checkpoint
+        checkpointFile.bytes = checkpoint
+        cache = createCache()
+
+        then:
+        cache.get("a") == "3"
+        cache.get("b") == "2"
+    }
+
+    def "ignores the checkpoint of another log"() {
+        given:
+        cache.put("a", "1")
+        cache.close()
+        def checkpoint = checkpointFile.bytes
+        cacheFile.delete()
+        cache = createCache()
+        cache.put("b", "2")
+        cache.put("c", "3")
+        cache.close()
+
+        when:
+        checkpointFile.bytes = checkpoint
+        cache = createCache()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "2"
+        cache.get("c") == "3"
+        !checkpointFile.exists()
+    }
+
+    def "ignores a corrupt checkpoint"() {
+        given:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.close()
+        def checkpoint = checkpointFile.bytes
+        checkpoint[checkpoint.length - 6] = (byte) (checkpoint[checkpoint.length - 6] ^ 0xFF)
+        checkpointFile.bytes = checkpoint
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == "2"
+    }
+
+    def "discards an incomplete record at the end of the log"() {
+        given:
+        cache.put("a", "1")
+        cache.put("b", "2")
+        cache.close()
+        def length = cacheFile.length()
+        new RandomAccessFile(cacheFile, "rw").withCloseable { it.setLength(length - 1) }
+
+        when:
+        cache = createCache()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("b") == null
+
+        when:
+        cache.put("c", "3")
+        reopen()
+
+        then:
+        cache.get("a") == "1"
+        cache.get("c") == "3"
+    }
+
+    def "discards a file in an unknown format"() {
+        given:
+        cache.close()
+        cacheFile.text = "not a log"
+
+        when:
+        cache = createCache()
+        cache.put("a", "1")
+        reopen()
+
+        then:
+        cache.get("a") == "1"
+    }
+
+    private void reopen() {
+        cache.close()
+        cache = createCache()
+    }
+
+    private LogStructuredPersistentIndexedCache<String, String> createCache() {
+        new LogStructuredPersistentIndexedCache<String, String>(cacheFile, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER, { compactions << it })
+    }
+}
@@ -17,6 +17,7 @@
 package org.gradle.internal.snapshot.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Iterables;
@@ -50,15 +51,29 @@
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Predicate;
 
 import static org.gradle.internal.snapshot.MerkleDirectorySnapshotBuilder.EmptyDirectoryHandlingStrategy.INCLUDE_EMPTY_DIRS;
 
+/**
+ * Snapshots a file system hierarchy.
+ *
+ * When given a {@link ForkJoinPool}, subdirectories are walked and regular files are hashed concurrently in the pool,
+ * while still producing the same snapshot as when walking the hierarchy sequentially.
+ * In that case, the {@link SnapshottingFilter.DirectoryWalkerPredicate} passed to {@link #snapshot(String, SnapshottingFilter.DirectoryWalkerPredicate, AtomicBoolean)}
+ * must be safe to call from multiple threads.
+ */
 public class DirectorySnapshotter {
     private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySnapshotter.class);
     private static final EnumSet<FileVisitOption> DONT_FOLLOW_SYMLINKS = EnumSet.noneOf(FileVisitOption.class);
@@ -71,7 +86,7 @@ public String remapAbsolutePath(Path path) {
 
         @Override
         public SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker) {
-            return new DefaultSymbolicLinkMapping(source, target, currentPathTracker.getSegments());
+            return new DefaultSymbolicLinkMapping(source, target, ImmutableList.copyOf(currentPathTracker.getSegments()));
         }
 
         @Override
@@ -84,20 +99,25 @@ public Iterable<String> getRemappedSegments(Iterable<String> segments) {
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
     private final DirectorySnapshotterStatistics.Collector collector;
+    private final ForkJoinPool forkJoinPool;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector) {
+        this(hasher, stringInterner, defaultExcludes, collector, null);
+    }
+
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, Collection<String> defaultExcludes, DirectorySnapshotterStatistics.Collector collector, @Nullable ForkJoinPool forkJoinPool) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
         this.collector = collector;
+        this.forkJoinPool = forkJoinPool;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate, final AtomicBoolean hasBeenFiltered) {
         try {
             Path rootPath = Paths.get(absolutePath);
-            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING);
-            Files.walkFileTree(rootPath, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, visitor);
-            return visitor.getResult();
+            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes, collector, EMPTY_SYMBOLIC_LINK_MAPPING, forkJoinPool, new ArrayDeque<>(), false);
+            return visitor.walk(rootPath);
         } catch (IOException e) {
             throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", absolutePath), e);
         }
@@ -138,7 +158,7 @@ public String remapAbsolutePath(String absolutePath) {
 
         @Override
         public SymbolicLinkMapping withNewMapping(String source, String target, RelativePathTracker currentPathTracker) {
-            return new DefaultSymbolicLinkMapping(remapAbsolutePath(source), target, getRemappedSegments(currentPathTracker.getSegments()));
+            return new DefaultSymbolicLinkMapping(remapAbsolutePath(source), target, ImmutableList.copyOf(getRemappedSegments(currentPathTracker.getSegments())));
         }
 
         @Override
@@ -229,7 +249,12 @@ private static class PathVisitor extends DirectorySnapshotterStatistics.Collecti
         private final Interner<String> stringInterner;
         private final DefaultExcludes defaultExcludes;
         private final SymbolicLinkMapping symbolicLinkMapping;
-        private final Deque<String> parentDirectories = new ArrayDeque<>();
+        private final ForkJoinPool forkJoinPool;
+        private final Deque<String> parentDirectories;
+        /**
+         * When walking in parallel, the builder events are recorded here and replayed once the forked work has completed.
+         */
+        private List<Consumer<MerkleDirectorySnapshotBuilder>> deferredEvents;
 
         public PathVisitor(
             @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate,
@@ -238,9 +263,12 @@ public PathVisitor(
             Interner<String> stringInterner,
             DefaultExcludes defaultExcludes,
             DirectorySnapshotterStatistics.Collector statisticsCollector,
-            SymbolicLinkMapping symbolicLinkMapping
+            SymbolicLinkMapping symbolicLinkMapping,
+            @Nullable ForkJoinPool forkJoinPool,
+            Deque<String> parentDirectories,
+            boolean continuesHierarchy
         ) {
-            super(statisticsCollector);
+            super(statisticsCollector, continuesHierarchy);
             this.builder = MerkleDirectorySnapshotBuilder.sortingRequired();
             this.predicate = predicate;
             this.hasBeenFiltered = hasBeenFiltered;
@@ -248,22 +276,99 @@ public PathVisitor(
             this.stringInterner = stringInterner;
             this.defaultExcludes = defaultExcludes;
             this.symbolicLinkMapping = symbolicLinkMapping;
+            this.forkJoinPool = forkJoinPool;
+            this.parentDirectories = parentDirectories;
+            this.deferredEvents = forkJoinPool == null ? null : new ArrayList<>();
+        }
+
+        public FileSystemLocationSnapshot walk(Path root) throws IOException {
+            Files.walkFileTree(root, DONT_FOLLOW_SYMLINKS, Integer.MAX_VALUE, this);
+            return getResult();
+        }
+
+        private PathVisitor newSubtreeVisitor(SymbolicLinkMapping symbolicLinkMapping, boolean continuesHierarchy) {
+            return new PathVisitor(
+                predicate,
+                hasBeenFiltered,
+                hasher,
+                stringInterner,
+                defaultExcludes,
+                collector,
+                symbolicLinkMapping,
+                forkJoinPool,
+                new ArrayDeque<>(parentDirectories),
+                continuesHierarchy
+            );
         }
 
         @Override
         protected FileVisitResult doPreVisitDirectory(Path dir, BasicFileAttributes attrs) {
             String fileName = getInternedFileName(dir);
             pathTracker.enter(fileName);
-            if (pathTracker.isRoot() || shouldVisit(dir, fileName, true, pathTracker.getSegments())) {
-                builder.enterDirectory(AccessType.DIRECT, intern(symbolicLinkMapping.remapAbsolutePath(dir)), fileName, INCLUDE_EMPTY_DIRS);
-                parentDirectories.addFirst(dir.toString());
+            if (pathTracker.isRoot()) {
+                enterDirectory(dir, fileName);
                 return FileVisitResult.CONTINUE;
+            } else if (shouldVisit(dir, fileName, true, pathTracker.getSegments())) {
+                if (forkJoinPool == null) {
+                    enterDirectory(dir, fileName);
+                    return FileVisitResult.CONTINUE;
+                }
+                String dirString = dir.toString();
+                PathVisitor subtreeVisitor = newSubtreeVisitor(symbolicLinkMapping.withNewMapping(dirString, dirString, pathTracker), true);
+                visitSubtree(dir, dir, subtreeVisitor, Function.identity());
+                pathTracker.leave();
+                return FileVisitResult.SKIP_SUBTREE;
             } else {
                 pathTracker.leave();
                 return FileVisitResult.SKIP_SUBTREE;
             }
         }
 
+        private void enterDirectory(Path dir, String fileName) {
+            String internedAbsolutePath = intern(symbolicLinkMapping.remapAbsolutePath(dir));
+            record(builder -> builder.enterDirectory(AccessType.DIRECT, internedAbsolutePath, fileName, INCLUDE_EMPTY_DIRS));
+            parentDirectories.addFirst(dir.toString());
+        }
+
+        /**
+         * Walks the subtree with the given visitor, either right away or, when walking in parallel, in the fork-join pool.
+         */
+        private void visitSubtree(Path path, Path root, PathVisitor subtreeVisitor, Function<DirectorySnapshot, DirectorySnapshot> resultTransformer) {
+            if (forkJoinPool == null) {
+                DirectorySnapshot result = (DirectorySnapshot) walkSubtree(path, root, subtreeVisitor);
+                builder.visitDirectory(resultTransformer.apply(result));
+            } else {
+                ForkJoinTask<FileSystemLocationSnapshot> subtree = fork(() -> walkSubtree(path, root, subtreeVisitor));
+                deferredEvents.add(builder -> builder.visitDirectory(resultTransformer.apply((DirectorySnapshot) subtree.join())));
+            }
+        }
+
+        private static FileSystemLocationSnapshot walkSubtree(Path path, Path root, PathVisitor subtreeVisitor) {
+            try {
+                return subtreeVisitor.walk(root);
+            } catch (IOException e) {
+                throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", path), e);
+            }
+        }
+
+        private <T> ForkJoinTask<T> fork(Callable<T> action) {
+            ForkJoinTask<T> task = ForkJoinTask.adapt(action);
+            if (ForkJoinTask.getPool() == forkJoinPool) {
+                task.fork();
+            } else {
+                forkJoinPool.execute(task);
+            }
+            return task;
+        }
+
+        private void record(Consumer<MerkleDirectorySnapshotBuilder> event) {
+            if (deferredEvents == null) {
+                event.accept(builder);
+            } else {
+                deferredEvents.add(event);
+            }
+        }
+
         @Override
         protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
             String internedFileName = getInternedFileName(file);
@@ -279,18 +384,8 @@ protected FileVisitResult doVisitFile(Path file, BasicFileAttributes attrs) {
                                 return FileVisitResult.CONTINUE;
                             }
                             if (pathTracker.isRoot() || shouldVisit(targetDir, internedFileName, true, pathTracker.getSegments())) {
-                                PathVisitor subtreeVisitor = new PathVisitor(
-                                    predicate,
-                                    hasBeenFiltered,
-                                    hasher,
-                                    stringInterner,
-                                    defaultExcludes,
-                                    collector,
-                                    symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker)
-                                );
-                                Files.walkFileTree(targetDir, EnumSet.noneOf(FileVisitOption.class), Integer.MAX_VALUE, subtreeVisitor);
-                                DirectorySnapshot result = (DirectorySnapshot) subtreeVisitor.getResult();
-                                builder.visitDirectory(new DirectorySnapshot(
+                                PathVisitor subtreeVisitor = newSubtreeVisitor(symbolicLinkMapping.withNewMapping(file.toString(), targetDirString, pathTracker), false);
+                                visitSubtree(file, targetDir, subtreeVisitor, result -> new DirectorySnapshot(
                                     result.getAbsolutePath(),
                                     internedFileName,
                                     AccessType.VIA_SYMLINK,
@@ -320,7 +415,16 @@ private boolean introducesCycle(String targetDirString) {
         private void visitResolvedFile(Path file, BasicFileAttributes targetAttributes, AccessType accessType) {
             String internedName = intern(file.getFileName().toString());
             if (shouldVisit(file, internedName, false, pathTracker.getSegments())) {
-                builder.visitLeafElement(snapshotFile(file, internedName, targetAttributes, accessType));
+                if (forkJoinPool != null && targetAttributes.isRegularFile()) {
+                    ForkJoinTask<FileSystemLeafSnapshot> snapshot = fork(() -> {
+                        collector.recordHashFile();
+                        return snapshotFile(file, internedName, targetAttributes, accessType);
+                    });
+                    deferredEvents.add(builder -> builder.visitLeafElement(snapshot.join()));
+                } else {
+                    FileSystemLeafSnapshot snapshot = snapshotFile(file, internedName, targetAttributes, accessType);
+                    record(builder -> builder.visitLeafElement(snapshot));
+                }
             }
         }
 
@@ -363,8 +467,8 @@ protected FileVisitResult doVisitFileFailed(Path file, IOException exc) {
                     boolean isDirectory = Files.isDirectory(file);
                     if (shouldVisit(file, internedFileName, isDirectory, pathTracker.getSegments())) {
                         LOGGER.info("Could not read file path '{}'.", file);
-                        String internedAbsolutePath = intern(file.toString());
-                        builder.visitLeafElement(new MissingFileSnapshot(internedAbsolutePath, internedFileName, AccessType.DIRECT));
+                        MissingFileSnapshot snapshot = new MissingFileSnapshot(intern(file.toString()), internedFileName, AccessType.DIRECT);
+                        record(builder -> builder.visitLeafElement(snapshot));
                     }
                 }
                 return FileVisitResult.CONTINUE;
@@ -382,7 +486,7 @@ protected FileVisitResult doPostVisitDirectory(Path dir, IOException exc) {
             if (isNotFileSystemLoopException(exc)) {
                 throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), exc);
             }
-            builder.leaveDirectory();
+            record(MerkleDirectorySnapshotBuilder::leaveDirectory);
             parentDirectories.removeFirst();
             return FileVisitResult.CONTINUE;
         }
@@ -425,6 +529,12 @@ private String getInternedFileName(Path dir) {
         }
 
         public FileSystemLocationSnapshot getResult() {
+            if (deferredEvents != null) {
+                for (Consumer<MerkleDirectorySnapshotBuilder> event : deferredEvents) {
+                    event.accept(builder);
+                }
+                deferredEvents = null;
+            }
             return builder.getResult();
         }
     }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The fork-join pool used by {@link DirectorySnapshotter} to walk directories and hash files in parallel, if enabled.
+ * Classpath fingerprinting also uses it to hash the entries of large jars in parallel.
+ */
+public class DirectorySnapshotterPool implements Closeable {
+    /**
+     * System property setting the number of threads used to snapshot a directory or to hash the entries of a jar. Both happen on the calling thread when not set or less than 2.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.gradle.internal.snapshot.parallelism";
+
+    private final ForkJoinPool forkJoinPool;
+
+    public DirectorySnapshotterPool(int parallelism) {
+        this.forkJoinPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    public static DirectorySnapshotterPool fromSystemProperties() {
+        return new DirectorySnapshotterPool(Integer.getInteger(PARALLELISM_PROPERTY, 1));
+    }
+
+    /**
+     * Returns the pool to snapshot directories with, or {@code null} when directories should be snapshotted sequentially.
+     */
+    @Nullable
+    public ForkJoinPool getForkJoinPool() {
+        return forkJoinPool;
+    }
+
+    @Override
+    public void close() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+    }
+}
@@ -22,6 +22,10 @@
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.MessageFormat;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public interface DirectorySnapshotterStatistics {
@@ -45,11 +49,29 @@ public interface DirectorySnapshotterStatistics {
      */
     long getFailedFiles();
 
+    /**
+     * The number of files hashed concurrently when snapshotting directories in parallel.
+     */
+    long getHashedFiles();
+
+    /**
+     * The number of visited directories and files, by the name of the visiting thread.
+     */
+    Map<String, Long> getVisitsByThread();
+
+    /**
+     * The number of files hashed concurrently when snapshotting directories in parallel, by the name of the hashing thread.
+     */
+    Map<String, Long> getHashesByThread();
+
     class Collector {
         private final AtomicLong hierarchyCount = new AtomicLong();
         private final AtomicLong directoryCount = new AtomicLong();
         private final AtomicLong fileCount = new AtomicLong();
         private final AtomicLong failedFileCount = new AtomicLong();
+        private final AtomicLong hashedFileCount = new AtomicLong();
+        private final ConcurrentMap<String, AtomicLong> visitsByThread = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> hashesByThread = new ConcurrentHashMap<>();
 
         public void recordVisitHierarchy() {
             hierarchyCount.incrementAndGet();
@@ -57,10 +79,41 @@ public void recordVisitHierarchy() {
 
         public void recordVisitDirectory() {
             directoryCount.incrementAndGet();
+            incrementForCurrentThread(visitsByThread);
         }
 
         public void recordVisitFile() {
             fileCount.incrementAndGet();
+            incrementForCurrentThread(visitsByThread);
+        }
+
+        public void recordHashFile() {
+            hashedFileCount.incrementAndGet();
+            incrementForCurrentThread(hashesByThread);
+        }
+
+        private static void incrementForCurrentThread(ConcurrentMap<String, AtomicLong> countsByThread) {
+            String threadName = Thread.currentThread().getName();
+            AtomicLong count = countsByThread.get(threadName);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = countsByThread.putIfAbsent(threadName, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        private static Map<String, Long> collectByThread(ConcurrentMap<String, AtomicLong> countsByThread) {
+            Map<String, Long> result = new TreeMap<>();
+            for (String threadName : countsByThread.keySet()) {
+                AtomicLong count = countsByThread.remove(threadName);
+                if (count != null) {
+                    result.put(threadName, count.get());
+                }
+            }
+            return result;
         }
 
         public void recordVisitFileFailed() {
@@ -72,6 +125,9 @@ public DirectorySnapshotterStatistics collect() {
             long directoryCount = this.directoryCount.getAndSet(0);
             long fileCount = this.fileCount.getAndSet(0);
             long failedFileCount = this.failedFileCount.getAndSet(0);
+            long hashedFileCount = this.hashedFileCount.getAndSet(0);
+            Map<String, Long> visitsByThread = collectByThread(this.visitsByThread);
+            Map<String, Long> hashesByThread = collectByThread(this.hashesByThread);
 
             return new DirectorySnapshotterStatistics() {
                 @Override
@@ -94,10 +150,30 @@ public long getFailedFiles() {
                     return failedFileCount;
                 }
 
+                @Override
+                public long getHashedFiles() {
+                    return hashedFileCount;
+                }
+
+                @Override
+                public Map<String, Long> getVisitsByThread() {
+                    return visitsByThread;
+                }
+
+                @Override
+                public Map<String, Long> getHashesByThread() {
+                    return hashesByThread;
+                }
+
                 @Override
                 public String toString() {
-                    return MessageFormat.format("Snapshot {0,number,integer} directory hierarchies (visited {1,number,integer} directories, {2,number,integer} files and {3,number,integer} failed files)",
+                    String summary = MessageFormat.format("Snapshot {0,number,integer} directory hierarchies (visited {1,number,integer} directories, {2,number,integer} files and {3,number,integer} failed files)",
                         hierarchyCount, directoryCount, fileCount, failedFileCount);
+                    if (hashedFileCount == 0) {
+                        return summary;
+                    }
+                    return summary + MessageFormat.format(", hashed {0,number,integer} files in parallel (visits by thread: {1}, hashes by thread: {2})",
+                        hashedFileCount, visitsByThread, hashesByThread);
                 }
             };
         }
@@ -105,15 +181,30 @@ public String toString() {
 
     abstract class CollectingFileVisitor implements FileVisitor<Path> {
         protected final Collector collector;
+        private boolean rootDirectoryAlreadyRecorded;
 
         public CollectingFileVisitor(Collector collector) {
+            this(collector, false);
+        }
+
+        /**
+         * @param continuesHierarchy whether this visitor walks a subtree of a hierarchy already being visited, whose root directory has already been recorded.
+         */
+        protected CollectingFileVisitor(Collector collector, boolean continuesHierarchy) {
             this.collector = collector;
-            collector.recordVisitHierarchy();
+            this.rootDirectoryAlreadyRecorded = continuesHierarchy;
+            if (!continuesHierarchy) {
+                collector.recordVisitHierarchy();
+            }
         }
 
         @Override
         public final FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
-            collector.recordVisitDirectory();
+            if (rootDirectoryAlreadyRecorded) {
+                rootDirectoryAlreadyRecorded = false;
+            } else {
+                collector.recordVisitDirectory();
+            }
             return doPreVisitDirectory(dir, attrs);
         }
 
@@ -38,6 +38,7 @@ import spock.lang.Issue
 import spock.lang.Specification
 
 import java.nio.file.Paths
+import java.util.concurrent.ForkJoinPool
 import java.util.concurrent.atomic.AtomicBoolean
 
 @UsesNativeServices
@@ -382,6 +383,36 @@ class DirectorySnapshotterTest extends Specification {
         pipe.delete()
     }
 
+    @Requires(TestPrecondition.SYMLINKS)
+    def "parallel snapshot is the same as sequential snapshot"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("a.txt").text = "a"
+        rootDir.file("a/b/c.txt").text = "c"
+        rootDir.file("a/b/c.html").text = "html"
+        rootDir.file("a/c/c.txt").text = "other c"
+        rootDir.file("subdir1/a/b/c.html").text = "excluded"
+        rootDir.file("empty/nested").createDir()
+        rootDir.file("linked").createLink(rootDir.file("a/b"))
+        def patterns = new PatternSet().exclude("subdir1/**")
+        def pool = new ForkJoinPool(4)
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), [], statisticsCollector, pool)
+        def parallelFiltered = new AtomicBoolean(false)
+
+        when:
+        def sequential = directorySnapshotter.snapshot(rootDir.absolutePath, directoryWalkerPredicate(patterns), actuallyFiltered)
+        def parallel = parallelSnapshotter.snapshot(rootDir.absolutePath, directoryWalkerPredicate(patterns), parallelFiltered)
+
+        then:
+        parallel.hash == sequential.hash
+        parallelFiltered.get() == actuallyFiltered.get()
+        SnapshotVisitorUtil.getAbsolutePaths(parallel, true) == SnapshotVisitorUtil.getAbsolutePaths(sequential, true)
+        SnapshotVisitorUtil.getRelativePaths(parallel, true) == SnapshotVisitorUtil.getRelativePaths(sequential, true)
+
+        cleanup:
+        pool?.shutdown()
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes() as List)
 